@@ -1,14 +1,35 @@
 package de.pentagonlp.simplelogging;
 
+import java.util.Arrays;
+
 import de.pentagonlp.simplelogging.ansi.AnsiColor;
 
 /**
  * The levels used for logging.
+ * <p>
+ * Every {@link Level}, built-in or custom, is registered when it is created and
+ * gets a small, dense ordinal ({@link Level#getOrdinal()}): the first
+ * {@link Level} gets {@code 0}, the next {@code 1} and so on. Data per
+ * {@link Level} can therefore be kept in a plain array indexed by the ordinal,
+ * instead of a map. Such arrays must be grown if a {@link Level} is created
+ * later, see {@link Level#getLevelCount()}.
  * 
  * @author PentagonLP
  */
 public class Level {
 
+	/**
+	 * All registered {@link Level Levels}, indexed by their ordinal. Replaced by a
+	 * copy every time a {@link Level} is registered.
+	 */
+	private static volatile Level[] levels = new Level[0];
+	/**
+	 * All registered {@link Level Levels}, sorted by their priority, to look them
+	 * up by priority using a binary search. Replaced by a copy every time a
+	 * {@link Level} is registered.
+	 */
+	private static volatile Level[] sortedlevels = new Level[0];
+
 	/**
 	 * Logging level {@code FATAL} should be used if a major error occurs that lead
 	 * to a shutdown of the entire program.
@@ -44,6 +65,10 @@ public class Level {
 	 * Priority compared to other {@link Level Levels}, as a number
 	 */
 	private final int intLevel;
+	/**
+	 * The dense ordinal of the {@link Level}, assigned when it is registered
+	 */
+	private final int ordinal;
 
 	/**
 	 * The {@link AnsiColor} used for logged messages for this {@link Level},
@@ -60,9 +85,7 @@ public class Level {
 	 *                 {@link Level Levels}, as a number
 	 */
 	public Level(String name, int intLevel) {
-		this.name = name;
-		this.color = AnsiColor.WHITE;
-		this.intLevel = intLevel;
+		this(name, intLevel, AnsiColor.WHITE);
 	}
 
 	/**
@@ -79,6 +102,126 @@ public class Level {
 		this.name = name;
 		this.color = color;
 		this.intLevel = intLevel;
+		this.ordinal = register(this);
+	}
+
+	/**
+	 * Register a new {@link Level}.
+	 * 
+	 * @param level the new {@link Level}
+	 * @return the ordinal assigned to the {@link Level}
+	 */
+	private static synchronized int register(Level level) {
+		Level[] newlevels = Arrays.copyOf(levels, levels.length + 1);
+		newlevels[levels.length] = level;
+
+		// Insert after all Levels of the same priority, so the oldest one is found
+		int index = firstAbove(sortedlevels, level.intLevel);
+		Level[] newsortedlevels = new Level[sortedlevels.length + 1];
+		System.arraycopy(sortedlevels, 0, newsortedlevels, 0, index);
+		newsortedlevels[index] = level;
+		System.arraycopy(sortedlevels, index, newsortedlevels, index + 1, sortedlevels.length - index);
+
+		sortedlevels = newsortedlevels;
+		levels = newlevels;
+		return newlevels.length - 1;
+	}
+
+	/**
+	 * Get the index of the first {@link Level} with a priority greater than a
+	 * value, using a binary search
+	 * 
+	 * @param sorted the {@link Level Levels}, sorted by their priority
+	 * @param value  the priority
+	 * @return the index of the first {@link Level} with a priority greater than
+	 *         {@code value}, the length of the array if there is none
+	 */
+	private static int firstAbove(Level[] sorted, int value) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle].intLevel <= value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Get a registered {@link Level} by its ordinal
+	 * 
+	 * @param ordinal the ordinal of the {@link Level}
+	 * @return the {@link Level}
+	 * @throws IndexOutOfBoundsException if no {@link Level} has this ordinal
+	 */
+	public static Level forOrdinal(int ordinal) {
+		return levels[ordinal];
+	}
+
+	/**
+	 * Get a registered {@link Level} by its name. If several {@link Level Levels}
+	 * have the same name, the one created first is returned.
+	 * 
+	 * @param name the name of the {@link Level}, case insensitive
+	 * @return the {@link Level}, {@code null} if no {@link Level} has this name
+	 */
+	public static Level forName(String name) {
+		for (Level level : levels) {
+			if (level.name.equalsIgnoreCase(name))
+				return level;
+		}
+		return null;
+	}
+
+	/**
+	 * Get a registered {@link Level} by its priority. If several {@link Level
+	 * Levels} have the same priority, the one created first is returned.
+	 * 
+	 * @param intLevel the priority of the {@link Level}
+	 * @return the {@link Level}, {@code null} if no {@link Level} has this
+	 *         priority
+	 */
+	public static Level forIntLevel(int intLevel) {
+		Level[] sorted = sortedlevels;
+		// The first Level of this priority directly follows the last one below
+		int index = intLevel == Integer.MIN_VALUE ? 0 : firstAbove(sorted, intLevel - 1);
+		if (index == sorted.length || sorted[index].intLevel != intLevel)
+			return null;
+		return sorted[index];
+	}
+
+	/**
+	 * Get all registered {@link Level Levels}
+	 * 
+	 * @return a copy of all registered {@link Level Levels}, indexed by their
+	 *         ordinal
+	 */
+	public static Level[] getLevels() {
+		return levels.clone();
+	}
+
+	/**
+	 * Get the number of registered {@link Level Levels}. Arrays with data per
+	 * {@link Level} need at least this length.
+	 * 
+	 * @return the number of registered {@link Level Levels}, one more than the
+	 *         highest ordinal
+	 */
+	public static int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * Get the dense ordinal of the {@link Level}, assigned when it was created. Use
+	 * it as the index of arrays with data per {@link Level}.
+	 * 
+	 * @return the ordinal of the {@link Level}, from {@code 0} to
+	 *         {@link Level#getLevelCount()}{@code - 1}
+	 */
+	public int getOrdinal() {
+		return ordinal;
 	}
 
 	/**
@@ -2,7 +2,10 @@ package de.pentagonlp.simplelogging;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import de.pentagonlp.simplelogging.tools.CallSite;
+import de.pentagonlp.simplelogging.tools.PrefixTrie;
 import de.pentagonlp.simplelogging.tools.StackTrace;
 
 /**
@@ -25,6 +28,33 @@ public class Log {
 	 * names to better distinguish classes able to log things
 	 */
 	private final static HashMap<String, String> CLASSTRANSLATIONS = new HashMap<>();
+	/**
+	 * Incremented every time a class name translation is registered or removed, so
+	 * cached translations (e.g. in {@link CallSite}) know when to look them up
+	 * again
+	 */
+	private static volatile int classtranslationsversion = 0;
+	/**
+	 * Whether any class name translation is registered, updated every time a
+	 * translation is registered or removed
+	 */
+	private static volatile boolean classtranslated = false;
+	/**
+	 * {@link PrefixTrie} for translation of package or class name prefixes to
+	 * proper, manually given names. Used if no translation for the exact class
+	 * name is registered.
+	 */
+	private final static PrefixTrie<String> PREFIXTRANSLATIONS = new PrefixTrie<>();
+	/**
+	 * Memoized results of {@link Log#getClassName(String)}, per concrete class
+	 * name. Cleared every time a translation is registered or removed.
+	 */
+	private final static ConcurrentHashMap<String, String> RESOLVEDCLASSNAMES = new ConcurrentHashMap<>();
+	/**
+	 * Marker stored in {@link Log#RESOLVEDCLASSNAMES} for class names without a
+	 * translation, as {@link ConcurrentHashMap} can not store {@code null}
+	 */
+	private final static String NOTRANSLATION = new String();
 
 	/**
 	 * Specifies whether the program starts in debug mode by default
@@ -49,12 +79,37 @@ public class Log {
 	 * initialization of the logging API
 	 */
 	private final static boolean ADDDEFAULTLOGGERATINIT = true;
+	/**
+	 * Default time {@link Log#shutdown()} waits for the default {@link Logger
+	 * Loggers} to be closed, in milliseconds
+	 */
+	public final static long DEFAULTSHUTDOWNTIMEOUT = 5000;
 
 	/**
 	 * List of default {@link Logger Loggers} that are asked to log a message when
 	 * {@link Log#log(Level, String, boolean)} is called
 	 */
 	private static ArrayList<Logger> defaultlogger = null;
+	/**
+	 * The {@link LogRouter} sending messages only to the {@link Logger Loggers}
+	 * keeping them, {@code null} to send all messages to all default
+	 * {@link Logger Loggers}
+	 * 
+	 * @see Log#setRouter(LogRouter)
+	 */
+	private static volatile LogRouter router = null;
+	/**
+	 * Whether every default {@link Logger} gets its own queue and background
+	 * thread
+	 * 
+	 * @see Log#setIsolatedsinks(boolean)
+	 */
+	private static volatile boolean isolatedsinks = false;
+	/**
+	 * The {@link LoggerWorker} of every default {@link Logger}, if sinks are
+	 * isolated
+	 */
+	private final static ConcurrentHashMap<Logger, LoggerWorker> SINKWORKERS = new ConcurrentHashMap<>();
 
 	/**
 	 * Specifies whether the program currently runs in debug mode
@@ -74,6 +129,13 @@ public class Log {
 	 * @see {@link Log#setProgramname(String)}
 	 */
 	private static String programname = DEFAULTPROGRAMNAME;
+	/**
+	 * The JVM shutdown hook calling {@link Log#shutdown()}, {@code null} if not
+	 * registered
+	 * 
+	 * @see Log#setShutdownhook(boolean)
+	 */
+	private static Thread shutdownhook = null;
 
 	/**
 	 * Call all {@link Logger Loggers} on the {@link Log#getDefaultlogger()} list to
@@ -89,7 +151,16 @@ public class Log {
 	 *                       given.
 	 */
 	public static void log(Level level, String msg, boolean sandboxwarning) {
+		LogRouter router = Log.router;
+		if (router != null) {
+			router.log(level, msg, sandboxwarning);
+			return;
+		}
 		initLoggerIfNeeded();
+		if (isolatedsinks) {
+			queue(level, msg, sandboxwarning);
+			return;
+		}
 		for (Logger logger : defaultlogger) {
 			logger.log(level, msg, sandboxwarning);
 		}
@@ -104,7 +175,16 @@ public class Log {
 	 * @see Log#log(Level, String, boolean)
 	 */
 	public static void log(Level level, String msg) {
+		LogRouter router = Log.router;
+		if (router != null) {
+			router.log(level, msg);
+			return;
+		}
 		initLoggerIfNeeded();
+		if (isolatedsinks) {
+			queue(level, msg, null);
+			return;
+		}
 		for (Logger logger : defaultlogger) {
 			logger.log(level, msg);
 		}
@@ -124,7 +204,16 @@ public class Log {
 	 * @see Log#log(Level, String, boolean)
 	 */
 	public static void log(String msg, boolean sandboxwarning) {
+		LogRouter router = Log.router;
+		if (router != null) {
+			router.log(router.getDefaultlevel(), msg, sandboxwarning);
+			return;
+		}
 		initLoggerIfNeeded();
+		if (isolatedsinks) {
+			queue(null, msg, sandboxwarning);
+			return;
+		}
 		for (Logger logger : defaultlogger) {
 			logger.log(msg, sandboxwarning);
 		}
@@ -138,12 +227,49 @@ public class Log {
 	 * @see Log#log(Level, String, boolean)
 	 */
 	public static void log(String msg) {
+		LogRouter router = Log.router;
+		if (router != null) {
+			router.log(router.getDefaultlevel(), msg);
+			return;
+		}
 		initLoggerIfNeeded();
+		if (isolatedsinks) {
+			queue(null, msg, null);
+			return;
+		}
 		for (Logger logger : defaultlogger) {
 			logger.log(msg);
 		}
 	}
 
+	/**
+	 * Log a message with a tag, of a specified {@link Level}. If a
+	 * {@link LogRouter} is set, the message is only sent to the {@link Logger
+	 * Loggers} routed messages with this tag, otherwise the tag is ignored and
+	 * the message is sent to all {@link Logger Loggers} on the
+	 * {@link Log#getDefaultlogger()} list.
+	 * 
+	 * @param level the {@link Level} of the logged message
+	 * @param tag   the tag of the logged message, e.g. {@code "audit"}
+	 * @param msg   the logged message, as a {@link String}
+	 * @see LogRouter#addRoute(Logger, Level, Level, String, String)
+	 */
+	public static void log(Level level, String tag, String msg) {
+		LogRouter router = Log.router;
+		if (router != null) {
+			router.log(level, tag, msg);
+			return;
+		}
+		initLoggerIfNeeded();
+		if (isolatedsinks) {
+			queue(level, msg, null);
+			return;
+		}
+		for (Logger logger : defaultlogger) {
+			logger.log(level, msg);
+		}
+	}
+
 	/**
 	 * Call all {@link Logger Loggers} on the {@link Log#getDefaultlogger()} list to
 	 * log a stack trace of a {@link Throwable}.
@@ -151,12 +277,116 @@ public class Log {
 	 * @param t the {@link Throwable} to log
 	 */
 	public static void printStackTrace(Throwable t) {
+		LogRouter router = Log.router;
+		if (router != null) {
+			router.printStackTrace(t);
+			return;
+		}
 		initLoggerIfNeeded();
+		if (isolatedsinks) {
+			for (Logger logger : defaultlogger)
+				sinkWorkerOf(logger).printStackTrace(t);
+			return;
+		}
 		for (Logger logger : defaultlogger) {
 			logger.printStackTrace(t);
 		}
 	}
 
+	/**
+	 * Queue a message for all default {@link Logger Loggers}, if sinks are
+	 * isolated. The call site and context are taken once, on the calling thread.
+	 * The {@link Level} is checked first: {@link Logger Loggers} that would drop
+	 * the message are skipped, and the call site is only looked up if any
+	 * {@link Logger} uses it.
+	 * 
+	 * @param level          the {@link Level} of the message, {@code null} for the
+	 *                       default {@link Level} of every {@link Logger}
+	 * @param msg            the message
+	 * @param sandboxwarning whether a sandbox warning is given, {@code null} for
+	 *                       the default of every {@link Logger}
+	 */
+	private static void queue(Level level, String msg, Boolean sandboxwarning) {
+		CallSite callsite = null;
+		boolean callsitelookedup = false;
+		LogContext context = null;
+		for (Logger logger : defaultlogger) {
+			Level loggerlevel = level != null ? level : logger.getDefaultlevel();
+			if (logger.isDropped(loggerlevel))
+				continue;
+			if (!callsitelookedup && logger.isCallsiteNeeded(loggerlevel)) {
+				callsite = StackTrace.getCallerSite(Log.class);
+				callsitelookedup = true;
+			}
+			if (context == null)
+				context = LogContext.current();
+			sinkWorkerOf(logger).log(level, msg, sandboxwarning, callsite, context);
+		}
+	}
+
+	/**
+	 * Get the {@link LoggerWorker} of a default or routed {@link Logger}, starting
+	 * it if needed.
+	 * 
+	 * @param logger the {@link Logger}
+	 * @return the {@link LoggerWorker} of the {@link Logger}
+	 */
+	static LoggerWorker sinkWorkerOf(Logger logger) {
+		LoggerWorker worker = SINKWORKERS.get(logger);
+		if (worker == null) {
+			synchronized (SINKWORKERS) {
+				worker = SINKWORKERS.get(logger);
+				if (worker == null) {
+					worker = new LoggerWorker(logger, LoggerWorker.DEFAULTCAPACITY);
+					SINKWORKERS.put(logger, worker);
+				}
+			}
+		}
+		return worker;
+	}
+
+	/**
+	 * Set a contextual field for all messages logged by the calling thread, e.g. a
+	 * request id. The field is added to the threads' {@link LogContext}.
+	 * 
+	 * @param key   the key of the field
+	 * @param value the value of the field. If {@code null}, the field is removed.
+	 * @see LogContext
+	 */
+	public static void putContext(String key, String value) {
+		LogContext.set(LogContext.current().with(key, value));
+	}
+
+	/**
+	 * Get the value of a contextual field of the calling thread.
+	 * 
+	 * @param key the key of the field
+	 * @return the value of the field, {@code null} if the field is not set
+	 * @see Log#putContext(String, String)
+	 */
+	public static String getContext(String key) {
+		return LogContext.current().get(key);
+	}
+
+	/**
+	 * Remove a contextual field of the calling thread.
+	 * 
+	 * @param key the key of the field to remove
+	 * @see Log#putContext(String, String)
+	 */
+	public static void removeContext(String key) {
+		LogContext.set(LogContext.current().without(key));
+	}
+
+	/**
+	 * Remove all contextual fields of the calling thread.
+	 * 
+	 * @see Log#putContext(String, String)
+	 */
+	public static void clearContext() {
+		LogContext.set(LogContext.EMPTY);
+	}
+
 	/**
 	 * Set all settings of the logging API at once
 	 * 
@@ -178,6 +408,11 @@ public class Log {
 	 * Get the {@link HashMap} for translation of {@link Class} names to proper,
 	 * manually given names to better distinguish classes able to log things.
 	 * {@link Class#getName()} is used as the key, manually given name is the value
+	 * <br>
+	 * Translations are memoized, so changes made directly to the returned
+	 * {@link HashMap} are only picked up after the next call of
+	 * {@link Log#registerClassName(String, String)} or
+	 * {@link Log#removeClassName(String)}.
 	 * 
 	 * @return {@link HashMap} for translation of {@link Class} names to proper,
 	 *         manually given names
@@ -196,7 +431,10 @@ public class Log {
 	 *                  log things.
 	 */
 	public static void registerClassName(String classpath, String name) {
-		CLASSTRANSLATIONS.put(classpath, name);
+		synchronized (CLASSTRANSLATIONS) {
+			CLASSTRANSLATIONS.put(classpath, name);
+			classTranslationsChanged();
+		}
 	}
 
 	/**
@@ -210,21 +448,38 @@ public class Log {
 	 * @see Log#registerClassName(String, String)
 	 */
 	public static void registerClassName(String name) {
-		CLASSTRANSLATIONS.put(StackTrace.getFirstOutsideCall("log").getClassName(), name);
+		registerClassName(StackTrace.getCaller(Log.class).getClassName(), name);
 	}
 
 	/**
 	 * Translate a {@link Class} name to its proper, manually given name to better
-	 * distinguish classes able to log things.
+	 * distinguish classes able to log things. <br>
+	 * The name registered for the exact class is used first, then the name
+	 * registered for the closest enclosing class (so {@code Foo$1} uses the name
+	 * of {@code Foo}) and at last the name registered for the longest matching
+	 * prefix. The result is memoized per class name.
 	 * 
 	 * @param classpath the path of the {@link Class}, can be retrieved by calling
 	 *                  {@link Class#getName()}
-	 * @return the {@link Class Classes}' proper, manually given name
+	 * @return the {@link Class Classes}' proper, manually given name, {@code null}
+	 *         if none is registered
 	 * @see Log#registerClassName(String, String) <i>to register a class name for
-	 *      translation</i>
+	 *      translation</i> <br>
+	 *      {@link Log#registerClassNamePrefix(String, String)} <i>to register a
+	 *      name for a package</i>
 	 */
 	public static String getClassName(String classpath) {
-		return CLASSTRANSLATIONS.get(classpath);
+		if (classpath == null)
+			return null;
+		String name = RESOLVEDCLASSNAMES.get(classpath);
+		if (name == null) {
+			synchronized (CLASSTRANSLATIONS) {
+				name = resolveClassName(classpath);
+				RESOLVEDCLASSNAMES.put(classpath, name == null ? NOTRANSLATION : name);
+			}
+			return name;
+		}
+		return name == NOTRANSLATION ? null : name;
 	}
 
 	/**
@@ -254,7 +509,7 @@ public class Log {
 	 *      translation</i>
 	 */
 	public static String getClassName() {
-		return getClassName(StackTrace.getFirstOutsideCall("log"));
+		return getClassName(StackTrace.getCaller(Log.class));
 	}
 
 	/**
@@ -264,7 +519,60 @@ public class Log {
 	 * @param classpath {@link Class#getName()} of the class to register a name for
 	 */
 	public static void removeClassName(String classpath) {
-		CLASSTRANSLATIONS.remove(classpath);
+		synchronized (CLASSTRANSLATIONS) {
+			CLASSTRANSLATIONS.remove(classpath);
+			classTranslationsChanged();
+		}
+	}
+
+	/**
+	 * Register a name for all classes whose {@link Class#getName()} starts with a
+	 * prefix, e.g. a package name. The prefix only matches whole package or class
+	 * names, so {@code com.example} matches {@code com.example.Foo} and
+	 * {@code com.example.db.Bar$1}, but not {@code com.examples.Foo}. If several
+	 * prefixes match a class, the longest one is used. A name registered for the
+	 * exact class using {@link Log#registerClassName(String, String)} always takes
+	 * precedence.
+	 * 
+	 * @param prefix the package or class name prefix to register a name for
+	 * @param name   the name used for all classes starting with the prefix
+	 * @throws IllegalArgumentException if {@code prefix} or {@code name} is
+	 *                                  {@code null}
+	 * @see Log#getClassName(String)
+	 */
+	public static void registerClassNamePrefix(String prefix, String name) {
+		synchronized (CLASSTRANSLATIONS) {
+			PREFIXTRANSLATIONS.put(prefix, name);
+			classTranslationsChanged();
+		}
+	}
+
+	/**
+	 * Remove a name registered for a package or class name prefix.
+	 * 
+	 * @param prefix the package or class name prefix to remove the name of
+	 * @see Log#registerClassNamePrefix(String, String)
+	 */
+	public static void removeClassNamePrefix(String prefix) {
+		synchronized (CLASSTRANSLATIONS) {
+			PREFIXTRANSLATIONS.remove(prefix);
+			classTranslationsChanged();
+		}
+	}
+
+	/**
+	 * Get the current version of the class name translations. The version changes
+	 * every time a translation is registered or removed using
+	 * {@link Log#registerClassName(String, String)},
+	 * {@link Log#registerClassNamePrefix(String, String)} or their remove
+	 * counterparts, so cached translations can be checked
+	 * for being up to date. Changes made directly to
+	 * {@link Log#getClasstranslations()} are not tracked.
+	 * 
+	 * @return the current version of the class name translations
+	 */
+	public static int getClassTranslationsVersion() {
+		return classtranslationsversion;
 	}
 
 	/**
@@ -287,7 +595,53 @@ public class Log {
 	 * stack trace.
 	 */
 	public static void removeClassName() {
-		removeClassName(StackTrace.getFirstOutsideCall("log"));
+		removeClassName(StackTrace.getCaller(Log.class));
+	}
+
+	/**
+	 * Resolve the translation of a {@link Class} name without using the memoized
+	 * results. Must be called while holding the lock on
+	 * {@link Log#CLASSTRANSLATIONS}.
+	 * 
+	 * @param classpath the path of the {@link Class}
+	 * @return the {@link Class Classes}' proper, manually given name, {@code null}
+	 *         if none is registered
+	 * @see Log#getClassName(String)
+	 */
+	private static String resolveClassName(String classpath) {
+		String name = CLASSTRANSLATIONS.get(classpath);
+		// Nested and anonymous classes use the name of their enclosing class
+		int nested = classpath.lastIndexOf('$');
+		while (name == null && nested > 0) {
+			name = CLASSTRANSLATIONS.get(classpath.substring(0, nested));
+			nested = classpath.lastIndexOf('$', nested - 1);
+		}
+		if (name == null)
+			name = PREFIXTRANSLATIONS.getLongestPrefixMatch(classpath);
+		return name;
+	}
+
+	/**
+	 * Called every time a class name translation is registered or removed. Clears
+	 * the memoized translations and changes
+	 * {@link Log#getClassTranslationsVersion()}.
+	 */
+	private static void classTranslationsChanged() {
+		RESOLVEDCLASSNAMES.clear();
+		classtranslated = !CLASSTRANSLATIONS.isEmpty() || PREFIXTRANSLATIONS.size() > 0;
+		classtranslationsversion++;
+	}
+
+	/**
+	 * Get whether any class name translation is registered, so callers can skip
+	 * looking up the calling class if none is. Like the memoized translations, it
+	 * is only updated by the next registration or removal after changes made
+	 * directly to {@link Log#getClasstranslations()}.
+	 * 
+	 * @return {@code true} if a translation is registered, {@code false} if not
+	 */
+	static boolean isClasstranslated() {
+		return classtranslated;
 	}
 
 	/**
@@ -302,6 +656,126 @@ public class Log {
 		defaultlogger.add(logger);
 	}
 
+	/**
+	 * Flush and close all default {@link Logger Loggers}, waiting at most
+	 * {@link Log#DEFAULTSHUTDOWNTIMEOUT} milliseconds.
+	 * 
+	 * @return {@code true} if all default {@link Logger Loggers} were closed in
+	 *         time, {@code false} if not
+	 * @see Log#shutdown(long)
+	 */
+	public static boolean shutdown() {
+		return shutdown(DEFAULTSHUTDOWNTIMEOUT);
+	}
+
+	/**
+	 * Flush and close all default {@link Logger Loggers} and all {@link Logger
+	 * Loggers} of the {@link Log#getRouter()}, e.g. before the program exits, so
+	 * no buffered or queued messages are lost. The {@link Logger Loggers} are
+	 * closed in parallel, each on its own thread, so a slow
+	 * {@link LogWriter} does not delay the others. <br>
+	 * Messages logged afterwards may be lost.
+	 * 
+	 * @param timeoutmillis the maximum time to wait for all {@link Logger Loggers}
+	 *                      to be closed, in milliseconds. {@link Logger Loggers}
+	 *                      not closed in time keep closing in the background.
+	 * @return {@code true} if all default {@link Logger Loggers} were closed in
+	 *         time, {@code false} if not
+	 * @see Logger#close()
+	 */
+	public static boolean shutdown(long timeoutmillis) {
+		ArrayList<Logger> loggers = defaultlogger == null ? new ArrayList<Logger>() : new ArrayList<>(defaultlogger);
+		LogRouter router = Log.router;
+		if (router != null) {
+			// A Logger may be both a default Logger and routed to, close it once
+			for (Logger logger : router.getLoggers()) {
+				boolean known = false;
+				for (Logger other : loggers)
+					known |= other == logger;
+				if (!known)
+					loggers.add(logger);
+			}
+		}
+		ArrayList<Thread> closers = new ArrayList<>();
+		for (final Logger logger : loggers) {
+			Thread closer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						LoggerWorker worker = SINKWORKERS.remove(logger);
+						if (worker != null)
+							worker.close(Long.MAX_VALUE);
+						logger.close();
+					} catch (RuntimeException e) {
+						// Nevermind, close the others anyway
+					}
+				}
+			}, "Log shutdown");
+			closer.setDaemon(true);
+			closer.start();
+			closers.add(closer);
+		}
+
+		long deadline = System.currentTimeMillis() + Math.max(0, timeoutmillis);
+		for (Thread closer : closers) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				break;
+			try {
+				closer.join(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for (Thread closer : closers) {
+			if (closer.isAlive())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get whether a JVM shutdown hook calling {@link Log#shutdown()} is registered
+	 * 
+	 * @return {@code true} if the shutdown hook is registered, {@code false} if it
+	 *         isn't
+	 * @see Log#setShutdownhook(boolean)
+	 */
+	public static synchronized boolean isShutdownhook() {
+		return shutdownhook != null;
+	}
+
+	/**
+	 * Set whether a JVM shutdown hook calling {@link Log#shutdown()} is
+	 * registered, so buffered and queued messages are written when the program
+	 * exits. Not registered by default.
+	 * 
+	 * @param shutdownhook {@code true} to register the shutdown hook,
+	 *                     {@code false} to remove it
+	 * @see Log#shutdown(long)
+	 */
+	public static synchronized void setShutdownhook(boolean shutdownhook) {
+		if (shutdownhook == (Log.shutdownhook != null))
+			return;
+		if (shutdownhook) {
+			Log.shutdownhook = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					shutdown();
+				}
+			}, "Log shutdown hook");
+			Runtime.getRuntime().addShutdownHook(Log.shutdownhook);
+		} else {
+			try {
+				Runtime.getRuntime().removeShutdownHook(Log.shutdownhook);
+			} catch (IllegalStateException e) {
+				// Nevermind, the JVM is already shutting down
+			}
+			Log.shutdownhook = null;
+		}
+	}
+
 	/**
 	 * Get whether the logging API is in sandbox mode
 	 * 
@@ -376,6 +850,84 @@ public class Log {
 		Log.programname = programname;
 	}
 
+	/**
+	 * Get whether every default or routed {@link Logger} gets its own queue and
+	 * background thread
+	 * 
+	 * @return {@code true} if sinks are isolated, {@code false} if not
+	 * @see Log#setIsolatedsinks(boolean)
+	 */
+	public static boolean isIsolatedsinks() {
+		return isolatedsinks;
+	}
+
+	/**
+	 * Set whether every default {@link Logger} gets its own queue and background
+	 * thread, a {@link LoggerWorker}. If enabled, the logging thread only takes
+	 * the call site of a message once and queues it for every default
+	 * {@link Logger}, formatting and writing happen in the background. A stalled
+	 * output, e.g. a file on a network mount, then only delays its own
+	 * {@link Logger} instead of all logging threads. The health of every
+	 * {@link Logger} is reported by {@link Log#getSinkWorkers()}. While a
+	 * {@link LogRouter} is set, the {@link Logger Loggers} it routes to are
+	 * isolated the same way. Disabled by default. <br>
+	 * If disabled again, the messages already queued are written before this
+	 * method returns, waiting at most {@link Log#DEFAULTSHUTDOWNTIMEOUT}
+	 * milliseconds per {@link Logger}.
+	 * 
+	 * @param isolatedsinks {@code true} to isolate sinks, {@code false} to write
+	 *                      to all default {@link Logger Loggers} on the logging
+	 *                      thread again
+	 */
+	public static void setIsolatedsinks(boolean isolatedsinks) {
+		Log.isolatedsinks = isolatedsinks;
+		if (!isolatedsinks) {
+			synchronized (SINKWORKERS) {
+				// Wait for the workers to write what they already queued, so the calling
+				// thread only writes directly after its queued messages
+				for (LoggerWorker worker : SINKWORKERS.values())
+					worker.close(DEFAULTSHUTDOWNTIMEOUT);
+				SINKWORKERS.clear();
+			}
+		}
+	}
+
+	/**
+	 * Get the {@link LoggerWorker LoggerWorkers} of the default and routed
+	 * {@link Logger Loggers}, to report their health and lag
+	 * 
+	 * @return a copy of the list of {@link LoggerWorker LoggerWorkers}, empty if
+	 *         sinks are not isolated
+	 * @see Log#setIsolatedsinks(boolean)
+	 */
+	public static ArrayList<LoggerWorker> getSinkWorkers() {
+		return new ArrayList<>(SINKWORKERS.values());
+	}
+
+	/**
+	 * Get the {@link LogRouter} sending messages only to the {@link Logger Loggers}
+	 * keeping them
+	 * 
+	 * @return the {@link LogRouter}, {@code null} if none is set
+	 * @see Log#setRouter(LogRouter)
+	 */
+	public static LogRouter getRouter() {
+		return router;
+	}
+
+	/**
+	 * Set a {@link LogRouter} sending messages only to the {@link Logger Loggers}
+	 * keeping them, e.g. errors to an error file and everything else to
+	 * {@link System#out}. While a {@link LogRouter} is set, the
+	 * {@link Log#getDefaultlogger()} list is not used for logging.
+	 * 
+	 * @param router the {@link LogRouter}, {@code null} to send all messages to
+	 *               all default {@link Logger Loggers} again
+	 */
+	public static void setRouter(LogRouter router) {
+		Log.router = router;
+	}
+
 	/**
 	 * Get the list of default loggers called when
 	 * {@link Log#log(Level, String, boolean)} is called
@@ -0,0 +1,524 @@
+package de.pentagonlp.simplelogging;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.pentagonlp.simplelogging.tools.CallSite;
+import de.pentagonlp.simplelogging.tools.MessageTemplate;
+
+/**
+ * Aggregation of high-volume messages into summaries. Messages of selected
+ * templates or call sites are not formatted and written one by one, but counted
+ * per time window. At the end of every window, one summary line per template or
+ * call site is logged, containing the number of messages, the arguments of the
+ * first and the last message and the minimum and maximum of every numeric
+ * argument:
+ * <p>
+ * {@code Processed {} items in {} ms [12345 times in 1000 ms, first (42, 7), last (17, 3), {1} 1..420, {2} 0..31]}
+ * <p>
+ * Templates are selected by their template string, see
+ * {@link LogAggregator#addTemplate(String)}, and logged using
+ * {@link Logger#logTemplate(Level, String, Object...)}. Call sites are selected
+ * by class and optionally line, see {@link LogAggregator#addCallsite(String)},
+ * and aggregate all messages logged there, including plain ones. The summary
+ * is logged with the most severe {@link Level} of the aggregated messages.
+ * Windows without messages are not summarized. The arguments of every
+ * aggregated message are rendered when it is logged, so later changes to them do
+ * not show up in the summary and no references to them are kept.
+ * <p>
+ * <b>Example:</b> <br>
+ * {@code LogAggregator aggregator = new LogAggregator(1000);} <br>
+ * {@code aggregator.addTemplate("Processed {} items in {} ms");} <br>
+ * {@code logger.setAggregator(aggregator);} <br>
+ * {@code logger.logTemplate(Level.DEBUG, "Processed {} items in {} ms", items, time);}
+ * 
+ * @author PentagonLP
+ */
+public final class LogAggregator {
+
+	/**
+	 * Default length of a window, in milliseconds
+	 */
+	public static final long DEFAULTINTERVAL = 1000;
+	/**
+	 * Maximum number of arguments whose minimum and maximum are tracked
+	 */
+	private static final int MAXNUMERICARGS = 8;
+	/**
+	 * Line number selecting all lines of a class
+	 */
+	private static final int ALLLINES = -1;
+	/**
+	 * Number of the next background thread, for its name
+	 */
+	private static final AtomicInteger THREADNUMBER = new AtomicInteger();
+
+	/**
+	 * Length of a window, in milliseconds
+	 */
+	private final long interval;
+	/**
+	 * The selected templates
+	 */
+	private final Set<String> templates = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * The selected call sites, as line numbers per {@link Class#getName()}.
+	 * {@link LogAggregator#ALLLINES} selects all lines.
+	 */
+	private final ConcurrentHashMap<String, Set<Integer>> callsites = new ConcurrentHashMap<>();
+	/**
+	 * The current window of every template or call site
+	 */
+	private final ConcurrentHashMap<Object, Window> windows = new ConcurrentHashMap<>();
+	/**
+	 * The background thread ending the windows
+	 */
+	private final Thread worker;
+	/**
+	 * The {@link Logger} the summaries are logged to, {@code null} if not used by a
+	 * {@link Logger} yet
+	 */
+	private volatile Logger logger = null;
+	/**
+	 * Whether {@link LogAggregator#close()} was called
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * Number of messages aggregated
+	 */
+	private final AtomicLong aggregated = new AtomicLong();
+	/**
+	 * Number of summaries logged
+	 */
+	private final AtomicLong summaries = new AtomicLong();
+
+	/**
+	 * Creates a new {@link LogAggregator} using the default window length.
+	 */
+	public LogAggregator() {
+		this(DEFAULTINTERVAL);
+	}
+
+	/**
+	 * Creates a new {@link LogAggregator} and starts its background thread.
+	 * 
+	 * @param interval the length of a window, in milliseconds
+	 * @throws IllegalArgumentException if {@code interval} is not positive
+	 */
+	public LogAggregator(long interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("Interval must be positive!");
+		this.interval = interval;
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "LogAggregator " + THREADNUMBER.incrementAndGet());
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Aggregate all messages logged with a template.
+	 * 
+	 * @param template the template, as given to
+	 *                 {@link Logger#logTemplate(Level, String, Object...)}
+	 * @return this {@link LogAggregator}
+	 * @throws IllegalArgumentException if {@code template} is {@code null}
+	 */
+	public LogAggregator addTemplate(String template) {
+		if (template == null)
+			throw new IllegalArgumentException("Template can not be null!");
+		templates.add(template);
+		return this;
+	}
+
+	/**
+	 * Aggregate all messages logged by a class.
+	 * 
+	 * @param classpath the {@link Class#getName()} of the class
+	 * @return this {@link LogAggregator}
+	 * @throws IllegalArgumentException if {@code classpath} is {@code null}
+	 */
+	public LogAggregator addCallsite(String classpath) {
+		return addCallsite(classpath, ALLLINES);
+	}
+
+	/**
+	 * Aggregate all messages logged in a line of a class.
+	 * 
+	 * @param classpath  the {@link Class#getName()} of the class
+	 * @param linenumber the line number
+	 * @return this {@link LogAggregator}
+	 * @throws IllegalArgumentException if {@code classpath} is {@code null}
+	 */
+	public LogAggregator addCallsite(String classpath, int linenumber) {
+		if (classpath == null)
+			throw new IllegalArgumentException("Classpath can not be null!");
+		Set<Integer> lines = callsites.get(classpath);
+		if (lines == null) {
+			callsites.putIfAbsent(classpath, Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>()));
+			lines = callsites.get(classpath);
+		}
+		lines.add(linenumber);
+		return this;
+	}
+
+	/**
+	 * Stop aggregating all templates and call sites. The current windows are still
+	 * summarized.
+	 */
+	public void clear() {
+		templates.clear();
+		callsites.clear();
+	}
+
+	/**
+	 * Aggregate a message if its template or call site is selected.
+	 * 
+	 * @param level    the {@link Level} of the message
+	 * @param template the template, or the message if {@code args} is
+	 *                 {@code null}
+	 * @param args     the arguments of the template, {@code null} for a plain
+	 *                 message
+	 * @param callsite the call site of the message, {@code null} if unknown
+	 * @return {@code true} if the message was aggregated, {@code false} if it has
+	 *         to be logged
+	 */
+	boolean aggregate(Level level, String template, Object[] args, CallSite callsite) {
+		if (closed || template == null)
+			return false;
+		Object key;
+		if (templates.contains(template))
+			key = template;
+		else if (callsite != null && isSelected(callsite))
+			key = callsite;
+		else
+			return false;
+
+		// Render the arguments now and outside of the lock, they may change or be
+		// large, and their toString may be slow
+		String renderedargs = args == null ? null : Window.renderArgs(args);
+		while (true) {
+			Window window = windows.get(key);
+			if (window == null) {
+				window = new Window();
+				Window existing = windows.putIfAbsent(key, window);
+				if (existing != null)
+					window = existing;
+			}
+			synchronized (window) {
+				// A window removed while idle does not count anymore, take the new one
+				if (window.retired)
+					continue;
+				window.add(level, template, args, renderedargs, callsite);
+			}
+			aggregated.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Get whether a call site is selected
+	 * 
+	 * @param callsite the call site
+	 * @return {@code true} if all its lines or its line are selected
+	 */
+	private boolean isSelected(CallSite callsite) {
+		if (callsites.isEmpty())
+			return false;
+		Set<Integer> lines = callsites.get(callsite.getClasspath());
+		return lines != null && (lines.contains(ALLLINES) || lines.contains(callsite.getLinenumber()));
+	}
+
+	/**
+	 * Set the {@link Logger} the summaries are logged to.
+	 * 
+	 * @param logger the {@link Logger}
+	 * @throws IllegalArgumentException if already used by another {@link Logger}
+	 */
+	synchronized void bind(Logger logger) {
+		if (this.logger != null && this.logger != logger)
+			throw new IllegalArgumentException("Aggregator is already used by another Logger!");
+		this.logger = logger;
+	}
+
+	/**
+	 * Summarize all current windows now, starting new ones.
+	 */
+	public void flush() {
+		Logger logger = this.logger;
+		for (Map.Entry<Object, Window> entry : windows.entrySet()) {
+			Window window = entry.getValue();
+			String summary;
+			Level level;
+			CallSite callsite;
+			synchronized (window) {
+				if (window.count == 0) {
+					// Idle for a whole window, forget it
+					window.retired = true;
+					windows.remove(entry.getKey(), window);
+					continue;
+				}
+				summary = window.summarize();
+				level = window.level;
+				callsite = window.callsite;
+				window.reset();
+			}
+			if (logger != null) {
+				logger.logaggregated(level, summary, callsite);
+				summaries.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Summarize all current windows and stop the background thread. Messages are
+	 * not aggregated anymore afterwards.
+	 */
+	public void close() {
+		closed = true;
+		worker.interrupt();
+		flush();
+	}
+
+	/**
+	 * Main loop of the background thread: summarize all windows every
+	 * {@link LogAggregator#getInterval()} milliseconds.
+	 */
+	private void work() {
+		while (!closed) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				// Nevermind, close() summarizes the last windows itself
+				continue;
+			}
+			try {
+				flush();
+			} catch (RuntimeException e) {
+				// A failing logger must not stop the background thread
+			}
+		}
+	}
+
+	/**
+	 * Get the length of a window
+	 * 
+	 * @return the length, in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Get the number of messages aggregated instead of logged
+	 * 
+	 * @return the number of aggregated messages
+	 */
+	public long getAggregated() {
+		return aggregated.get();
+	}
+
+	/**
+	 * Get the number of summaries logged
+	 * 
+	 * @return the number of summaries
+	 */
+	public long getSummaries() {
+		return summaries.get();
+	}
+
+	/**
+	 * The current window of a template or call site. All fields are guarded by the
+	 * {@link Window} itself.
+	 */
+	private static class Window {
+
+		/**
+		 * Whether the window was removed, as it was idle
+		 */
+		private boolean retired = false;
+		/**
+		 * The {@link System#currentTimeMillis()} the window started at
+		 */
+		private long start = System.currentTimeMillis();
+		/**
+		 * Number of messages in the window
+		 */
+		private long count = 0;
+		/**
+		 * The most severe {@link Level} of the messages
+		 */
+		private Level level;
+		/**
+		 * The template of the first message, or the first message if plain
+		 */
+		private String template;
+		/**
+		 * The call site of the first message
+		 */
+		private CallSite callsite;
+		/**
+		 * The arguments of the first message, rendered as {@code (a, b)} when it was
+		 * added, {@code null} if plain. The arguments themselves are not kept, they
+		 * may be mutable or large.
+		 */
+		private String firstargs;
+		/**
+		 * The arguments of the last message, rendered as {@code (a, b)} when it was
+		 * added
+		 */
+		private String lastargs;
+		/**
+		 * The last message if plain
+		 */
+		private String lastmessage;
+		/**
+		 * Number of numeric arguments tracked
+		 */
+		private int numericargs = 0;
+		/**
+		 * Whether an argument was numeric, per argument
+		 */
+		private final boolean[] numeric = new boolean[MAXNUMERICARGS];
+		/**
+		 * Whether all values of an argument were integral, per argument
+		 */
+		private final boolean[] integral = new boolean[MAXNUMERICARGS];
+		/**
+		 * Minimum of an argument, per argument
+		 */
+		private final double[] min = new double[MAXNUMERICARGS];
+		/**
+		 * Maximum of an argument, per argument
+		 */
+		private final double[] max = new double[MAXNUMERICARGS];
+
+		/**
+		 * Add a message to the window.
+		 * 
+		 * @param level        the {@link Level} of the message
+		 * @param template     the template, or the message if plain
+		 * @param args         the arguments, {@code null} if plain, only read to track
+		 *                     the numeric ones
+		 * @param renderedargs the arguments rendered as {@code (a, b)}, {@code null}
+		 *                     if plain
+		 * @param callsite     the call site, {@code null} if unknown
+		 */
+		private void add(Level level, String template, Object[] args, String renderedargs, CallSite callsite) {
+			if (count == 0) {
+				this.template = template;
+				this.callsite = callsite;
+				this.firstargs = renderedargs;
+				this.level = level;
+			} else if (level != null && (this.level == null || level.getIntLevel() < this.level.getIntLevel()))
+				this.level = level;
+			count++;
+			lastmessage = template;
+			lastargs = renderedargs;
+			if (args == null)
+				return;
+			int tracked = Math.min(args.length, MAXNUMERICARGS);
+			for (int i = 0; i < tracked; i++) {
+				if (!(args[i] instanceof Number))
+					continue;
+				Number number = (Number) args[i];
+				double value = number.doubleValue();
+				boolean isintegral = number instanceof Integer || number instanceof Long || number instanceof Short
+						|| number instanceof Byte;
+				if (!numeric[i]) {
+					numeric[i] = true;
+					integral[i] = isintegral;
+					min[i] = value;
+					max[i] = value;
+					numericargs = Math.max(numericargs, i + 1);
+				} else {
+					integral[i] &= isintegral;
+					min[i] = Math.min(min[i], value);
+					max[i] = Math.max(max[i], value);
+				}
+			}
+		}
+
+		/**
+		 * Create the summary line of the window
+		 * 
+		 * @return the summary
+		 */
+		private String summarize() {
+			StringBuilder builder = new StringBuilder(template.length() + 64);
+			builder.append(template).append(" [").append(count).append(" times in ")
+					.append(System.currentTimeMillis() - start).append(" ms");
+			if (firstargs != null) {
+				builder.append(", first ").append(firstargs);
+				builder.append(", last ").append(lastargs != null ? lastargs : "()");
+				for (int i = 0; i < numericargs; i++) {
+					if (!numeric[i])
+						continue;
+					builder.append(", {").append(i + 1).append("} ");
+					appendNumber(builder, min[i], integral[i]);
+					builder.append("..");
+					appendNumber(builder, max[i], integral[i]);
+				}
+			} else if (count > 1 && !template.equals(lastmessage))
+				builder.append(", last: ").append(lastmessage);
+			return builder.append(']').toString();
+		}
+
+		/**
+		 * Start a new window.
+		 */
+		private void reset() {
+			start = System.currentTimeMillis();
+			count = 0;
+			level = null;
+			template = null;
+			callsite = null;
+			firstargs = null;
+			lastargs = null;
+			lastmessage = null;
+			for (int i = 0; i < numericargs; i++)
+				numeric[i] = false;
+			numericargs = 0;
+		}
+
+		/**
+		 * Render arguments as {@code (a, b)}
+		 * 
+		 * @param args the arguments
+		 * @return the rendered arguments
+		 */
+		private static String renderArgs(Object[] args) {
+			StringBuilder builder = new StringBuilder(2 + 16 * args.length);
+			builder.append('(');
+			for (int i = 0; i < args.length; i++) {
+				if (i > 0)
+					builder.append(", ");
+				builder.append(MessageTemplate.render(args[i]));
+			}
+			return builder.append(')').toString();
+		}
+
+		/**
+		 * Append a number, without fraction if integral
+		 * 
+		 * @param builder  the {@link StringBuilder} to append to
+		 * @param value    the number
+		 * @param integral whether the number is integral
+		 */
+		private static void appendNumber(StringBuilder builder, double value, boolean integral) {
+			if (integral)
+				builder.append((long) value);
+			else
+				builder.append(value);
+		}
+
+	}
+
+}
@@ -0,0 +1,32 @@
+package de.pentagonlp.simplelogging;
+
+/**
+ * Interface for a clock giving the timestamps of logged messages. Used by
+ * {@link Logger} to stamp every message once, when it is logged.
+ * 
+ * @author PentagonLP
+ * @see de.pentagonlp.simplelogging.clock <i>for the clocks implemented in the
+ *      logging api by default</i>
+ */
+public interface LogClock {
+
+	/**
+	 * Get the current time, in nanoseconds since the epoch
+	 * ({@code 1970-01-01T00:00:00Z}). The resolution of the returned time depends
+	 * on the clock and is usually far coarser than a nanosecond.
+	 * 
+	 * @return the current time, in nanoseconds since the epoch
+	 */
+	public long currentTimeNanos();
+
+	/**
+	 * Get the current time, in milliseconds since the epoch
+	 * ({@code 1970-01-01T00:00:00Z}).
+	 * 
+	 * @return the current time, in milliseconds since the epoch
+	 */
+	public default long currentTimeMillis() {
+		return currentTimeNanos() / 1_000_000;
+	}
+
+}
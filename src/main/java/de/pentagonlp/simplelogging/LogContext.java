@@ -0,0 +1,346 @@
+package de.pentagonlp.simplelogging;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable set of contextual fields (e.g. request id, tenant, user) attached to
+ * every message logged by a thread, also known as a mapped diagnostic context.
+ * <br>
+ * Every thread has its own current {@link LogContext}. Changing a field
+ * replaces the threads' {@link LogContext} with a modified copy, so a
+ * {@link LogContext} attached to a {@link LogInfo} never changes afterwards and
+ * attaching it is just a reference copy.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code Log.putContext("request", requestid);} <br>
+ * {@code executor.execute(LogContext.wrap(mytask));} <i>(the task logs with the
+ * same context)</i>
+ * 
+ * @author PentagonLP
+ * @see de.pentagonlp.simplelogging.formatter.StringLogFormatter
+ *      StringLogFormatter <i>to output fields using {@code %ctx:key%}</i>
+ */
+public final class LogContext {
+
+	/**
+	 * The empty {@link LogContext}, without any fields
+	 */
+	public static final LogContext EMPTY = new LogContext(new String[0], new String[0]);
+
+	/**
+	 * The current {@link LogContext} of each thread
+	 */
+	private static final ThreadLocal<LogContext> CURRENT = new ThreadLocal<LogContext>() {
+		@Override
+		protected LogContext initialValue() {
+			return EMPTY;
+		}
+	};
+
+	/**
+	 * The keys of the fields, in insertion order
+	 */
+	private final String[] keys;
+	/**
+	 * The values of the fields, at the same index as their key
+	 */
+	private final String[] values;
+
+	/**
+	 * Creates a new {@link LogContext}. The arrays are not copied.
+	 * 
+	 * @param keys   the keys of the fields
+	 * @param values the values of the fields, at the same index as their key
+	 */
+	private LogContext(String[] keys, String[] values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * Get the current {@link LogContext} of the calling thread
+	 * 
+	 * @return the current {@link LogContext}, {@link LogContext#EMPTY} if no
+	 *         fields are set
+	 */
+	public static LogContext current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Replace the current {@link LogContext} of the calling thread.
+	 * 
+	 * @param context the new {@link LogContext}. If {@code null},
+	 *                {@link LogContext#EMPTY} is used.
+	 * @return the previous {@link LogContext} of the calling thread, to restore it
+	 *         later
+	 */
+	public static LogContext set(LogContext context) {
+		LogContext previous = CURRENT.get();
+		if (context == null || context.isEmpty())
+			CURRENT.remove();
+		else
+			CURRENT.set(context);
+		return previous;
+	}
+
+	/**
+	 * Get the value of a field
+	 * 
+	 * @param key the key of the field
+	 * @return the value of the field, {@code null} if the field is not set
+	 */
+	public String get(String key) {
+		int index = indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	/**
+	 * Get a copy of this {@link LogContext} with a field set to a value
+	 * 
+	 * @param key   the key of the field
+	 * @param value the value of the field. If {@code null}, the field is removed.
+	 * @return the modified copy, or this {@link LogContext} if nothing changed
+	 * @throws IllegalArgumentException if {@code key} is {@code null}
+	 */
+	public LogContext with(String key, String value) {
+		if (key == null)
+			throw new IllegalArgumentException("Key can not be null!");
+		if (value == null)
+			return without(key);
+		int index = indexOf(key);
+		if (index >= 0) {
+			if (value.equals(values[index]))
+				return this;
+			String[] newvalues = values.clone();
+			newvalues[index] = value;
+			return new LogContext(keys, newvalues);
+		}
+		String[] newkeys = new String[keys.length + 1];
+		String[] newvalues = new String[values.length + 1];
+		System.arraycopy(keys, 0, newkeys, 0, keys.length);
+		System.arraycopy(values, 0, newvalues, 0, values.length);
+		newkeys[keys.length] = key;
+		newvalues[values.length] = value;
+		return new LogContext(newkeys, newvalues);
+	}
+
+	/**
+	 * Get a copy of this {@link LogContext} without a field
+	 * 
+	 * @param key the key of the field to remove
+	 * @return the modified copy, or this {@link LogContext} if the field was not
+	 *         set
+	 */
+	public LogContext without(String key) {
+		int index = indexOf(key);
+		if (index < 0)
+			return this;
+		if (keys.length == 1)
+			return EMPTY;
+		String[] newkeys = new String[keys.length - 1];
+		String[] newvalues = new String[values.length - 1];
+		System.arraycopy(keys, 0, newkeys, 0, index);
+		System.arraycopy(values, 0, newvalues, 0, index);
+		System.arraycopy(keys, index + 1, newkeys, index, keys.length - index - 1);
+		System.arraycopy(values, index + 1, newvalues, index, values.length - index - 1);
+		return new LogContext(newkeys, newvalues);
+	}
+
+	/**
+	 * Get whether this {@link LogContext} has no fields
+	 * 
+	 * @return {@code true} if no fields are set, {@code false} if there are
+	 */
+	public boolean isEmpty() {
+		return keys.length == 0;
+	}
+
+	/**
+	 * Get the number of fields
+	 * 
+	 * @return the number of fields
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Get the fields as an unmodifiable {@link Map}, in insertion order
+	 * 
+	 * @return the fields as an unmodifiable {@link Map}
+	 */
+	public Map<String, String> asMap() {
+		LinkedHashMap<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < keys.length; i++)
+			map.put(keys[i], values[i]);
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Get the fields in a {@code {key=value, key=value}} format
+	 * 
+	 * @return the fields as a {@link String}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(keys[i]).append('=').append(values[i]);
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Get the index of a key
+	 * 
+	 * @param key the key
+	 * @return the index of the key, {@code -1} if the field is not set
+	 */
+	private int indexOf(String key) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].equals(key))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Wrap a {@link Runnable}, so it runs with the {@link LogContext} of the
+	 * calling thread, no matter which thread runs it. The previous
+	 * {@link LogContext} of the running thread is restored afterwards.
+	 * 
+	 * @param runnable the {@link Runnable} to wrap
+	 * @return the wrapped {@link Runnable}
+	 */
+	public static Runnable wrap(final Runnable runnable) {
+		final LogContext context = current();
+		return new Runnable() {
+			@Override
+			public void run() {
+				LogContext previous = set(context);
+				try {
+					runnable.run();
+				} finally {
+					set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap a {@link Callable}, so it runs with the {@link LogContext} of the
+	 * calling thread, no matter which thread runs it. The previous
+	 * {@link LogContext} of the running thread is restored afterwards.
+	 * 
+	 * @param <T>      the result type of the {@link Callable}
+	 * @param callable the {@link Callable} to wrap
+	 * @return the wrapped {@link Callable}
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> callable) {
+		final LogContext context = current();
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				LogContext previous = set(context);
+				try {
+					return callable.call();
+				} finally {
+					set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap an {@link Executor}, so every task runs with the {@link LogContext} of
+	 * the thread that submitted it.
+	 * 
+	 * @param executor the {@link Executor} to wrap
+	 * @return the wrapped {@link Executor}
+	 */
+	public static Executor wrap(final Executor executor) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				executor.execute(wrap(command));
+			}
+		};
+	}
+
+	/**
+	 * Wrap an {@link ExecutorService}, so every task runs with the
+	 * {@link LogContext} of the thread that submitted it.
+	 * 
+	 * @param executor the {@link ExecutorService} to wrap
+	 * @return the wrapped {@link ExecutorService}
+	 */
+	public static ExecutorService wrap(ExecutorService executor) {
+		return new ContextExecutorService(executor);
+	}
+
+	/**
+	 * {@link ExecutorService} running every task with the {@link LogContext} of
+	 * the thread that submitted it. All tasks, including those given to
+	 * {@code submit} and {@code invokeAll}, pass through
+	 * {@link ContextExecutorService#execute(Runnable)}, where they are wrapped.
+	 */
+	private static class ContextExecutorService extends AbstractExecutorService {
+
+		/**
+		 * The wrapped {@link ExecutorService}
+		 */
+		private final ExecutorService executor;
+
+		/**
+		 * Creates a new {@link ContextExecutorService}.
+		 * 
+		 * @param executor the {@link ExecutorService} to wrap
+		 */
+		private ContextExecutorService(ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			executor.execute(wrap(command));
+		}
+
+		@Override
+		public void shutdown() {
+			executor.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return executor.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return executor.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return executor.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return executor.awaitTermination(timeout, unit);
+		}
+
+	}
+
+}
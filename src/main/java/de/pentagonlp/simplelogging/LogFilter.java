@@ -0,0 +1,506 @@
+package de.pentagonlp.simplelogging;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Filter deciding whether a message is logged, evaluated by the {@link Logger}
+ * before the caller is looked up and the message is formatted. Filters are
+ * created using the static methods of this class and combined using
+ * {@link LogFilter#and(LogFilter...)}, {@link LogFilter#or(LogFilter...)} and
+ * {@link LogFilter#not(LogFilter)}.
+ * <p>
+ * Every filter is first asked for a decision only from the {@link Level} and
+ * the calling class. If this is enough, e.g. for a {@link Level} or package
+ * filter, the decision is cached per {@link Level} and calling class, and later
+ * messages are accepted or rejected by a single lookup. Only if the decision
+ * depends on the message itself, the context or sampling, the filter is tested
+ * on every message, with the cheapest filters of a combination tested first.
+ * The calling class is only looked up if a filter needs it.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code logger.setFilter(LogFilter.or(LogFilter.level(Level.WARNING),}
+ * {@code LogFilter.and(LogFilter.classPrefix("com.example.db."), LogFilter.sample(0.01))));}
+ * 
+ * @author PentagonLP
+ * @see Logger#setFilter(LogFilter)
+ */
+public abstract class LogFilter {
+
+	/**
+	 * Decision: the message is logged
+	 */
+	protected static final int ACCEPT = 1;
+	/**
+	 * Decision: the message is not logged
+	 */
+	protected static final int DENY = -1;
+	/**
+	 * Decision: the message has to be tested using
+	 * {@link LogFilter#test(Level, String, String, LogContext)}
+	 */
+	protected static final int UNDECIDED = 0;
+
+	/**
+	 * Cost of a test using the {@link Level} or calling class only
+	 */
+	protected static final int COSTSTATIC = 0;
+	/**
+	 * Cost of a test using a random number
+	 */
+	protected static final int COSTSAMPLE = 1;
+	/**
+	 * Cost of a test looking up a field of the {@link LogContext}
+	 */
+	protected static final int COSTCONTEXT = 2;
+	/**
+	 * Cost of a test matching the message
+	 */
+	protected static final int COSTMESSAGE = 3;
+
+	/**
+	 * Orders filters by their cost, cheapest first
+	 */
+	private static final Comparator<LogFilter> BYCOST = new Comparator<LogFilter>() {
+		@Override
+		public int compare(LogFilter a, LogFilter b) {
+			return Integer.compare(a.cost(), b.cost());
+		}
+	};
+
+	/**
+	 * The cached decisions per {@link Level#getOrdinal()}, if the filter does not
+	 * need the calling class. {@code 0} if not decided yet, otherwise the decision
+	 * plus {@code 2}.
+	 */
+	private volatile byte[] leveldecisions = null;
+	/**
+	 * The cached decisions per calling class and {@link Level#getOrdinal()}, if
+	 * the filter needs the calling class. Encoded like
+	 * {@link LogFilter#leveldecisions}.
+	 */
+	private final ConcurrentHashMap<String, byte[]> classdecisions = new ConcurrentHashMap<>();
+
+	/**
+	 * Decide whether a message is logged, from the {@link Level} and calling class
+	 * only. The result must not change for the same arguments.
+	 * 
+	 * @param level     the {@link Level} of the message
+	 * @param classname {@link Class#getName()} of the calling class, {@code null}
+	 *                  if unknown or not needed
+	 * @return {@link LogFilter#ACCEPT}, {@link LogFilter#DENY} or
+	 *         {@link LogFilter#UNDECIDED} if the message has to be tested
+	 */
+	protected abstract int decide(Level level, String classname);
+
+	/**
+	 * Test whether a message is logged. Only called if
+	 * {@link LogFilter#decide(Level, String)} returned
+	 * {@link LogFilter#UNDECIDED}.
+	 * 
+	 * @param level     the {@link Level} of the message
+	 * @param classname {@link Class#getName()} of the calling class, {@code null}
+	 *                  if unknown or not needed
+	 * @param msg       the message
+	 * @param context   the {@link LogContext} of the logging thread
+	 * @return {@code true} if the message is logged, {@code false} if not
+	 */
+	protected abstract boolean test(Level level, String classname, String msg, LogContext context);
+
+	/**
+	 * Get whether the filter needs the calling class
+	 * 
+	 * @return {@code true} if the calling class has to be looked up for this
+	 *         filter, {@code false} if not
+	 */
+	protected boolean needsClassname() {
+		return false;
+	}
+
+	/**
+	 * Get the cost of {@link LogFilter#test(Level, String, String, LogContext)},
+	 * used to test the cheapest filters of a combination first
+	 * 
+	 * @return the cost, e.g. {@link LogFilter#COSTMESSAGE}
+	 */
+	protected int cost() {
+		return COSTSTATIC;
+	}
+
+	/**
+	 * Get whether a message is logged, using the cached decision if there is one.
+	 * 
+	 * @param level     the {@link Level} of the message
+	 * @param classname {@link Class#getName()} of the calling class, {@code null}
+	 *                  if unknown or {@link LogFilter#isClassnameNeeded()} is
+	 *                  {@code false}
+	 * @param msg       the message
+	 * @param context   the {@link LogContext} of the logging thread
+	 * @return {@code true} if the message is logged, {@code false} if not
+	 */
+	public final boolean accept(Level level, String classname, String msg, LogContext context) {
+		int decision = cachedDecision(level, needsClassname() ? classname : null);
+		if (decision != UNDECIDED)
+			return decision == ACCEPT;
+		return test(level, classname, msg, context);
+	}
+
+	/**
+	 * Get whether the calling class has to be looked up before calling
+	 * {@link LogFilter#accept(Level, String, String, LogContext)}
+	 * 
+	 * @return {@code true} if the filter needs the calling class, {@code false} if
+	 *         not
+	 */
+	public final boolean isClassnameNeeded() {
+		return needsClassname();
+	}
+
+	/**
+	 * Get the decision from the {@link Level} and calling class, deciding and
+	 * caching it on the first call.
+	 * 
+	 * @param level     the {@link Level} of the message
+	 * @param classname {@link Class#getName()} of the calling class, {@code null}
+	 *                  if unknown or not needed
+	 * @return {@link LogFilter#ACCEPT}, {@link LogFilter#DENY} or
+	 *         {@link LogFilter#UNDECIDED}
+	 */
+	private int cachedDecision(Level level, String classname) {
+		int ordinal = level.getOrdinal();
+		byte[] decisions;
+		String key = null;
+		if (needsClassname()) {
+			key = classname == null ? "" : classname;
+			decisions = classdecisions.get(key);
+		} else
+			decisions = leveldecisions;
+
+		if (decisions != null && ordinal < decisions.length && decisions[ordinal] != 0)
+			return decisions[ordinal] - 2;
+
+		int decision = decide(level, classname);
+		// Decisions never change, so racing threads at worst decide twice
+		byte[] updated = decisions == null ? new byte[Math.max(Level.getLevelCount(), ordinal + 1)]
+				: decisions.length <= ordinal ? Arrays.copyOf(decisions, Level.getLevelCount()) : decisions;
+		updated[ordinal] = (byte) (decision + 2);
+		if (updated != decisions) {
+			if (key != null)
+				classdecisions.put(key, updated);
+			else
+				leveldecisions = updated;
+		}
+		return decision;
+	}
+
+	/**
+	 * Filter accepting messages of a {@link Level} or more severe.
+	 * 
+	 * @param leastsevere the least severe {@link Level} accepted
+	 * @return the filter
+	 * @throws IllegalArgumentException if {@code leastsevere} is {@code null}
+	 */
+	public static LogFilter level(Level leastsevere) {
+		if (leastsevere == null)
+			throw new IllegalArgumentException("Level can not be null!");
+		return level(null, leastsevere);
+	}
+
+	/**
+	 * Filter accepting messages of a range of {@link Level Levels}.
+	 * 
+	 * @param mostsevere  the most severe {@link Level} accepted, {@code null} for no
+	 *                    limit
+	 * @param leastsevere the least severe {@link Level} accepted, {@code null} for
+	 *                    no limit
+	 * @return the filter
+	 */
+	public static LogFilter level(final Level mostsevere, final Level leastsevere) {
+		return new LogFilter() {
+			@Override
+			protected int decide(Level level, String classname) {
+				boolean accepted = (mostsevere == null || level.getIntLevel() >= mostsevere.getIntLevel())
+						&& (leastsevere == null || level.getIntLevel() <= leastsevere.getIntLevel());
+				return accepted ? ACCEPT : DENY;
+			}
+
+			@Override
+			protected boolean test(Level level, String classname, String msg, LogContext context) {
+				return decide(level, classname) == ACCEPT;
+			}
+		};
+	}
+
+	/**
+	 * Filter accepting messages logged by classes whose {@link Class#getName()}
+	 * starts with a prefix, e.g. a package name.
+	 * 
+	 * @param prefix the package or class name prefix, e.g.
+	 *               {@code "com.example.db."}
+	 * @return the filter
+	 * @throws IllegalArgumentException if {@code prefix} is {@code null}
+	 */
+	public static LogFilter classPrefix(final String prefix) {
+		if (prefix == null)
+			throw new IllegalArgumentException("Prefix can not be null!");
+		return new LogFilter() {
+			@Override
+			protected int decide(Level level, String classname) {
+				return classname != null && classname.startsWith(prefix) ? ACCEPT : DENY;
+			}
+
+			@Override
+			protected boolean test(Level level, String classname, String msg, LogContext context) {
+				return decide(level, classname) == ACCEPT;
+			}
+
+			@Override
+			protected boolean needsClassname() {
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Filter accepting messages containing a match of a regular expression.
+	 * 
+	 * @param regex the regular expression, see {@link Pattern}
+	 * @return the filter
+	 * @throws IllegalArgumentException if {@code regex} is {@code null}
+	 */
+	public static LogFilter message(String regex) {
+		if (regex == null)
+			throw new IllegalArgumentException("Regex can not be null!");
+		final Pattern pattern = Pattern.compile(regex);
+		return new LogFilter() {
+			@Override
+			protected int decide(Level level, String classname) {
+				return UNDECIDED;
+			}
+
+			@Override
+			protected boolean test(Level level, String classname, String msg, LogContext context) {
+				return msg != null && pattern.matcher(msg).find();
+			}
+
+			@Override
+			protected int cost() {
+				return COSTMESSAGE;
+			}
+		};
+	}
+
+	/**
+	 * Filter accepting messages logged while a field of the {@link LogContext} has
+	 * a value.
+	 * 
+	 * @param key   the key of the field
+	 * @param value the value of the field, {@code null} to accept messages logged
+	 *              while the field is not set
+	 * @return the filter
+	 * @throws IllegalArgumentException if {@code key} is {@code null}
+	 * @see Log#putContext(String, String)
+	 */
+	public static LogFilter context(final String key, final String value) {
+		if (key == null)
+			throw new IllegalArgumentException("Key can not be null!");
+		return new LogFilter() {
+			@Override
+			protected int decide(Level level, String classname) {
+				return UNDECIDED;
+			}
+
+			@Override
+			protected boolean test(Level level, String classname, String msg, LogContext context) {
+				String actual = context == null ? null : context.get(key);
+				return value == null ? actual == null : value.equals(actual);
+			}
+
+			@Override
+			protected int cost() {
+				return COSTCONTEXT;
+			}
+		};
+	}
+
+	/**
+	 * Filter accepting a random share of the messages.
+	 * 
+	 * @param rate the share of messages accepted, from {@code 0} (none) to
+	 *             {@code 1} (all)
+	 * @return the filter
+	 * @throws IllegalArgumentException if {@code rate} is not between {@code 0}
+	 *                                  and {@code 1}
+	 */
+	public static LogFilter sample(final double rate) {
+		if (!(rate >= 0 && rate <= 1))
+			throw new IllegalArgumentException("Rate must be between 0 and 1!");
+		return new LogFilter() {
+			@Override
+			protected int decide(Level level, String classname) {
+				// Nothing to sample at the extremes
+				return rate == 0 ? DENY : rate == 1 ? ACCEPT : UNDECIDED;
+			}
+
+			@Override
+			protected boolean test(Level level, String classname, String msg, LogContext context) {
+				return ThreadLocalRandom.current().nextDouble() < rate;
+			}
+
+			@Override
+			protected int cost() {
+				return COSTSAMPLE;
+			}
+		};
+	}
+
+	/**
+	 * Filter accepting messages accepted by all of the given filters. The filters
+	 * are tested cheapest first, and testing stops at the first one rejecting the
+	 * message.
+	 * 
+	 * @param filters the filters
+	 * @return the filter
+	 * @throws IllegalArgumentException if a filter is {@code null}
+	 */
+	public static LogFilter and(LogFilter... filters) {
+		return new Combination(filters, true);
+	}
+
+	/**
+	 * Filter accepting messages accepted by any of the given filters. The filters
+	 * are tested cheapest first, and testing stops at the first one accepting the
+	 * message.
+	 * 
+	 * @param filters the filters
+	 * @return the filter
+	 * @throws IllegalArgumentException if a filter is {@code null}
+	 */
+	public static LogFilter or(LogFilter... filters) {
+		return new Combination(filters, false);
+	}
+
+	/**
+	 * Filter accepting messages rejected by another filter.
+	 * 
+	 * @param filter the filter
+	 * @return the filter
+	 * @throws IllegalArgumentException if {@code filter} is {@code null}
+	 */
+	public static LogFilter not(final LogFilter filter) {
+		if (filter == null)
+			throw new IllegalArgumentException("Filter can not be null!");
+		return new LogFilter() {
+			@Override
+			protected int decide(Level level, String classname) {
+				return -filter.decide(level, classname);
+			}
+
+			@Override
+			protected boolean test(Level level, String classname, String msg, LogContext context) {
+				return !filter.test(level, classname, msg, context);
+			}
+
+			@Override
+			protected boolean needsClassname() {
+				return filter.needsClassname();
+			}
+
+			@Override
+			protected int cost() {
+				return filter.cost();
+			}
+		};
+	}
+
+	/**
+	 * Combination of filters using AND or OR
+	 */
+	private static class Combination extends LogFilter {
+
+		/**
+		 * The combined filters, cheapest first
+		 */
+		private final LogFilter[] filters;
+		/**
+		 * {@code true} to combine using AND, {@code false} to combine using OR
+		 */
+		private final boolean and;
+		/**
+		 * Whether any of the combined filters needs the calling class
+		 */
+		private final boolean needsclassname;
+		/**
+		 * The highest cost of the combined filters
+		 */
+		private final int cost;
+
+		/**
+		 * Creates a new {@link Combination}.
+		 * 
+		 * @param filters the filters to combine
+		 * @param and     {@code true} to combine using AND, {@code false} to combine
+		 *                using OR
+		 */
+		private Combination(LogFilter[] filters, boolean and) {
+			this.filters = filters.clone();
+			for (LogFilter filter : this.filters) {
+				if (filter == null)
+					throw new IllegalArgumentException("Filter can not be null!");
+			}
+			// Stable, so filters of the same cost keep their order
+			Arrays.sort(this.filters, BYCOST);
+			this.and = and;
+			boolean needsclassname = false;
+			int cost = COSTSTATIC;
+			for (LogFilter filter : this.filters) {
+				needsclassname |= filter.needsClassname();
+				cost = Math.max(cost, filter.cost());
+			}
+			this.needsclassname = needsclassname;
+			this.cost = cost;
+		}
+
+		@Override
+		protected int decide(Level level, String classname) {
+			// A single DENY decides an AND, a single ACCEPT decides an OR
+			int decisive = and ? DENY : ACCEPT;
+			int result = -decisive;
+			for (LogFilter filter : filters) {
+				int decision = filter.decide(level, classname);
+				if (decision == decisive)
+					return decisive;
+				if (decision == UNDECIDED)
+					result = UNDECIDED;
+			}
+			return result;
+		}
+
+		@Override
+		protected boolean test(Level level, String classname, String msg, LogContext context) {
+			for (LogFilter filter : filters) {
+				int decision = filter.decide(level, classname);
+				boolean accepted = decision == UNDECIDED ? filter.test(level, classname, msg, context)
+						: decision == ACCEPT;
+				if (accepted != and)
+					return accepted;
+			}
+			return and;
+		}
+
+		@Override
+		protected boolean needsClassname() {
+			return needsclassname;
+		}
+
+		@Override
+		protected int cost() {
+			return cost;
+		}
+
+	}
+
+}
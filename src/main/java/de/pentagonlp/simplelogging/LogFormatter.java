@@ -19,6 +19,20 @@ public interface LogFormatter {
 	 */
 	public String format(LogInfo info, boolean isAnsi);
 
+	/**
+	 * Get whether messages of a {@link Level} are currently formatted at all, or
+	 * dropped by {@link LogFormatter#format(LogInfo, boolean)} returning
+	 * {@code null}. Used by {@link Logger} to skip the call site lookup of dropped
+	 * messages. By default it returns {@code true}.
+	 * 
+	 * @param level the {@link Level}
+	 * @return {@code true} if messages of the {@link Level} are formatted,
+	 *         {@code false} if they are dropped
+	 */
+	public default boolean isFormatted(Level level) {
+		return true;
+	}
+
 	/**
 	 * Get the message which is written to the log, if a logged action didn't go
 	 * through because the program runs in sandbox mode
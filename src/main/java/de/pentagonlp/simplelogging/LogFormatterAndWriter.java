@@ -23,6 +23,20 @@ public interface LogFormatterAndWriter extends LogWriter {
 	 */
 	public String format(LogInfo info);
 
+	/**
+	 * Get whether messages of a {@link Level} are currently formatted at all, or
+	 * dropped by {@link LogFormatterAndWriter#format(LogInfo)} returning
+	 * {@code null}. By default it returns {@code true}.
+	 * 
+	 * @param level the {@link Level}
+	 * @return {@code true} if messages of the {@link Level} are formatted,
+	 *         {@code false} if they are dropped
+	 * @see LogFormatter#isFormatted(Level)
+	 */
+	public default boolean isFormatted(Level level) {
+		return true;
+	}
+
 	/**
 	 * Get the message which is written to the log, if a logged action didn't go
 	 * through because the program runs in sandbox mode No need for {@code isansi}
@@ -2,28 +2,77 @@ package de.pentagonlp.simplelogging;
 
 /**
  * Object containing all information about a message about to be logged.
+ * <p>
+ * To log without allocating, {@link Logger} does not create a new
+ * {@link LogInfo} for every message, but recycles one per thread using
+ * {@link LogInfo#obtain(String, Level, String, String, LogContext, long)} and
+ * {@link LogInfo#release()}. A {@link LogFormatter} must therefore not keep a
+ * reference to the {@link LogInfo} after formatting it. In debug mode,
+ * {@link LogInfo LogInfos} are not recycled and every access after the release
+ * throws an {@link IllegalStateException}, to find formatters that do.
  * 
  * @author PentagonLP
  */
 public class LogInfo {
 
+	/**
+	 * The recyclable {@link LogInfo} of each thread
+	 */
+	private static final ThreadLocal<LogInfo> RECYCLED = new ThreadLocal<LogInfo>() {
+		@Override
+		protected LogInfo initialValue() {
+			LogInfo info = new LogInfo(null, null, null, null, null, 0);
+			info.recyclable = true;
+			info.released = true;
+			return info;
+		}
+	};
+
 	/**
 	 * The messages {@link Level}
 	 */
-	private final Level level;
+	private Level level;
 	/**
 	 * The message itself, as a {@link String}
 	 */
-	private final String msg;
+	private String msg;
 	/**
 	 * The name of the class that called for the message to be logged, retrieved by
 	 * calling {@link Class#getName()}. Can also be a translated name
 	 * ({@link Log#registerClassName(String, String)}).
 	 */
-	private final String classname;
+	private String classname;
+	/**
+	 * The location in the code that called for the message to be logged, in a
+	 * {@code File.java:42 (method)} format. {@code null} if the location was not
+	 * captured.
+	 * 
+	 * @see Logger#setIncludelocation(boolean)
+	 */
+	private String location;
+	/**
+	 * The {@link LogContext} of the thread that called for the message to be
+	 * logged, at the time of the call
+	 */
+	private LogContext context;
+	/**
+	 * The time the message was logged at, in nanoseconds since the epoch
+	 * 
+	 * @see Logger#setClock(LogClock)
+	 */
+	private long timestamp;
+	/**
+	 * Whether this {@link LogInfo} is reused after it is released
+	 */
+	private boolean recyclable = false;
+	/**
+	 * Whether {@link LogInfo#release()} was called
+	 */
+	private boolean released = false;
 
 	/**
-	 * Creates a new {@link LogInfo} object and sets all its parameters.
+	 * Creates a new {@link LogInfo} object and sets all its parameters, except for
+	 * the location, which is not captured.
 	 * 
 	 * @param msg       the message, as a {@link String}
 	 * @param level     the messages {@link Level}
@@ -33,9 +82,158 @@ public class LogInfo {
 	 *                  ({@link Log#registerClassName(String, String)}).
 	 */
 	public LogInfo(String msg, Level level, String classname) {
+		this(msg, level, classname, null);
+	}
+
+	/**
+	 * Creates a new {@link LogInfo} object and sets all its parameters.
+	 * 
+	 * @param msg       the message, as a {@link String}
+	 * @param level     the messages {@link Level}
+	 * @param classname the name of the class that called for the message to be
+	 *                  logged, retrieved by calling {@link Class#getName()}. Can
+	 *                  also be a translated name
+	 *                  ({@link Log#registerClassName(String, String)}).
+	 * @param location  the location in the code that called for the message to be
+	 *                  logged, {@code null} if not captured
+	 */
+	public LogInfo(String msg, Level level, String classname, String location) {
+		this(msg, level, classname, location, LogContext.EMPTY);
+	}
+
+	/**
+	 * Creates a new {@link LogInfo} object and sets all its parameters, including
+	 * the {@link LogContext}.
+	 * 
+	 * @param msg       the message, as a {@link String}
+	 * @param level     the messages {@link Level}
+	 * @param classname the name of the class that called for the message to be
+	 *                  logged, retrieved by calling {@link Class#getName()}. Can
+	 *                  also be a translated name
+	 *                  ({@link Log#registerClassName(String, String)}).
+	 * @param location  the location in the code that called for the message to be
+	 *                  logged, {@code null} if not captured
+	 * @param context   the {@link LogContext} of the calling thread. If
+	 *                  {@code null}, {@link LogContext#EMPTY} is used.
+	 */
+	public LogInfo(String msg, Level level, String classname, String location, LogContext context) {
+		this(msg, level, classname, location, context, System.currentTimeMillis() * 1_000_000L);
+	}
+
+	/**
+	 * Creates a new {@link LogInfo} object and sets all its parameters, including
+	 * the {@link LogContext} and the timestamp.
+	 * 
+	 * @param msg       the message, as a {@link String}
+	 * @param level     the messages {@link Level}
+	 * @param classname the name of the class that called for the message to be
+	 *                  logged, retrieved by calling {@link Class#getName()}. Can
+	 *                  also be a translated name
+	 *                  ({@link Log#registerClassName(String, String)}).
+	 * @param location  the location in the code that called for the message to be
+	 *                  logged, {@code null} if not captured
+	 * @param context   the {@link LogContext} of the calling thread. If
+	 *                  {@code null}, {@link LogContext#EMPTY} is used.
+	 * @param timestamp the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 * @see LogClock#currentTimeNanos()
+	 */
+	public LogInfo(String msg, Level level, String classname, String location, LogContext context, long timestamp) {
+		set(msg, level, classname, location, context, timestamp);
+	}
+
+	/**
+	 * Get a {@link LogInfo} with all parameters set, reusing the recyclable
+	 * {@link LogInfo} of the calling thread if it is released. Must be released
+	 * using {@link LogInfo#release()} once the message is formatted, and not be
+	 * used afterwards. <br>
+	 * A new {@link LogInfo} is created if the recyclable one is still in use (e.g.
+	 * if a {@link LogFormatter} logs itself) or in debug mode.
+	 * 
+	 * @param msg       the message, as a {@link String}
+	 * @param level     the messages {@link Level}
+	 * @param classname the name of the class that called for the message to be
+	 *                  logged, or its translated name
+	 * @param location  the location in the code that called for the message to be
+	 *                  logged, {@code null} if not captured
+	 * @param context   the {@link LogContext} of the calling thread. If
+	 *                  {@code null}, {@link LogContext#EMPTY} is used.
+	 * @param timestamp the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 * @return the {@link LogInfo}
+	 */
+	public static LogInfo obtain(String msg, Level level, String classname, String location, LogContext context,
+			long timestamp) {
+		if (Log.isDebugmode())
+			return new LogInfo(msg, level, classname, location, context, timestamp);
+		LogInfo info = RECYCLED.get();
+		if (!info.released)
+			return new LogInfo(msg, level, classname, location, context, timestamp);
+		info.set(msg, level, classname, location, context, timestamp);
+		info.released = false;
+		return info;
+	}
+
+	/**
+	 * Release this {@link LogInfo} after the message is formatted. A
+	 * {@link LogInfo} obtained using
+	 * {@link LogInfo#obtain(String, Level, String, String, LogContext, long)} is
+	 * reused for the next message of the thread, so it must not be used
+	 * afterwards.
+	 */
+	public void release() {
+		released = true;
+		if (recyclable) {
+			// Do not keep the message alive until the next one
+			msg = null;
+			context = null;
+			location = null;
+		}
+	}
+
+	/**
+	 * Get whether this {@link LogInfo} was released
+	 * 
+	 * @return {@code true} if {@link LogInfo#release()} was called, {@code false}
+	 *         if not
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * Set all parameters.
+	 * 
+	 * @param msg       the message, as a {@link String}
+	 * @param level     the messages {@link Level}
+	 * @param classname the name of the class that called for the message to be
+	 *                  logged, or its translated name
+	 * @param location  the location in the code that called for the message to be
+	 *                  logged, {@code null} if not captured
+	 * @param context   the {@link LogContext} of the calling thread. If
+	 *                  {@code null}, {@link LogContext#EMPTY} is used.
+	 * @param timestamp the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 */
+	private void set(String msg, Level level, String classname, String location, LogContext context,
+			long timestamp) {
 		this.level = level;
 		this.msg = msg;
 		this.classname = classname;
+		this.location = location;
+		this.context = context == null ? LogContext.EMPTY : context;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Check that this {@link LogInfo} was not released yet, in debug mode only.
+	 * 
+	 * @throws IllegalStateException if in debug mode and this {@link LogInfo} was
+	 *                               released
+	 */
+	private void checkNotReleased() {
+		if (released && Log.isDebugmode())
+			throw new IllegalStateException("LogInfo was already released!");
 	}
 
 	/**
@@ -44,6 +242,7 @@ public class LogInfo {
 	 * @return the messages {@link Level}
 	 */
 	public Level getLevel() {
+		checkNotReleased();
 		return level;
 	}
 
@@ -53,6 +252,7 @@ public class LogInfo {
 	 * @return the message itself, as a {@link String}
 	 */
 	public String getMsg() {
+		checkNotReleased();
 		return msg;
 	}
 
@@ -64,7 +264,57 @@ public class LogInfo {
 	 * @return the name of the class that called for the message to be logged
 	 */
 	public String getClassname() {
+		checkNotReleased();
 		return classname;
 	}
 
+	/**
+	 * Get the location in the code that called for the message to be logged, in a
+	 * {@code File.java:42 (method)} format.
+	 * 
+	 * @return the location of the call, {@code null} if the location was not
+	 *         captured
+	 * @see Logger#setIncludelocation(boolean)
+	 */
+	public String getLocation() {
+		checkNotReleased();
+		return location;
+	}
+
+	/**
+	 * Get the {@link LogContext} of the thread that called for the message to be
+	 * logged, at the time of the call.
+	 * 
+	 * @return the {@link LogContext}, {@link LogContext#EMPTY} if no fields were
+	 *         set
+	 * @see Log#putContext(String, String)
+	 */
+	public LogContext getContext() {
+		checkNotReleased();
+		return context;
+	}
+
+	/**
+	 * Get the time the message was logged at, in milliseconds since the epoch
+	 * 
+	 * @return the time the message was logged at, in milliseconds since the epoch
+	 * @see Logger#setClock(LogClock)
+	 */
+	public long getTimestamp() {
+		checkNotReleased();
+		return timestamp / 1_000_000L;
+	}
+
+	/**
+	 * Get the time the message was logged at, in nanoseconds since the epoch. The
+	 * resolution depends on the {@link LogClock} used by the {@link Logger}.
+	 * 
+	 * @return the time the message was logged at, in nanoseconds since the epoch
+	 * @see Logger#setClock(LogClock)
+	 */
+	public long getTimestampNanos() {
+		checkNotReleased();
+		return timestamp;
+	}
+
 }
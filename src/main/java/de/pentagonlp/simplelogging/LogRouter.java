@@ -0,0 +1,545 @@
+package de.pentagonlp.simplelogging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.pentagonlp.simplelogging.tools.CallSite;
+import de.pentagonlp.simplelogging.tools.StackTrace;
+
+/**
+ * Router sending every message only to the {@link Logger Loggers} that keep it,
+ * instead of to all of them. Routes map messages to a {@link Logger} by
+ * {@link Level} range, package of the calling class and tag, e.g. all messages
+ * of {@link Level#ERROR} or more severe to an error file. Messages are only
+ * formatted by the {@link Logger Loggers} they are routed to.
+ * <p>
+ * The routes are compiled into a table with a bitmask of {@link Logger Loggers}
+ * per tag and {@link Level#getOrdinal()}, so routing a message costs a few
+ * array lookups. If a route depends on the package of the calling class, the
+ * table is specialised per calling class once and cached, and the call site is
+ * looked up once and passed on to the {@link Logger Loggers}.
+ * <p>
+ * If sinks are isolated ({@link Log#setIsolatedsinks(boolean)}), messages are
+ * queued to the {@link LoggerWorker} of every {@link Logger} they are routed
+ * to, like for the default {@link Logger Loggers}.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code LogRouter router = new LogRouter();} <br>
+ * {@code router.addRoute(alllogger, Level.INFO);} <br>
+ * {@code router.addRoute(errorlogger, Level.ERROR);} <br>
+ * {@code router.addRoute(auditlogger, null, null, null, "audit");} <br>
+ * {@code Log.setRouter(router);}
+ * 
+ * @author PentagonLP
+ * @see Log#setRouter(LogRouter)
+ */
+public class LogRouter {
+
+	/**
+	 * Maximum number of {@link Logger Loggers}, one bit each in a {@code long}
+	 */
+	public static final int MAXLOGGERS = 64;
+	/**
+	 * The default {@link Level} of messages logged without one
+	 */
+	private static final Level DEFAULTDEFAULTLEVEL = Level.INFO;
+	/**
+	 * The classes of the logging api, skipped when looking for the caller
+	 */
+	private static final Class<?>[] LOGGINGCLASSES = { Log.class, LogRouter.class };
+	/**
+	 * Maximum number of calling classes a routing table is specialised for. If
+	 * exceeded, the cache is cleared and filled up again, so generated classes can
+	 * not let it grow unbounded.
+	 */
+	private static final int MAXCACHEDCLASSES = 4096;
+
+	/**
+	 * A route of messages to a {@link Logger}
+	 */
+	private static class Route {
+
+		/**
+		 * The index of the {@link Logger} in {@link LogRouter#loggers}
+		 */
+		private final int logger;
+		/**
+		 * The most severe {@link Level} routed, {@code null} for no limit
+		 */
+		private final Level mostsevere;
+		/**
+		 * The least severe {@link Level} routed, {@code null} for no limit
+		 */
+		private final Level leastsevere;
+		/**
+		 * The package or class name prefix of the calling class, {@code null} for
+		 * all calling classes
+		 */
+		private final String packageprefix;
+		/**
+		 * The tag of the messages routed, {@code null} for messages with any or no
+		 * tag
+		 */
+		private final String tag;
+
+		/**
+		 * Creates a new {@link Route}.
+		 * 
+		 * @param logger        the index of the {@link Logger}
+		 * @param mostsevere    the most severe {@link Level} routed
+		 * @param leastsevere   the least severe {@link Level} routed
+		 * @param packageprefix the package prefix of the calling class
+		 * @param tag           the tag of the messages routed
+		 */
+		private Route(int logger, Level mostsevere, Level leastsevere, String packageprefix, String tag) {
+			this.logger = logger;
+			this.mostsevere = mostsevere;
+			this.leastsevere = leastsevere;
+			this.packageprefix = packageprefix;
+			this.tag = tag;
+		}
+
+		/**
+		 * Get whether a {@link Level} is in the range of this {@link Route}
+		 * 
+		 * @param level the {@link Level}
+		 * @return {@code true} if in range, {@code false} if not
+		 */
+		private boolean matches(Level level) {
+			return (mostsevere == null || level.getIntLevel() >= mostsevere.getIntLevel())
+					&& (leastsevere == null || level.getIntLevel() <= leastsevere.getIntLevel());
+		}
+
+		/**
+		 * Get whether a calling class matches the package prefix of this
+		 * {@link Route}
+		 * 
+		 * @param classname the name of the calling class, {@code null} if unknown
+		 * @return {@code true} if it matches, {@code false} if not
+		 */
+		private boolean matches(String classname) {
+			return packageprefix == null || (classname != null && classname.startsWith(packageprefix));
+		}
+
+	}
+
+	/**
+	 * Compiled, immutable routing table
+	 */
+	private static class Table {
+
+		/**
+		 * The {@link Logger Loggers}, indexed by their bit
+		 */
+		private final Logger[] loggers;
+		/**
+		 * The dense id of every tag used by a route. Tag id {@code 0} is used for
+		 * messages without a tag or with a tag no route uses.
+		 */
+		private final HashMap<String, Integer> tagids;
+		/**
+		 * The number of {@link Level Levels} the table was compiled for
+		 */
+		private final int levelcount;
+		/**
+		 * The bitmask of {@link Logger Loggers} per tag id and
+		 * {@link Level#getOrdinal()}, for routes without a package prefix
+		 */
+		private final long[][] masks;
+		/**
+		 * The routes with a package prefix, empty if there are none
+		 */
+		private final Route[] packageroutes;
+		/**
+		 * The bitmasks specialised per calling class, if there are routes with a
+		 * package prefix
+		 */
+		private final ConcurrentHashMap<String, long[][]> classmasks = new ConcurrentHashMap<>();
+
+		/**
+		 * Compile a routing table.
+		 * 
+		 * @param loggers the {@link Logger Loggers}
+		 * @param routes  the routes
+		 */
+		private Table(Logger[] loggers, Route[] routes) {
+			this.loggers = loggers;
+			this.levelcount = Level.getLevelCount();
+			this.tagids = new HashMap<>();
+			ArrayList<Route> packageroutes = new ArrayList<>();
+			for (Route route : routes) {
+				if (route.tag != null && !tagids.containsKey(route.tag))
+					tagids.put(route.tag, tagids.size() + 1);
+				if (route.packageprefix != null)
+					packageroutes.add(route);
+			}
+			this.packageroutes = packageroutes.toArray(new Route[0]);
+
+			masks = new long[tagids.size() + 1][levelcount];
+			for (Route route : routes) {
+				if (route.packageprefix == null)
+					add(masks, route);
+			}
+		}
+
+		/**
+		 * Add the bit of a route to bitmasks.
+		 * 
+		 * @param masks the bitmasks per tag id and {@link Level#getOrdinal()}
+		 * @param route the route
+		 */
+		private void add(long[][] masks, Route route) {
+			Level[] levels = Level.getLevels();
+			for (int ordinal = 0; ordinal < levelcount; ordinal++) {
+				if (!route.matches(levels[ordinal]))
+					continue;
+				if (route.tag == null) {
+					for (int tagid = 0; tagid < masks.length; tagid++)
+						masks[tagid][ordinal] |= 1L << route.logger;
+				} else
+					masks[tagids.get(route.tag)][ordinal] |= 1L << route.logger;
+			}
+		}
+
+		/**
+		 * Get the bitmasks for a calling class
+		 * 
+		 * @param classname the name of the calling class, {@code null} if unknown
+		 * @return the bitmasks per tag id and {@link Level#getOrdinal()}
+		 */
+		private long[][] masksFor(String classname) {
+			if (packageroutes.length == 0)
+				return masks;
+			String key = classname == null ? "" : classname;
+			long[][] classmask = classmasks.get(key);
+			if (classmask == null) {
+				classmask = new long[masks.length][];
+				for (int tagid = 0; tagid < masks.length; tagid++)
+					classmask[tagid] = masks[tagid].clone();
+				for (Route route : packageroutes) {
+					if (route.matches(classname))
+						add(classmask, route);
+				}
+				if (classmasks.size() >= MAXCACHEDCLASSES)
+					classmasks.clear();
+				classmasks.put(key, classmask);
+			}
+			return classmask;
+		}
+
+	}
+
+	/**
+	 * The {@link Logger Loggers} routed to, indexed by their bit. The slot of a
+	 * {@link Logger} whose routes were removed is {@code null} until reused.
+	 */
+	private final ArrayList<Logger> loggers = new ArrayList<>();
+	/**
+	 * The routes
+	 */
+	private final ArrayList<Route> routes = new ArrayList<>();
+	/**
+	 * The compiled routing table
+	 */
+	private volatile Table table = new Table(new Logger[0], new Route[0]);
+	/**
+	 * The default {@link Level} of messages logged without one
+	 * 
+	 * @see LogRouter#setDefaultlevel(Level)
+	 */
+	private volatile Level defaultlevel = DEFAULTDEFAULTLEVEL;
+
+	/**
+	 * Route all messages of a {@link Level} or more severe to a {@link Logger}.
+	 * 
+	 * @param logger      the {@link Logger} to route to
+	 * @param leastsevere the least severe {@link Level} routed, {@code null} to
+	 *                    route all {@link Level Levels}
+	 * @throws IllegalArgumentException if {@code logger} is {@code null} or there
+	 *                                  are too many {@link Logger Loggers}
+	 */
+	public void addRoute(Logger logger, Level leastsevere) {
+		addRoute(logger, null, leastsevere, null, null);
+	}
+
+	/**
+	 * Route messages to a {@link Logger}. A message is routed if all conditions
+	 * given are met, a {@link Logger} with several routes gets every message
+	 * matching any of them once.
+	 * 
+	 * @param logger        the {@link Logger} to route to
+	 * @param mostsevere    the most severe {@link Level} routed, {@code null} for no
+	 *                      limit
+	 * @param leastsevere   the least severe {@link Level} routed, {@code null} for
+	 *                      no limit
+	 * @param packageprefix the package or class name prefix of the calling class,
+	 *                      e.g. {@code "com.example.db."}, {@code null} for all
+	 *                      calling classes
+	 * @param tag           the tag of the messages routed
+	 *                      ({@link LogRouter#log(Level, String, String)}),
+	 *                      {@code null} for messages with any or no tag
+	 * @throws IllegalArgumentException if {@code logger} is {@code null} or there
+	 *                                  are too many {@link Logger Loggers}
+	 */
+	public synchronized void addRoute(Logger logger, Level mostsevere, Level leastsevere, String packageprefix,
+			String tag) {
+		if (logger == null)
+			throw new IllegalArgumentException("Logger can not be null!");
+		int index = indexOf(logger);
+		if (index < 0) {
+			// Reuse the slot of a removed Logger first
+			index = indexOf(null);
+			if (index >= 0)
+				loggers.set(index, logger);
+			else {
+				if (loggers.size() == MAXLOGGERS)
+					throw new IllegalArgumentException(
+							"A LogRouter can route to at most " + MAXLOGGERS + " loggers!");
+				loggers.add(logger);
+				index = loggers.size() - 1;
+			}
+		}
+		routes.add(new Route(index, mostsevere, leastsevere, packageprefix, tag));
+		compile();
+	}
+
+	/**
+	 * Remove all routes to a {@link Logger}, and the {@link Logger} itself: it is
+	 * no longer returned by {@link LogRouter#getLoggers()}, not closed by
+	 * {@link Log#shutdown()} and does not count towards
+	 * {@link LogRouter#MAXLOGGERS}.
+	 * 
+	 * @param logger the {@link Logger}
+	 */
+	public synchronized void removeRoutes(Logger logger) {
+		if (logger == null)
+			return;
+		int index = indexOf(logger);
+		if (index < 0)
+			return;
+		for (int i = routes.size() - 1; i >= 0; i--) {
+			if (routes.get(i).logger == index)
+				routes.remove(i);
+		}
+		// Keep the other Loggers at their bit, the slot is reused by the next one
+		loggers.set(index, null);
+		compile();
+	}
+
+	/**
+	 * Route a message of a {@link Level} with a tag to the {@link Logger Loggers}
+	 * keeping it.
+	 * 
+	 * @param level          the {@link Level} of the message
+	 * @param tag            the tag of the message, {@code null} for no tag
+	 * @param msg            the message
+	 * @param sandboxwarning If {@code true}, a warning will be given that the
+	 *                       logged action was not actually executed if logger is in
+	 *                       sandbox mode.
+	 */
+	public void log(Level level, String tag, String msg, boolean sandboxwarning) {
+		route(level, tag, msg, sandboxwarning ? Boolean.TRUE : Boolean.FALSE);
+	}
+
+	/**
+	 * Route a message of a {@link Level} with a tag to the {@link Logger Loggers}
+	 * keeping it, using the default sandbox warning setting of every
+	 * {@link Logger}.
+	 * 
+	 * @param level the {@link Level} of the message
+	 * @param tag   the tag of the message, {@code null} for no tag
+	 * @param msg   the message
+	 * @see LogRouter#log(Level, String, String, boolean)
+	 */
+	public void log(Level level, String tag, String msg) {
+		route(level, tag, msg, null);
+	}
+
+	/**
+	 * Route a message of a {@link Level}, without a tag, to the {@link Logger
+	 * Loggers} keeping it.
+	 * 
+	 * @param level          the {@link Level} of the message
+	 * @param msg            the message
+	 * @param sandboxwarning If {@code true}, a warning will be given that the
+	 *                       logged action was not actually executed if logger is in
+	 *                       sandbox mode.
+	 */
+	public void log(Level level, String msg, boolean sandboxwarning) {
+		route(level, null, msg, sandboxwarning ? Boolean.TRUE : Boolean.FALSE);
+	}
+
+	/**
+	 * Route a message of a {@link Level}, without a tag, to the {@link Logger
+	 * Loggers} keeping it, using the default sandbox warning setting of every
+	 * {@link Logger}.
+	 * 
+	 * @param level the {@link Level} of the message
+	 * @param msg   the message
+	 * @see LogRouter#log(Level, String, boolean)
+	 */
+	public void log(Level level, String msg) {
+		route(level, null, msg, null);
+	}
+
+	/**
+	 * Send the {@code StackTrace} of a {@link Throwable} to the {@link Logger
+	 * Loggers} keeping messages of {@link Level#ERROR} without a tag.
+	 * 
+	 * @param t the {@link Throwable}
+	 */
+	public void printStackTrace(Throwable t) {
+		Table table = this.table;
+		CallSite callsite = table.packageroutes.length == 0 ? null : StackTrace.getCallerSite(LOGGINGCLASSES);
+		long mask = maskOf(table, Level.ERROR, null, callsite);
+		boolean isolated = Log.isIsolatedsinks();
+		while (mask != 0) {
+			Logger logger = table.loggers[Long.numberOfTrailingZeros(mask)];
+			if (isolated)
+				Log.sinkWorkerOf(logger).printStackTrace(t);
+			else
+				logger.printStackTrace(t);
+			mask &= mask - 1;
+		}
+	}
+
+	/**
+	 * Get the bitmask of the {@link Logger Loggers} keeping a message.
+	 * 
+	 * @param table    the routing table
+	 * @param level    the {@link Level} of the message
+	 * @param tag      the tag of the message, {@code null} for no tag
+	 * @param callsite the call site of the message, only used if a route depends
+	 *                 on the package of the calling class, {@code null} if unknown
+	 * @return the bitmask of the {@link Logger Loggers}
+	 */
+	private static long maskOf(Table table, Level level, String tag, CallSite callsite) {
+		int tagid = 0;
+		if (tag != null && !table.tagids.isEmpty()) {
+			Integer id = table.tagids.get(tag);
+			if (id != null)
+				tagid = id;
+		}
+		long[][] masks = table.packageroutes.length == 0 ? table.masks
+				: table.masksFor(callsite == null ? null : callsite.getClasspath());
+		return masks[tagid][level.getOrdinal()];
+	}
+
+	/**
+	 * Route a message to the {@link Logger Loggers} keeping it.
+	 * 
+	 * @param level          the {@link Level} of the message
+	 * @param tag            the tag of the message, {@code null} for no tag
+	 * @param msg            the message
+	 * @param sandboxwarning whether to give a sandbox warning, {@code null} to use
+	 *                       the default of every {@link Logger}
+	 */
+	private void route(Level level, String tag, String msg, Boolean sandboxwarning) {
+		Table table = this.table;
+		if (level.getOrdinal() >= table.levelcount)
+			table = compileForNewLevels();
+		// Look up the call site only once, if it is needed for routing
+		CallSite callsite = table.packageroutes.length == 0 ? null : StackTrace.getCallerSite(LOGGINGCLASSES);
+		long mask = maskOf(table, level, tag, callsite);
+		if (mask != 0 && Log.isIsolatedsinks()) {
+			// Take the call site and context once, on the calling thread, skipping
+			// Loggers that would drop the message
+			LogContext context = LogContext.current();
+			while (mask != 0) {
+				Logger logger = table.loggers[Long.numberOfTrailingZeros(mask)];
+				mask &= mask - 1;
+				if (logger.isDropped(level))
+					continue;
+				if (callsite == null && logger.isCallsiteNeeded(level))
+					callsite = StackTrace.getCallerSite(LOGGINGCLASSES);
+				Log.sinkWorkerOf(logger).log(level, msg, sandboxwarning, callsite, context);
+			}
+			return;
+		}
+		LogContext context = callsite == null ? null : LogContext.current();
+		while (mask != 0) {
+			Logger logger = table.loggers[Long.numberOfTrailingZeros(mask)];
+			if (callsite != null)
+				// Pass on the call site already looked up, instead of every Logger looking
+				// it up again
+				logger.log(level, msg, sandboxwarning != null ? sandboxwarning : logger.getDefaultsandboxwarning(),
+						callsite, context, logger.getClock().currentTimeNanos());
+			else if (sandboxwarning == null)
+				logger.log(level, msg);
+			else
+				logger.log(level, msg, sandboxwarning);
+			mask &= mask - 1;
+		}
+	}
+
+	/**
+	 * Get all {@link Logger Loggers} routed to
+	 * 
+	 * @return a copy of the list of {@link Logger Loggers}
+	 */
+	public synchronized ArrayList<Logger> getLoggers() {
+		ArrayList<Logger> routed = new ArrayList<>(loggers.size());
+		for (Logger logger : loggers) {
+			if (logger != null)
+				routed.add(logger);
+		}
+		return routed;
+	}
+
+	/**
+	 * Get the {@link Level} of messages logged without one
+	 * 
+	 * @return the default {@link Level}
+	 */
+	public Level getDefaultlevel() {
+		return defaultlevel;
+	}
+
+	/**
+	 * Set the {@link Level} of messages logged without one, e.g. using
+	 * {@link Log#log(String)}. {@link Level#INFO} by default.
+	 * 
+	 * @param defaultlevel the default {@link Level}
+	 * @throws IllegalArgumentException if {@code defaultlevel} is {@code null}
+	 */
+	public void setDefaultlevel(Level defaultlevel) {
+		if (defaultlevel == null)
+			throw new IllegalArgumentException("Default level can not be null!");
+		this.defaultlevel = defaultlevel;
+	}
+
+	/**
+	 * Get the index of a {@link Logger}, by identity
+	 * 
+	 * @param logger the {@link Logger}, {@code null} to get the first free slot
+	 * @return the index of the {@link Logger}, {@code -1} if not routed to
+	 */
+	private int indexOf(Logger logger) {
+		for (int i = 0; i < loggers.size(); i++) {
+			if (loggers.get(i) == logger)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compile the routes into a new routing table. Must be called while holding
+	 * the lock on this {@link LogRouter}.
+	 */
+	private void compile() {
+		table = new Table(loggers.toArray(new Logger[0]), routes.toArray(new Route[0]));
+	}
+
+	/**
+	 * Compile the routes again, after a new {@link Level} was created.
+	 * 
+	 * @return the new routing table
+	 */
+	private synchronized Table compileForNewLevels() {
+		if (table.levelcount < Level.getLevelCount())
+			compile();
+		return table;
+	}
+
+}
@@ -14,6 +14,34 @@ public interface LogWriter {
 	 */
 	public void write(String logtext);
 
+	/**
+	 * Write a {@link String} to the log output, knowing the {@link Level} of the
+	 * logged message. Writers that treat messages differently depending on their
+	 * {@link Level} override this method, by default it just calls
+	 * {@link LogWriter#write(String)}.
+	 * 
+	 * @param logtext the {@link String} to write to the log output.
+	 * @param level   the {@link Level} of the logged message
+	 */
+	public default void write(String logtext, Level level) {
+		write(logtext);
+	}
+
+	/**
+	 * Write a {@link String} to the log output, knowing the {@link Level} and the
+	 * timestamp of the logged message. Writers that record the time of a message,
+	 * or pass it on to other writers, override this method, by default it just
+	 * calls {@link LogWriter#write(String, Level)}.
+	 * 
+	 * @param logtext   the {@link String} to write to the log output.
+	 * @param level     the {@link Level} of the logged message
+	 * @param timenanos the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 */
+	public default void write(String logtext, Level level, long timenanos) {
+		write(logtext, level);
+	}
+
 	/**
 	 * Get whether the log output supports ansi.
 	 * 
@@ -28,4 +56,34 @@ public interface LogWriter {
 	 */
 	public void printStackTrace(Throwable t);
 
+	/**
+	 * Get whether the log output currently accepts messages, e.g. whether a file
+	 * could be opened and the last write succeeded. Used to fail over to another
+	 * {@link LogWriter}, see
+	 * {@link de.pentagonlp.simplelogging.writer.SupervisedLogWriter
+	 * SupervisedLogWriter}. By default it returns {@code true}.
+	 * 
+	 * @return {@code true} if the log output is healthy, {@code false} if messages
+	 *         written to it are currently lost
+	 */
+	public default boolean isHealthy() {
+		return true;
+	}
+
+	/**
+	 * Write all buffered messages to the log output. Writers that buffer messages
+	 * override this method, by default it does nothing.
+	 */
+	public default void flush() {
+	}
+
+	/**
+	 * Flush all buffered messages and release the resources of the log output,
+	 * e.g. close a file. Messages written afterwards may be lost. By default it
+	 * just calls {@link LogWriter#flush()}.
+	 */
+	public default void close() {
+		flush();
+	}
+
 }
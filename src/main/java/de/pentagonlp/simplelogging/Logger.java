@@ -1,6 +1,9 @@
 package de.pentagonlp.simplelogging;
 
+import de.pentagonlp.simplelogging.clock.CoarseLogClock;
 import de.pentagonlp.simplelogging.formatter.DefaultLogFormatter;
+import de.pentagonlp.simplelogging.tools.CallSite;
+import de.pentagonlp.simplelogging.tools.MessageTemplate;
 import de.pentagonlp.simplelogging.tools.StackTrace;
 import de.pentagonlp.simplelogging.writer.SystemoutLogWriter;
 
@@ -37,12 +40,24 @@ public class Logger {
 	 * @see Log#registerClassName(String, String)
 	 */
 	private final static boolean DEFAULTINCLUDENONTRANSLATEDCLASSNAME = false;
+	/**
+	 * Default value for {@link Logger} whether the location of the call (file,
+	 * line and method) should be captured and passed to the {@link LogFormatter}
+	 * 
+	 * @see Logger#setIncludelocation(boolean)
+	 */
+	private final static boolean DEFAULTINCLUDELOCATION = false;
 	/**
 	 * The default initiation message, if not set otherwise
 	 * 
 	 * @see Logger#setInitiationmessage(String)
 	 */
 	private final static String DEFAULTINITIATIONMESSAGE = "------------------------------- New Logger Initiation! Program (re-)start? -------------------------------";
+	/**
+	 * The classes of the logging api, skipped when looking for the caller. Kept in
+	 * a constant, so the varargs array is not created on every call.
+	 */
+	private final static Class<?>[] LOGGINGCLASSES = { Log.class, LogRouter.class, Logger.class };
 
 	/**
 	 * The default level for the {@link Logger}, used if no other Level is given
@@ -65,6 +80,34 @@ public class Logger {
 	 * @see Log#registerClassName(String, String)
 	 */
 	private boolean includenontranslatedclassname = DEFAULTINCLUDENONTRANSLATEDCLASSNAME;
+	/**
+	 * Whether the location of the call (file, line and method) should be captured
+	 * and passed to the {@link LogFormatter}.
+	 * 
+	 * @see Logger#setIncludelocation(boolean)
+	 */
+	private boolean includelocation = DEFAULTINCLUDELOCATION;
+	/**
+	 * The {@link LogClock} giving the timestamps of logged messages. If
+	 * {@code null}, {@link CoarseLogClock#getDefault()} is used.
+	 * 
+	 * @see Logger#setClock(LogClock)
+	 */
+	private LogClock clock = null;
+	/**
+	 * The {@link LogFilter} deciding whether a message is logged, {@code null} to
+	 * log all messages
+	 * 
+	 * @see Logger#setFilter(LogFilter)
+	 */
+	private volatile LogFilter filter = null;
+	/**
+	 * The {@link LogAggregator} summarizing selected messages, {@code null} to log
+	 * all messages one by one
+	 * 
+	 * @see Logger#setAggregator(LogAggregator)
+	 */
+	private volatile LogAggregator aggregator = null;
 	/**
 	 * The default initiation message
 	 * 
@@ -135,6 +178,16 @@ public class Logger {
 				_writer.write(logtext);
 			}
 
+			@Override
+			public void write(String logtext, Level level) {
+				_writer.write(logtext, level);
+			}
+
+			@Override
+			public void write(String logtext, Level level, long timenanos) {
+				_writer.write(logtext, level, timenanos);
+			}
+
 			@Override
 			public void printStackTrace(Throwable e) {
 				_writer.printStackTrace(e);
@@ -145,6 +198,16 @@ public class Logger {
 				return _writer.isAnsi();
 			}
 
+			@Override
+			public void flush() {
+				_writer.flush();
+			}
+
+			@Override
+			public void close() {
+				_writer.close();
+			}
+
 			@Override
 			public String getStartupSandboxWarning(boolean enabled) {
 				return _formatter.getStartupSandboxWarning(_writer.isAnsi(), enabled);
@@ -164,6 +227,11 @@ public class Logger {
 			public String format(LogInfo info) {
 				return _formatter.format(info, _writer.isAnsi());
 			}
+
+			@Override
+			public boolean isFormatted(Level level) {
+				return _formatter.isFormatted(level);
+			}
 		};
 	}
 
@@ -212,27 +280,198 @@ public class Logger {
 	 *                       given.
 	 */
 	public void log(Level level, String msg, boolean sandboxwarning) {
+		log(level, msg, null, sandboxwarning);
+	}
+
+	/**
+	 * Log a parameterized message, of a specified {@link Level}. Every {@code {}}
+	 * in the template is replaced by the next argument (See
+	 * {@link MessageTemplate#format(String, Object[])}), but only if the message
+	 * is actually logged: messages rejected by the {@link LogFilter} or
+	 * aggregated by the {@link LogAggregator} are never formatted. The
+	 * {@link LogFilter} is evaluated on the template. The default value is taken
+	 * to decide if warning should be given that the logged action was not
+	 * actually executed if logger is in sandbox mode.
+	 * 
+	 * @param level    the {@link Level} of the logged message
+	 * @param template the template of the logged message
+	 * @param args     the arguments replacing the placeholders of the template
+	 * @see Logger#setAggregator(LogAggregator)
+	 */
+	public void logTemplate(Level level, String template, Object... args) {
+		log(level, template, args, defaultsandboxwarning);
+	}
+
+	/**
+	 * Log a plain or parameterized message.
+	 * 
+	 * @param level          the {@link Level} of the logged message
+	 * @param template       the template of the logged message, or the message if
+	 *                       {@code args} is {@code null}
+	 * @param args           the arguments of the template, {@code null} for a
+	 *                       plain message
+	 * @param sandboxwarning whether a sandbox warning is given
+	 */
+	private void log(Level level, String template, Object[] args, boolean sandboxwarning) {
+
+		// Filter before the caller is looked up and the message is formatted
+		LogFilter filter = this.filter;
+		CallSite callsite = null;
+		boolean callsitelookedup = false;
+		if (filter != null) {
+			String classpath = null;
+			if (filter.isClassnameNeeded()) {
+				callsite = StackTrace.getCallerSite(LOGGINGCLASSES);
+				callsitelookedup = true;
+				if (callsite != null)
+					classpath = callsite.getClasspath();
+			}
+			if (!filter.accept(level, classpath, template, LogContext.current()))
+				return;
+		}
+
+		// Nevermind the call site of messages the formatter drops anyway, or if
+		// nothing would use it
+		if (!callsitelookedup && formatterandwriter.isFormatted(level) && isCallsiteNeeded())
+			callsite = StackTrace.getCallerSite(LOGGINGCLASSES);
+		LogClock clock = this.clock != null ? this.clock : CoarseLogClock.getDefault();
+		long timenanos = clock.currentTimeNanos();
+		LogAggregator aggregator = this.aggregator;
+		if (aggregator != null && aggregator.aggregate(level, template, args, callsite))
+			return;
+		logunfiltered(level, args == null ? template : MessageTemplate.format(template, args), sandboxwarning,
+				callsite, LogContext.current(), timenanos);
+	}
+
+	/**
+	 * Get whether the call site of a message is used when it is formatted or
+	 * aggregated: for its location, its untranslated or translated class name or
+	 * the summary of the {@link LogAggregator}.
+	 * 
+	 * @return {@code true} if the call site is used, {@code false} if looking it up
+	 *         can be skipped
+	 */
+	private boolean isCallsiteNeeded() {
+		return includelocation || includenontranslatedclassname || aggregator != null || Log.isClasstranslated();
+	}
+
+	/**
+	 * Get whether a message of a {@link Level} is dropped anyway, as it is not
+	 * formatted and no {@link LogAggregator} counts it. Used to skip queueing it on
+	 * a {@link LoggerWorker}.
+	 * 
+	 * @param level the {@link Level} of the message
+	 * @return {@code true} if the message would not be written, {@code false} if
+	 *         it may be
+	 */
+	boolean isDropped(Level level) {
+		return aggregator == null && !formatterandwriter.isFormatted(level);
+	}
+
+	/**
+	 * Get whether the call site of a message of a {@link Level} is used, by the
+	 * {@link LogFilter} or when the message is formatted or aggregated. Used to
+	 * skip looking it up before queueing the message on a {@link LoggerWorker}.
+	 * 
+	 * @param level the {@link Level} of the message
+	 * @return {@code true} if the call site is used, {@code false} if looking it up
+	 *         can be skipped
+	 */
+	boolean isCallsiteNeeded(Level level) {
+		LogFilter filter = this.filter;
+		return filter != null && filter.isClassnameNeeded()
+				|| formatterandwriter.isFormatted(level) && isCallsiteNeeded();
+	}
+
+	/**
+	 * Log a message whose call site, context and timestamp were already taken on
+	 * the logging thread, e.g. to log it on a {@link LoggerWorker}. The
+	 * {@link LogFilter} is evaluated using the given call site and context.
+	 * 
+	 * @param level          the {@link Level} of the logged message
+	 * @param msg            the logged message, as a {@link String}
+	 * @param sandboxwarning If {@code true}, a warning will be given that the
+	 *                       logged action was not actually executed if logger is in
+	 *                       sandbox mode.
+	 * @param callsite       the call site of the message, {@code null} if unknown
+	 * @param context        the {@link LogContext} of the logging thread
+	 * @param timenanos      the timestamp of the message, in nanoseconds since the
+	 *                       epoch
+	 */
+	void log(Level level, String msg, boolean sandboxwarning, CallSite callsite, LogContext context,
+			long timenanos) {
+		LogFilter filter = this.filter;
+		if (filter != null
+				&& !filter.accept(level, callsite == null ? null : callsite.getClasspath(), msg, context))
+			return;
+		LogAggregator aggregator = this.aggregator;
+		if (aggregator != null && aggregator.aggregate(level, msg, null, callsite))
+			return;
+		logunfiltered(level, msg, sandboxwarning, callsite, context, timenanos);
+	}
+
+	/**
+	 * Log the summary of a {@link LogAggregator} window, bypassing the
+	 * {@link LogFilter}, as the aggregated messages already passed it.
+	 * 
+	 * @param level    the {@link Level} of the summary
+	 * @param summary  the summary
+	 * @param callsite the call site of the first aggregated message, {@code null}
+	 *                 if unknown
+	 */
+	void logaggregated(Level level, String summary, CallSite callsite) {
+		LogClock clock = this.clock != null ? this.clock : CoarseLogClock.getDefault();
+		logunfiltered(level != null ? level : defaultlevel, summary, false, callsite, LogContext.EMPTY,
+				clock.currentTimeNanos());
+	}
 
+	/**
+	 * Format and write a message that passed the {@link LogFilter}.
+	 * 
+	 * @param level          the {@link Level} of the logged message
+	 * @param msg            the logged message, as a {@link String}
+	 * @param sandboxwarning whether a sandbox warning is given
+	 * @param callsite       the call site of the message, {@code null} if unknown
+	 * @param context        the {@link LogContext} of the logging thread
+	 * @param timenanos      the timestamp of the message, in nanoseconds since the
+	 *                       epoch
+	 */
+	private void logunfiltered(Level level, String msg, boolean sandboxwarning, CallSite callsite,
+			LogContext context, long timenanos) {
 		if (firstlog)
-			writeifnotnull(initiationmessage);
+			writeifnotnull(initiationmessage, Level.INFO, timenanos);
 
 		if (debugmessage != Log.isDebugmode())
-			writeifnotnull(formatterandwriter.getStartupDebugWarning(Log.isDebugmode()));
+			writeifnotnull(formatterandwriter.getStartupDebugWarning(Log.isDebugmode()), Level.WARNING,
+					timenanos);
 		if (sandboxmessage != Log.isSandboxmode())
-			writeifnotnull(formatterandwriter.getStartupSandboxWarning(Log.isSandboxmode()));
+			writeifnotnull(formatterandwriter.getStartupSandboxWarning(Log.isSandboxmode()), Level.WARNING,
+					timenanos);
 
 		debugmessage = Log.isDebugmode();
 		sandboxmessage = Log.isSandboxmode();
 		firstlog = false;
 
-		String classpath = StackTrace.getFirstOutsideCall("log").getClassName();
-		String classname = Log.getClassName(classpath);
-		if (classname == null && includenontranslatedclassname)
-			classname = classpath;
-
-		writeifnotnull(formatterandwriter.format(new LogInfo(msg, level, classname)));
+		String classname = null;
+		String location = null;
+		if (callsite != null) {
+			classname = callsite.getClassname();
+			if (classname == null && includenontranslatedclassname)
+				classname = callsite.getClasspath();
+			if (includelocation)
+				location = callsite.getLocation();
+		}
+
+		LogInfo info = LogInfo.obtain(msg, level, classname, location, context, timenanos);
+		String formatted;
+		try {
+			formatted = formatterandwriter.format(info);
+		} finally {
+			info.release();
+		}
+		writeifnotnull(formatted, level, timenanos);
 		if (Log.isSandboxmode() && sandboxwarning)
-			writeifnotnull(formatterandwriter.getSandboxWarning());
+			writeifnotnull(formatterandwriter.getSandboxWarning(), Level.WARNING, timenanos);
 	}
 
 	/**
@@ -296,6 +535,31 @@ public class Logger {
 		formatterandwriter.printStackTrace(t);
 	}
 
+	/**
+	 * Call the {@link Logger Loggers} {@link LogWriter} to write all buffered
+	 * messages to the log output.
+	 * 
+	 * @see LogWriter#flush()
+	 */
+	public void flush() {
+		formatterandwriter.flush();
+	}
+
+	/**
+	 * Call the {@link Logger Loggers} {@link LogWriter} to flush all buffered
+	 * messages and release the resources of the log output. Messages logged
+	 * afterwards may be lost.
+	 * 
+	 * @see LogWriter#close()
+	 * @see Log#shutdown(long)
+	 */
+	public void close() {
+		LogAggregator aggregator = this.aggregator;
+		if (aggregator != null)
+			aggregator.close();
+		formatterandwriter.close();
+	}
+
 	/**
 	 * Get the {@link Logger Loggers} default {@link Level}, used if no
 	 * {@link Level} is given for a message to log.
@@ -370,6 +634,108 @@ public class Logger {
 		this.includenontranslatedclassname = includenontranslatedclassname;
 	}
 
+	/**
+	 * Get whether the location of the call (file, line and method) is captured and
+	 * passed to the {@link LogFormatter}.
+	 * 
+	 * @return whether the location of the call is captured
+	 * @see Logger#setIncludelocation(boolean)
+	 */
+	public boolean getIncludelocation() {
+		return includelocation;
+	}
+
+	/**
+	 * Set whether the location of the call (file, line and method) should be
+	 * captured and passed to the {@link LogFormatter}. The location is resolved
+	 * once per call site and cached, see {@link CallSite}.
+	 * 
+	 * @param includelocation {@code true} if the location should be captured,
+	 *                        {@code false} if not
+	 * @see LogInfo#getLocation()
+	 */
+	public void setIncludelocation(boolean includelocation) {
+		this.includelocation = includelocation;
+	}
+
+	/**
+	 * Get the {@link LogClock} giving the timestamps of logged messages
+	 * 
+	 * @return the {@link LogClock} of this {@link Logger}
+	 * @see Logger#setClock(LogClock)
+	 */
+	public LogClock getClock() {
+		return clock != null ? clock : CoarseLogClock.getDefault();
+	}
+
+	/**
+	 * Set the {@link LogClock} giving the timestamps of logged messages. By
+	 * default, the shared {@link CoarseLogClock#getDefault()} is used.
+	 * 
+	 * @param clock the {@link LogClock} to use. If {@code null}, the default clock
+	 *              is used.
+	 * @see de.pentagonlp.simplelogging.clock.PreciseLogClock PreciseLogClock <i>for
+	 *      a clock with the finest resolution</i> <br>
+	 *      {@link de.pentagonlp.simplelogging.clock.FixedLogClock FixedLogClock}
+	 *      <i>for a clock with a fixed time, for tests</i>
+	 */
+	public void setClock(LogClock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Get the {@link LogFilter} deciding whether a message is logged
+	 * 
+	 * @return the {@link LogFilter}, {@code null} if all messages are logged
+	 * @see Logger#setFilter(LogFilter)
+	 */
+	public LogFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Set a {@link LogFilter} deciding whether a message is logged. The filter is
+	 * evaluated first, so rejected messages cost neither a stack trace nor
+	 * formatting, unless the filter needs the calling class.
+	 * 
+	 * @param filter the {@link LogFilter}, {@code null} to log all messages
+	 */
+	public void setFilter(LogFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Get the {@link LogAggregator} summarizing selected messages
+	 * 
+	 * @return the {@link LogAggregator}, {@code null} if all messages are logged
+	 *         one by one
+	 * @see Logger#setAggregator(LogAggregator)
+	 */
+	public LogAggregator getAggregator() {
+		return aggregator;
+	}
+
+	/**
+	 * Set a {@link LogAggregator} summarizing messages of selected templates or
+	 * call sites per time window, instead of logging them one by one. Aggregated
+	 * messages still pass the {@link LogFilter} first. The current windows of a
+	 * replaced {@link LogAggregator} are summarized. A {@link LogAggregator} can
+	 * only be used by one {@link Logger}.
+	 * 
+	 * @param aggregator the {@link LogAggregator}, {@code null} to log all messages
+	 *                   one by one
+	 * @throws IllegalArgumentException if {@code aggregator} is already used by
+	 *                                  another {@link Logger}
+	 */
+	public void setAggregator(LogAggregator aggregator) {
+		if (aggregator != null)
+			aggregator.bind(this);
+		LogAggregator previous = this.aggregator;
+		this.aggregator = aggregator;
+		if (previous != null && previous != aggregator)
+			previous.flush();
+	}
+
 	/**
 	 * Get the initiation message printed before the first message is logged.
 	 * 
@@ -395,11 +761,14 @@ public class Logger {
 	 * Call the writer to write a given {@link String}. If {@code null} is given, do
 	 * nothing.
 	 * 
-	 * @param string the {@link String} to write or {@code null}
+	 * @param string    the {@link String} to write or {@code null}
+	 * @param level     the {@link Level} of the written {@link String}
+	 * @param timenanos the timestamp of the logged message, in nanoseconds since
+	 *                  the epoch
 	 */
-	private void writeifnotnull(String string) {
+	private void writeifnotnull(String string, Level level, long timenanos) {
 		if (string != null)
-			formatterandwriter.write(string);
+			formatterandwriter.write(string, level, timenanos);
 	}
 
 }
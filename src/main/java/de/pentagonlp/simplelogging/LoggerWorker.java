@@ -0,0 +1,403 @@
+package de.pentagonlp.simplelogging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.pentagonlp.simplelogging.tools.CallSite;
+
+/**
+ * Queue and background thread of a single {@link Logger}, used by {@link Log}
+ * if sinks are isolated (See {@link Log#setIsolatedsinks(boolean)}). The
+ * logging thread only takes the call site, context and timestamp of a message
+ * and queues it, the message is formatted and written by the background thread.
+ * A stalled {@link LogWriter} therefore only delays its own {@link Logger}: its
+ * queue fills up and further messages for it are dropped, while the other
+ * {@link Logger Loggers} and the logging threads carry on.
+ * <p>
+ * Every {@link LoggerWorker} reports its health: the number of queued, written,
+ * dropped and failed messages and its lag, the age of the oldest message not
+ * written yet.
+ * <p>
+ * Platform threads are used, not virtual threads, as most {@link LogWriter
+ * LogWriters} block in synchronized sections while writing.
+ * 
+ * @author PentagonLP
+ * @see Log#getSinkWorkers()
+ */
+public final class LoggerWorker {
+
+	/**
+	 * Default maximum number of queued messages
+	 */
+	public static final int DEFAULTCAPACITY = 8192;
+	/**
+	 * Default lag after which the {@link LoggerWorker} is reported as stalled, in
+	 * milliseconds
+	 * 
+	 * @see LoggerWorker#setStallthreshold(long)
+	 */
+	private static final long DEFAULTSTALLTHRESHOLD = 5000;
+	/**
+	 * Number of the next background thread, for its name
+	 */
+	private static final AtomicInteger THREADNUMBER = new AtomicInteger();
+
+	/**
+	 * The {@link Logger} written to by the background thread
+	 */
+	private final Logger logger;
+	/**
+	 * The queued messages, oldest first
+	 */
+	private final ArrayBlockingQueue<Task> queue;
+	/**
+	 * The background thread
+	 */
+	private final Thread worker;
+	/**
+	 * The lag after which the {@link LoggerWorker} is reported as stalled, in
+	 * milliseconds
+	 */
+	private volatile long stallthreshold = DEFAULTSTALLTHRESHOLD;
+	/**
+	 * The {@link System#nanoTime()} the message currently written was queued at,
+	 * {@code 0} if no message is currently written
+	 */
+	private volatile long busysince = 0;
+	/**
+	 * Whether {@link LoggerWorker#close(long)} was called
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * Number of messages written, including failed ones
+	 */
+	private final AtomicLong processed = new AtomicLong();
+	/**
+	 * Number of messages dropped, as the queue was full or the
+	 * {@link LoggerWorker} closed
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	/**
+	 * Number of messages whose {@link Logger} threw an exception
+	 */
+	private final AtomicLong failed = new AtomicLong();
+	/**
+	 * The last exception thrown by the {@link Logger}, {@code null} if none
+	 */
+	private volatile RuntimeException lasterror = null;
+
+	/**
+	 * Creates a new {@link LoggerWorker} and starts its background thread.
+	 * 
+	 * @param logger   the {@link Logger} to write to
+	 * @param capacity the maximum number of queued messages
+	 * @throws IllegalArgumentException if {@code logger} is {@code null} or
+	 *                                  {@code capacity} is not positive
+	 */
+	LoggerWorker(Logger logger, int capacity) {
+		if (logger == null)
+			throw new IllegalArgumentException("Logger can not be null!");
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive!");
+		this.logger = logger;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "LoggerWorker " + THREADNUMBER.incrementAndGet());
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Queue a message. Never blocks: if the queue is full, the message is dropped.
+	 * 
+	 * @param level          the {@link Level} of the message, {@code null} for the
+	 *                       default {@link Level} of the {@link Logger}
+	 * @param msg            the message
+	 * @param sandboxwarning whether a sandbox warning is given, {@code null} for
+	 *                       the default of the {@link Logger}
+	 * @param callsite       the call site of the message, {@code null} if unknown
+	 * @param context        the {@link LogContext} of the logging thread
+	 * @return {@code true} if the message was queued, {@code false} if it was
+	 *         dropped
+	 */
+	boolean log(Level level, String msg, Boolean sandboxwarning, CallSite callsite, LogContext context) {
+		return offer(new Task(level, msg, sandboxwarning, null, callsite, context,
+				logger.getClock().currentTimeNanos()));
+	}
+
+	/**
+	 * Queue the stack trace of a {@link Throwable}. Never blocks: if the queue is
+	 * full, the stack trace is dropped.
+	 * 
+	 * @param t the {@link Throwable}
+	 * @return {@code true} if the stack trace was queued, {@code false} if it was
+	 *         dropped
+	 */
+	boolean printStackTrace(Throwable t) {
+		return offer(new Task(null, null, null, t, null, null, 0));
+	}
+
+	/**
+	 * Queue a task, or count it as dropped.
+	 * 
+	 * @param task the task
+	 * @return {@code true} if the task was queued, {@code false} if it was dropped
+	 */
+	private boolean offer(Task task) {
+		if (!closed && queue.offer(task))
+			return true;
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Write all queued messages and stop the background thread. Messages queued
+	 * afterwards are dropped. The {@link Logger} itself is not closed.
+	 * 
+	 * @param timeoutmillis the maximum time to wait for the queued messages to be
+	 *                      written, in milliseconds. {@code 0} to not wait.
+	 * @return {@code true} if all queued messages were written in time,
+	 *         {@code false} if not
+	 */
+	public boolean close(long timeoutmillis) {
+		closed = true;
+		if (timeoutmillis > 0) {
+			try {
+				worker.join(timeoutmillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return !worker.isAlive();
+	}
+
+	/**
+	 * Main loop of the background thread
+	 */
+	private void work() {
+		while (true) {
+			Task task;
+			try {
+				task = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				// Nevermind, only close() stops the worker
+				continue;
+			}
+			if (task == null) {
+				if (closed && queue.isEmpty())
+					return;
+				continue;
+			}
+			busysince = task.queuednanos;
+			try {
+				task.writeTo(logger);
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				lasterror = e;
+			} finally {
+				busysince = 0;
+				processed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Get the {@link Logger} written to
+	 * 
+	 * @return the {@link Logger}
+	 */
+	public Logger getLogger() {
+		return logger;
+	}
+
+	/**
+	 * Get the number of queued messages
+	 * 
+	 * @return the number of messages not written yet
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Get the number of messages written, including failed ones
+	 * 
+	 * @return the number of messages written
+	 */
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	/**
+	 * Get the number of messages dropped, as the queue was full or the
+	 * {@link LoggerWorker} closed
+	 * 
+	 * @return the number of messages dropped
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Get the number of messages whose {@link Logger} threw an exception
+	 * 
+	 * @return the number of messages failed
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Get the last exception thrown by the {@link Logger}
+	 * 
+	 * @return the last exception, {@code null} if none was thrown
+	 */
+	public RuntimeException getLasterror() {
+		return lasterror;
+	}
+
+	/**
+	 * Get the lag of the {@link LoggerWorker}: the age of the message currently
+	 * written, or of the oldest queued message if none is written.
+	 * 
+	 * @return the lag, in milliseconds. {@code 0} if the queue is empty.
+	 */
+	public long getLag() {
+		long since = busysince;
+		if (since == 0) {
+			Task head = queue.peek();
+			if (head == null)
+				return 0;
+			since = head.queuednanos;
+		}
+		return Math.max(0, (System.nanoTime() - since) / 1_000_000);
+	}
+
+	/**
+	 * Get whether the {@link LoggerWorker} is healthy, i.e. running and keeping up
+	 * 
+	 * @return {@code true} if the background thread is running and its lag is below
+	 *         {@link LoggerWorker#getStallthreshold()}, {@code false} if not
+	 */
+	public boolean isHealthy() {
+		return worker.isAlive() && getLag() < stallthreshold;
+	}
+
+	/**
+	 * Get the lag after which the {@link LoggerWorker} is reported as stalled
+	 * 
+	 * @return the lag, in milliseconds
+	 * @see LoggerWorker#setStallthreshold(long)
+	 */
+	public long getStallthreshold() {
+		return stallthreshold;
+	}
+
+	/**
+	 * Set the lag after which the {@link LoggerWorker} is reported as stalled by
+	 * {@link LoggerWorker#isHealthy()}. {@code 5000} milliseconds by default.
+	 * 
+	 * @param stallthreshold the lag, in milliseconds
+	 */
+	public void setStallthreshold(long stallthreshold) {
+		this.stallthreshold = stallthreshold;
+	}
+
+	/**
+	 * Get a one line report of the health of the {@link LoggerWorker}
+	 * 
+	 * @return the report, e.g.
+	 *         {@code LoggerWorker 2: healthy, lag 0 ms, queued 0, processed 1200, dropped 0, failed 0}
+	 */
+	@Override
+	public String toString() {
+		return worker.getName() + ": " + (isHealthy() ? "healthy" : worker.isAlive() ? "stalled" : "stopped")
+				+ ", lag " + getLag() + " ms, queued " + getQueued() + ", processed " + getProcessed() + ", dropped "
+				+ getDropped() + ", failed " + getFailed();
+	}
+
+	/**
+	 * A queued message or stack trace
+	 */
+	private static class Task {
+
+		/**
+		 * The {@link Level} of the message, {@code null} for the default
+		 */
+		private final Level level;
+		/**
+		 * The message, {@code null} for a stack trace
+		 */
+		private final String msg;
+		/**
+		 * Whether a sandbox warning is given, {@code null} for the default
+		 */
+		private final Boolean sandboxwarning;
+		/**
+		 * The {@link Throwable} whose stack trace is written, {@code null} for a
+		 * message
+		 */
+		private final Throwable throwable;
+		/**
+		 * The call site of the message
+		 */
+		private final CallSite callsite;
+		/**
+		 * The {@link LogContext} of the logging thread
+		 */
+		private final LogContext context;
+		/**
+		 * The timestamp of the message, in nanoseconds since the epoch
+		 */
+		private final long timenanos;
+		/**
+		 * The {@link System#nanoTime()} the task was queued at
+		 */
+		private final long queuednanos = System.nanoTime();
+
+		/**
+		 * Creates a new {@link Task}.
+		 * 
+		 * @param level          the {@link Level} of the message
+		 * @param msg            the message
+		 * @param sandboxwarning whether a sandbox warning is given
+		 * @param throwable      the {@link Throwable} whose stack trace is written
+		 * @param callsite       the call site of the message
+		 * @param context        the {@link LogContext} of the logging thread
+		 * @param timenanos      the timestamp of the message
+		 */
+		private Task(Level level, String msg, Boolean sandboxwarning, Throwable throwable, CallSite callsite,
+				LogContext context, long timenanos) {
+			this.level = level;
+			this.msg = msg;
+			this.sandboxwarning = sandboxwarning;
+			this.throwable = throwable;
+			this.callsite = callsite;
+			this.context = context;
+			this.timenanos = timenanos;
+		}
+
+		/**
+		 * Write the task to a {@link Logger}.
+		 * 
+		 * @param logger the {@link Logger}
+		 */
+		private void writeTo(Logger logger) {
+			if (throwable != null) {
+				logger.printStackTrace(throwable);
+				return;
+			}
+			logger.log(level != null ? level : logger.getDefaultlevel(), msg,
+					sandboxwarning != null ? sandboxwarning : logger.getDefaultsandboxwarning(), callsite, context,
+					timenanos);
+		}
+
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.pentagonlp.simplelogging.benchmark;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.Log;
+import de.pentagonlp.simplelogging.LogInfo;
+import de.pentagonlp.simplelogging.LogWriter;
+import de.pentagonlp.simplelogging.Logger;
+import de.pentagonlp.simplelogging.formatter.DefaultLogFormatter;
+import de.pentagonlp.simplelogging.tools.StackTrace;
+
+/**
+ * Benchmark for the steady-state overhead of capturing the location of a call
+ * using {@link de.pentagonlp.simplelogging.tools.CallSite CallSite}. Compares
+ * <ul>
+ * <li>a {@link Logger} without location capture,</li>
+ * <li>a {@link Logger} with location capture (cached call sites) and</li>
+ * <li>resolving and rendering the location naively on every call.</li>
+ * </ul>
+ * The {@link Logger} with location capture is measured again
+ * {@value CallSiteBenchmark#DEEPSTACK} frames deeper, like in a typical
+ * application. On Java 9 and later, the caller is found by walking only the
+ * frames up to it, so the cost does not grow with the depth of the stack. On
+ * Java 8, the whole stack is captured on every call.
+ * <b>Usage:</b> <br>
+ * {@code java de.pentagonlp.simplelogging.benchmark.CallSiteBenchmark [iterations]}
+ * 
+ * @author PentagonLP
+ */
+public class CallSiteBenchmark {
+
+	/**
+	 * Default number of measured iterations per variant
+	 */
+	private static final int DEFAULTITERATIONS = 500_000;
+	/**
+	 * Number of additional frames on the stack for the deep variant
+	 */
+	private static final int DEEPSTACK = 64;
+
+	/**
+	 * Sink to prevent the JIT from removing the benchmarked work
+	 */
+	private static int blackhole = 0;
+
+	/**
+	 * Run the benchmark.
+	 * 
+	 * @param args optional: the number of measured iterations per variant
+	 */
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULTITERATIONS;
+		Log.registerClassName(CallSiteBenchmark.class.getName(), "Benchmark");
+
+		LogWriter nullwriter = new NullLogWriter();
+		Logger plain = new Logger(new DefaultLogFormatter(), nullwriter);
+		Logger located = new Logger(new DefaultLogFormatter(), nullwriter);
+		located.setIncludelocation(true);
+		plain.setInitiationmessage(null);
+		located.setInitiationmessage(null);
+
+		// Warmup
+		for (int i = 0; i < 2; i++) {
+			runLogger(plain, iterations / 4);
+			runLogger(located, iterations / 4);
+			runNaive(iterations / 4);
+		}
+
+		report("Logger without location", runLogger(plain, iterations), iterations);
+		report("Logger with cached location", runLogger(located, iterations), iterations);
+		report("Naive location per call", runNaive(iterations), iterations);
+		report("Cached location, " + DEEPSTACK + " deeper", runDeep(located, iterations, DEEPSTACK), iterations);
+		System.out.println("(blackhole " + blackhole + ")");
+	}
+
+	/**
+	 * Log {@code iterations} messages using a {@link Logger}.
+	 * 
+	 * @param logger     the {@link Logger} to log with
+	 * @param iterations the number of messages to log
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long runLogger(Logger logger, int iterations) {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			logger.log(Level.INFO, "Benchmark message");
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Log {@code iterations} messages using a {@link Logger}, with
+	 * {@code depth} additional frames on the stack.
+	 * 
+	 * @param logger     the {@link Logger} to log with
+	 * @param iterations the number of messages to log
+	 * @param depth      the number of additional frames
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long runDeep(Logger logger, int iterations, int depth) {
+		if (depth > 0)
+			return runDeep(logger, iterations, depth - 1);
+		return runLogger(logger, iterations);
+	}
+
+	/**
+	 * Resolve, translate and render the location of the call naively
+	 * {@code iterations} times, the way it would be done without caching.
+	 * 
+	 * @param iterations the number of locations to resolve
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long runNaive(int iterations) {
+		DefaultLogFormatter formatter = new DefaultLogFormatter();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			StackTraceElement ste = StackTrace.getStack()[1];
+			String location = ste.getFileName() + ":" + ste.getLineNumber() + " (" + ste.getMethodName() + ")";
+			String formatted = formatter.format(
+					new LogInfo("Benchmark message", Level.INFO, Log.getClassName(ste), location), false);
+			blackhole += formatted.length();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Print the result of one variant.
+	 * 
+	 * @param name       the name of the variant
+	 * @param nanos      the time taken, in nanoseconds
+	 * @param iterations the number of iterations measured
+	 */
+	private static void report(String name, long nanos, int iterations) {
+		System.out.printf("%-30s %10.1f ns/op%n", name, (double) nanos / iterations);
+	}
+
+	/**
+	 * {@link LogWriter} discarding everything written to it.
+	 */
+	private static class NullLogWriter implements LogWriter {
+
+		@Override
+		public void write(String logtext) {
+			blackhole += logtext.length();
+		}
+
+		@Override
+		public boolean isAnsi() {
+			return false;
+		}
+
+		@Override
+		public void printStackTrace(Throwable t) {
+		}
+
+	}
+
+}
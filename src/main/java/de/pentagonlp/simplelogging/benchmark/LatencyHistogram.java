@@ -0,0 +1,149 @@
+package de.pentagonlp.simplelogging.benchmark;
+
+/**
+ * Histogram of latencies in nanoseconds, with a fixed relative precision of
+ * better than 2% over the whole range of {@code long}. Values below 128 are
+ * counted exactly, above that every power of two is split into 64 buckets.
+ * <p>
+ * A {@link LatencyHistogram} is not thread safe: record into one histogram per
+ * thread and merge them using {@link LatencyHistogram#add(LatencyHistogram)}.
+ * 
+ * @author PentagonLP
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of bits of a value kept exactly
+	 */
+	private static final int SUBBITS = 7;
+	/**
+	 * Number of values counted exactly, from {@code 0}
+	 */
+	private static final int SUBBUCKETS = 1 << SUBBITS;
+	/**
+	 * Number of buckets per power of two, above {@link LatencyHistogram#SUBBUCKETS}
+	 */
+	private static final int HALFBUCKETS = SUBBUCKETS / 2;
+
+	/**
+	 * The number of values recorded per bucket
+	 */
+	private final long[] counts = new long[SUBBUCKETS + (64 - SUBBITS) * HALFBUCKETS];
+	/**
+	 * The number of values recorded
+	 */
+	private long count = 0;
+	/**
+	 * The sum of all values recorded
+	 */
+	private long sum = 0;
+	/**
+	 * The highest value recorded
+	 */
+	private long max = 0;
+
+	/**
+	 * Record a value.
+	 * 
+	 * @param value the value, in nanoseconds. Negative values are recorded as
+	 *              {@code 0}.
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * Add all values recorded by another {@link LatencyHistogram}.
+	 * 
+	 * @param other the other {@link LatencyHistogram}
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Get the value at a percentile
+	 * 
+	 * @param percentile the percentile, from {@code 0} to {@code 100}
+	 * @return the highest value of the bucket the percentile falls into, in
+	 *         nanoseconds. {@code 0} if no values were recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target)
+				return Math.min(highestValue(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Get the number of values recorded
+	 * 
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the mean of the values recorded
+	 * 
+	 * @return the mean, in nanoseconds. {@code 0} if no values were recorded.
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Get the highest value recorded
+	 * 
+	 * @return the highest value, in nanoseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Get the index of the bucket of a value
+	 * 
+	 * @param value the value, not negative
+	 * @return the index of the bucket
+	 */
+	private static int index(long value) {
+		if (value < SUBBUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUBBITS + 1;
+		int top = (int) (value >>> shift);
+		return SUBBUCKETS + (shift - 1) * HALFBUCKETS + (top - HALFBUCKETS);
+	}
+
+	/**
+	 * Get the highest value counted in a bucket
+	 * 
+	 * @param index the index of the bucket
+	 * @return the highest value of the bucket
+	 */
+	private static long highestValue(int index) {
+		if (index < SUBBUCKETS)
+			return index;
+		int shift = (index - SUBBUCKETS) / HALFBUCKETS + 1;
+		long top = (index - SUBBUCKETS) % HALFBUCKETS + HALFBUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,296 @@
+package de.pentagonlp.simplelogging.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.Log;
+import de.pentagonlp.simplelogging.LogFormatter;
+import de.pentagonlp.simplelogging.LogWriter;
+import de.pentagonlp.simplelogging.Logger;
+import de.pentagonlp.simplelogging.formatter.DefaultLogFormatter;
+import de.pentagonlp.simplelogging.formatter.StringLogFormatter;
+import de.pentagonlp.simplelogging.writer.CombiningFileLogWriter;
+import de.pentagonlp.simplelogging.writer.FileLogWriter;
+import de.pentagonlp.simplelogging.writer.MappedQueueLogWriter;
+import de.pentagonlp.simplelogging.writer.QueuedLogWriter;
+import de.pentagonlp.simplelogging.writer.ShardedFileLogWriter;
+import de.pentagonlp.simplelogging.writer.SystemoutLogWriter;
+
+/**
+ * End-to-end load generator, to size the logging configuration. Drives
+ * {@link Log#log(Level, String)} from several threads at a target rate for
+ * several combinations of {@link LogFormatter} and {@link LogWriter}, and
+ * reports the latency percentiles and the achieved throughput of each.
+ * <p>
+ * Every thread logs on a fixed schedule. The latency of a call is measured
+ * from the time it was scheduled, not from the time it actually started, so a
+ * stall delaying the following calls is counted for each of them (correction
+ * of coordinated omission). The latency from the actual start is reported as
+ * service time for comparison.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code java de.pentagonlp.simplelogging.benchmark.LoadGenerator [threads] [rate] [seconds] [directory]}
+ * <br>
+ * {@code rate} is the total number of messages per second of all threads.
+ * 
+ * @author PentagonLP
+ */
+public class LoadGenerator {
+
+	/**
+	 * Default number of logging threads
+	 */
+	private static final int DEFAULTTHREADS = 4;
+	/**
+	 * Default total number of messages per second
+	 */
+	private static final int DEFAULTRATE = 100_000;
+	/**
+	 * Default duration of every combination, in seconds
+	 */
+	private static final int DEFAULTSECONDS = 10;
+	/**
+	 * Time to wait for a scheduled call by spinning instead of parking, in
+	 * nanoseconds
+	 */
+	private static final long SPINNANOS = 50_000;
+	/**
+	 * Message logged, about the length of a typical message
+	 */
+	private static final String MESSAGE = "Handled request GET /api/v1/items?page=2 for user 4711 in 12 ms";
+
+	/**
+	 * A combination of {@link LogFormatter} and {@link LogWriter} to drive
+	 */
+	private static abstract class Combination {
+
+		/**
+		 * The name of the combination
+		 */
+		private final String name;
+
+		/**
+		 * Creates a new {@link Combination}.
+		 * 
+		 * @param name the name of the combination
+		 */
+		private Combination(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Create the {@link Logger} to drive.
+		 * 
+		 * @param directory the directory for output files
+		 * @return the {@link Logger}
+		 * @throws IOException if an output file can not be opened
+		 */
+		protected abstract Logger createLogger(File directory) throws IOException;
+
+		/**
+		 * Clean up after the combination was driven.
+		 */
+		protected void cleanup() {
+		}
+
+	}
+
+	/**
+	 * Run the load generator.
+	 * 
+	 * @param args optional: the number of threads, the total number of messages
+	 *             per second, the duration of every combination in seconds and the
+	 *             directory for output files
+	 * @throws Exception if the load generator can not be run
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULTTHREADS;
+		int rate = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULTRATE;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULTSECONDS;
+		File directory = new File(args.length > 3 ? args[3] : System.getProperty("java.io.tmpdir"), "loadgenerator");
+		directory.mkdirs();
+
+		// Combinations may replace System.out
+		PrintStream console = System.out;
+		console.println(threads + " threads, target " + rate + " msg/s, " + seconds + " s per combination");
+		console.printf("%-40s %10s %9s %9s %9s %9s %11s%n", "combination", "msg/s", "p50 us", "p99 us",
+				"p99.9 us", "max us", "svc p99 us");
+		for (Combination combination : createCombinations()) {
+			Logger logger = combination.createLogger(directory);
+			logger.setInitiationmessage(null);
+			ArrayList<Logger> loggers = new ArrayList<>();
+			loggers.add(logger);
+			Log.setDefaultlogger(loggers);
+
+			// Warmup
+			run(threads, rate, Math.max(1, seconds / 5));
+			long before = System.nanoTime();
+			LatencyHistogram[] result = run(threads, rate, seconds);
+			double elapsed = (System.nanoTime() - before) / 1e9;
+			Log.shutdown();
+			combination.cleanup();
+
+			LatencyHistogram response = result[0];
+			LatencyHistogram service = result[1];
+			console.printf("%-40s %10.0f %9.1f %9.1f %9.1f %9.1f %11.1f%n", combination.name,
+					response.getCount() / elapsed, response.getPercentile(50) / 1000.0,
+					response.getPercentile(99) / 1000.0, response.getPercentile(99.9) / 1000.0,
+					response.getMax() / 1000.0, service.getPercentile(99) / 1000.0);
+		}
+		delete(directory);
+	}
+
+	/**
+	 * Delete a file, or a directory with all its content.
+	 * 
+	 * @param file the file or directory to delete
+	 */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	/**
+	 * Drive {@link Log#log(Level, String)} from several threads.
+	 * 
+	 * @param threads the number of threads
+	 * @param rate    the total number of messages per second
+	 * @param seconds the duration, in seconds
+	 * @return the latencies from the scheduled start of every call, and from its
+	 *         actual start
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	private static LatencyHistogram[] run(int threads, int rate, int seconds) throws InterruptedException {
+		final long interval = 1_000_000_000L * threads / rate;
+		final long start = System.nanoTime() + 10_000_000L;
+		final long end = start + seconds * 1_000_000_000L;
+		final LatencyHistogram[] responses = new LatencyHistogram[threads];
+		final LatencyHistogram[] services = new LatencyHistogram[threads];
+
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			responses[t] = new LatencyHistogram();
+			services[t] = new LatencyHistogram();
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// Spread the threads over the interval
+					long scheduled = start + interval * thread / responses.length;
+					while (scheduled < end) {
+						waitUntil(scheduled);
+						long before = System.nanoTime();
+						Log.log(Level.INFO, MESSAGE);
+						long after = System.nanoTime();
+						responses[thread].record(after - scheduled);
+						services[thread].record(after - before);
+						scheduled += interval;
+					}
+				}
+			}, "LoadGenerator " + t);
+			workers[t].start();
+		}
+
+		LatencyHistogram response = new LatencyHistogram();
+		LatencyHistogram service = new LatencyHistogram();
+		for (int t = 0; t < threads; t++) {
+			workers[t].join();
+			response.add(responses[t]);
+			service.add(services[t]);
+		}
+		return new LatencyHistogram[] { response, service };
+	}
+
+	/**
+	 * Wait until a point in time, parking while it is far away and spinning
+	 * shortly before.
+	 * 
+	 * @param deadline the point in time, as given by {@link System#nanoTime()}
+	 */
+	private static void waitUntil(long deadline) {
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			if (remaining > SPINNANOS)
+				LockSupport.parkNanos(remaining - SPINNANOS);
+		}
+	}
+
+	/**
+	 * Create the combinations to drive.
+	 * 
+	 * @return the combinations to drive
+	 */
+	private static ArrayList<Combination> createCombinations() {
+		ArrayList<Combination> combinations = new ArrayList<>();
+		combinations.add(new Combination("DefaultLogFormatter, FileLogWriter") {
+			@Override
+			protected Logger createLogger(File directory) {
+				return new Logger(new DefaultLogFormatter(),
+						new FileLogWriter(new File(directory, "file.log").getPath(), false));
+			}
+		});
+		combinations.add(new Combination("DefaultLogFormatter, Systemout to file") {
+			private PrintStream original;
+
+			@Override
+			protected Logger createLogger(File directory) throws IOException {
+				original = System.out;
+				System.setOut(new PrintStream(new FileOutputStream(new File(directory, "systemout.log")), false,
+						"UTF-8"));
+				return new Logger(new DefaultLogFormatter(), new SystemoutLogWriter());
+			}
+
+			@Override
+			protected void cleanup() {
+				System.out.close();
+				System.setOut(original);
+			}
+		});
+		combinations.add(new Combination("DefaultLogFormatter, Queued file") {
+			@Override
+			protected Logger createLogger(File directory) {
+				return new Logger(new DefaultLogFormatter(), new QueuedLogWriter(
+						new FileLogWriter(new File(directory, "queued.log").getPath(), false)));
+			}
+		});
+		combinations.add(new Combination("StringLogFormatter, FileLogWriter") {
+			@Override
+			protected Logger createLogger(File directory) {
+				return new Logger(new StringLogFormatter("[%date% %time%] %level%: %msg%"),
+						new FileLogWriter(new File(directory, "string.log").getPath(), false));
+			}
+		});
+		combinations.add(new Combination("DefaultLogFormatter, Sharded files") {
+			@Override
+			protected Logger createLogger(File directory) {
+				return new Logger(new DefaultLogFormatter(),
+						new ShardedFileLogWriter(new File(directory, "shards").getPath(), "sharded"));
+			}
+		});
+		combinations.add(new Combination("DefaultLogFormatter, Combining file") {
+			@Override
+			protected Logger createLogger(File directory) {
+				return new Logger(new DefaultLogFormatter(),
+						new CombiningFileLogWriter(new File(directory, "combining.log").getPath(), false));
+			}
+		});
+		combinations.add(new Combination("DefaultLogFormatter, MappedQueue") {
+			@Override
+			protected Logger createLogger(File directory) throws IOException {
+				return new Logger(new DefaultLogFormatter(),
+						new MappedQueueLogWriter(new File(directory, "queue").getPath()));
+			}
+		});
+		return combinations;
+	}
+
+}
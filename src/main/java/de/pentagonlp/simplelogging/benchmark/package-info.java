@@ -0,0 +1,7 @@
+/**
+ * This package houses runnable benchmarks and measurement tools to check the
+ * overhead of the logging api. They are not used by the logging api itself.
+ * 
+ * @author PentagonLP
+ */
+package de.pentagonlp.simplelogging.benchmark;
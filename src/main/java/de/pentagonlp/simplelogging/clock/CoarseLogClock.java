@@ -0,0 +1,143 @@
+package de.pentagonlp.simplelogging.clock;
+
+import de.pentagonlp.simplelogging.LogClock;
+
+/**
+ * {@link LogClock} returning a cached time, which is updated by a background
+ * thread in a fixed interval, the resolution of the clock. Reading the time is
+ * a single read of a {@code volatile} field, so it is far cheaper than reading
+ * the system clock, at the cost of a coarser resolution.
+ * <p>
+ * Used by {@link de.pentagonlp.simplelogging.Logger Logger} if no other clock
+ * is configured.
+ * 
+ * @author PentagonLP
+ * @see CoarseLogClock#getDefault()
+ */
+public class CoarseLogClock implements LogClock {
+
+	/**
+	 * Default resolution of the clock, in milliseconds
+	 */
+	public static final long DEFAULTRESOLUTION = 1;
+
+	/**
+	 * The resolution of the clock, in milliseconds
+	 */
+	private final long resolution;
+	/**
+	 * The cached time, in milliseconds since the epoch
+	 */
+	private volatile long millis;
+	/**
+	 * Whether the background thread should stop
+	 */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates a new {@link CoarseLogClock} with the default resolution of
+	 * {@value #DEFAULTRESOLUTION} ms and starts its background thread.
+	 */
+	public CoarseLogClock() {
+		this(DEFAULTRESOLUTION);
+	}
+
+	/**
+	 * Creates a new {@link CoarseLogClock} and starts its background thread.
+	 * 
+	 * @param resolution the resolution of the clock, in milliseconds
+	 * @throws IllegalArgumentException if {@code resolution} is not positive
+	 */
+	public CoarseLogClock(long resolution) {
+		if (resolution <= 0)
+			throw new IllegalArgumentException("Resolution must be positive!");
+		this.resolution = resolution;
+		this.millis = System.currentTimeMillis();
+
+		Thread ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, "CoarseLogClock");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/**
+	 * Get the default {@link CoarseLogClock}, shared by all
+	 * {@link de.pentagonlp.simplelogging.Logger Loggers}. It is created, and its
+	 * background thread started, on the first call.
+	 * 
+	 * @return the default {@link CoarseLogClock}
+	 */
+	public static CoarseLogClock getDefault() {
+		return DefaultHolder.DEFAULT;
+	}
+
+	/**
+	 * Get the cached time
+	 * 
+	 * @return the cached time, in nanoseconds since the epoch
+	 */
+	@Override
+	public long currentTimeNanos() {
+		return millis * 1_000_000L;
+	}
+
+	/**
+	 * Get the cached time
+	 * 
+	 * @return the cached time, in milliseconds since the epoch
+	 */
+	@Override
+	public long currentTimeMillis() {
+		return millis;
+	}
+
+	/**
+	 * Get the resolution of the clock
+	 * 
+	 * @return the resolution of the clock, in milliseconds
+	 */
+	public long getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Stop the background thread. The clock keeps returning the last cached time
+	 * afterwards.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Main loop of the background thread: update the cached time every
+	 * {@link CoarseLogClock#resolution} milliseconds.
+	 */
+	private void tick() {
+		while (!stopped) {
+			millis = System.currentTimeMillis();
+			try {
+				Thread.sleep(resolution);
+			} catch (InterruptedException e) {
+				// Nevermind, just tick earlier
+			}
+		}
+	}
+
+	/**
+	 * Holder of the default {@link CoarseLogClock}, so it is only created when it
+	 * is used.
+	 */
+	private static class DefaultHolder {
+
+		/**
+		 * The default {@link CoarseLogClock}
+		 */
+		private static final CoarseLogClock DEFAULT = new CoarseLogClock();
+
+	}
+
+}
@@ -0,0 +1,58 @@
+package de.pentagonlp.simplelogging.clock;
+
+import de.pentagonlp.simplelogging.LogClock;
+
+/**
+ * {@link LogClock} always returning the same time, until it is changed by
+ * {@link FixedLogClock#setTimeMillis(long)}. Useful for tests, where the
+ * formatted output must not depend on the time.
+ * 
+ * @author PentagonLP
+ */
+public class FixedLogClock implements LogClock {
+
+	/**
+	 * The time returned by the clock, in nanoseconds since the epoch
+	 */
+	private volatile long nanos;
+
+	/**
+	 * Creates a new {@link FixedLogClock} returning a given time.
+	 * 
+	 * @param millis the time returned by the clock, in milliseconds since the
+	 *               epoch
+	 */
+	public FixedLogClock(long millis) {
+		setTimeMillis(millis);
+	}
+
+	/**
+	 * Get the fixed time
+	 * 
+	 * @return the fixed time, in nanoseconds since the epoch
+	 */
+	@Override
+	public long currentTimeNanos() {
+		return nanos;
+	}
+
+	/**
+	 * Set the time returned by the clock.
+	 * 
+	 * @param millis the time returned by the clock, in milliseconds since the
+	 *               epoch
+	 */
+	public synchronized void setTimeMillis(long millis) {
+		this.nanos = millis * 1_000_000L;
+	}
+
+	/**
+	 * Move the time returned by the clock forward.
+	 * 
+	 * @param millis the number of milliseconds to move the time forward by
+	 */
+	public synchronized void advanceMillis(long millis) {
+		this.nanos += millis * 1_000_000L;
+	}
+
+}
@@ -0,0 +1,38 @@
+package de.pentagonlp.simplelogging.clock;
+
+import java.time.Instant;
+
+import de.pentagonlp.simplelogging.LogClock;
+
+/**
+ * {@link LogClock} reading the system clock on every call, using
+ * {@link Instant#now()}. Gives the finest resolution the system clock offers,
+ * but is more expensive than the {@link CoarseLogClock}.
+ * 
+ * @author PentagonLP
+ */
+public class PreciseLogClock implements LogClock {
+
+	/**
+	 * Get the current time of the system clock, in nanoseconds since the epoch
+	 * 
+	 * @return the current time, in nanoseconds since the epoch
+	 */
+	@Override
+	public long currentTimeNanos() {
+		Instant now = Instant.now();
+		return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+	}
+
+	/**
+	 * Get the current time of the system clock, using
+	 * {@link System#currentTimeMillis()}
+	 * 
+	 * @return the current time, in milliseconds since the epoch
+	 */
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+}
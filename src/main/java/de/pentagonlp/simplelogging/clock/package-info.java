@@ -0,0 +1,7 @@
+/**
+ * This package houses some {@link de.pentagonlp.simplelogging.LogClock
+ * LogClocks} implemented in the logging api by default.
+ * 
+ * @author PentagonLP
+ */
+package de.pentagonlp.simplelogging.clock;
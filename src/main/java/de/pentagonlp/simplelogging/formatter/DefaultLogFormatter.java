@@ -1,12 +1,11 @@
 package de.pentagonlp.simplelogging.formatter;
 
-import java.util.Calendar;
-
 import de.pentagonlp.simplelogging.Level;
 import de.pentagonlp.simplelogging.Log;
 import de.pentagonlp.simplelogging.LogFormatter;
 import de.pentagonlp.simplelogging.LogInfo;
 import de.pentagonlp.simplelogging.ansi.AnsiColor;
+import de.pentagonlp.simplelogging.tools.CachedDateFormatter;
 import de.pentagonlp.simplelogging.tools.DateformatterStorage;
 
 /**
@@ -17,6 +16,36 @@ import de.pentagonlp.simplelogging.tools.DateformatterStorage;
  */
 public class DefaultLogFormatter implements LogFormatter {
 
+	/**
+	 * {@link CachedDateFormatter} for the timestamp, in the format of
+	 * {@link DateformatterStorage#DATEWITHDOTHOURMINUTESECONDWITHCOLON24}
+	 */
+	private static final CachedDateFormatter DATEFORMATTER = new CachedDateFormatter(
+			DateformatterStorage.DATEWITHDOTHOURMINUTESECONDWITHCOLON24.toPattern());
+	/**
+	 * The message of the sandbox warning
+	 * 
+	 * @see DefaultLogFormatter#getSandboxWarning(boolean)
+	 */
+	private static final String SANDBOXWARNING = "The last logged action didn't go through, because we are in sandbox mode.";
+
+	/**
+	 * Whether messages of a {@link Level} are only printed in debug mode, indexed
+	 * by {@link Level#getOrdinal()}. Rebuilt when a new {@link Level} is created.
+	 */
+	private static volatile boolean[] debugonly = new boolean[0];
+
+	/**
+	 * {@link StringBuilder} of each thread to format the messages in, reused so
+	 * only the formatted {@link String} itself is allocated per message
+	 */
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
 	/**
 	 * Format a logged message given by a {@link LogInfo} object in the default
 	 * format.
@@ -32,23 +61,73 @@ public class DefaultLogFormatter implements LogFormatter {
 	@Override
 	public String format(LogInfo info, boolean isAnsi) {
 		// Debug messages are only printed if the program runs in debug mode
-		if (!Log.isDebugmode() && info.getLevel().getName().equals("DEBUG"))
+		if (!isFormatted(info.getLevel()))
 			return null;
 
-		Calendar cal = Calendar.getInstance();
-		if (isAnsi)
+		String date = DATEFORMATTER.format(info.getTimestamp());
+		StringBuilder sb = BUILDER.get();
+		sb.setLength(0);
+		if (isAnsi) {
 			// Message with ansi formatting
-			return AnsiColor.WHITE + "["
-					+ DateformatterStorage.DATEWITHDOTHOURMINUTESECONDWITHCOLON24.format(cal.getTime()) + " - "
-					+ info.getLevel().getColoredName() + AnsiColor.WHITE + "] > " + info.getLevel().getColor()
-					+ replaceIfNotNull(info.getClassname(),
-							AnsiColor.ITALIC + info.getClassname() + AnsiColor.ITALIC_OFF + ": ")
-					+ info.getMsg() + AnsiColor.WHITE;
-		else
+			sb.append(AnsiColor.WHITE).append('[').append(date).append(" - ").append(info.getLevel().getColor())
+					.append(info.getLevel().getName()).append(AnsiColor.WHITE).append("] > ")
+					.append(info.getLevel().getColor());
+			if (info.getClassname() != null)
+				sb.append(AnsiColor.ITALIC).append(info.getClassname()).append(AnsiColor.ITALIC_OFF).append(": ");
+			sb.append(info.getMsg());
+			if (info.getLocation() != null)
+				sb.append(AnsiColor.WHITE).append(" @ ").append(AnsiColor.ITALIC).append(info.getLocation())
+						.append(AnsiColor.ITALIC_OFF);
+			sb.append(AnsiColor.WHITE);
+		} else {
 			// Message without ansi formatting
-			return "[" + DateformatterStorage.DATEWITHDOTHOURMINUTESECONDWITHCOLON24.format(cal.getTime()) + " - "
-					+ info.getLevel().getName() + "] > "
-					+ replaceIfNotNull(info.getClassname(), info.getClassname() + ": ") + info.getMsg();
+			sb.append('[').append(date).append(" - ").append(info.getLevel().getName()).append("] > ");
+			if (info.getClassname() != null)
+				sb.append(info.getClassname()).append(": ");
+			sb.append(info.getMsg());
+			if (info.getLocation() != null)
+				sb.append(" @ ").append(info.getLocation());
+		}
+		String formatted = sb.toString();
+		// Nevermind huge messages, do not keep their buffer forever
+		if (sb.capacity() > 64 * 1024)
+			BUILDER.remove();
+		return formatted;
+	}
+
+	/**
+	 * Get whether messages of a {@link Level} are currently formatted. Messages of
+	 * {@link Level Levels} named {@code DEBUG} are only formatted in debug mode.
+	 * 
+	 * @param level the {@link Level}
+	 * @return {@code true} if messages of the {@link Level} are formatted,
+	 *         {@code false} if they are dropped
+	 */
+	@Override
+	public boolean isFormatted(Level level) {
+		return Log.isDebugmode() || !isDebugOnly(level);
+	}
+
+	/**
+	 * Get whether messages of a {@link Level} are only printed in debug mode,
+	 * which is the case for all {@link Level Levels} named {@code DEBUG}
+	 * 
+	 * @param level the {@link Level}
+	 * @return {@code true} if only printed in debug mode, {@code false} if always
+	 *         printed
+	 */
+	private static boolean isDebugOnly(Level level) {
+		boolean[] debugonly = DefaultLogFormatter.debugonly;
+		int ordinal = level.getOrdinal();
+		if (ordinal >= debugonly.length) {
+			// Nevermind the race, every thread builds the same array
+			Level[] levels = Level.getLevels();
+			debugonly = new boolean[levels.length];
+			for (Level registered : levels)
+				debugonly[registered.getOrdinal()] = registered.getName().equals("DEBUG");
+			DefaultLogFormatter.debugonly = debugonly;
+		}
+		return debugonly[ordinal];
 	}
 
 	/**
@@ -61,8 +140,13 @@ public class DefaultLogFormatter implements LogFormatter {
 	 */
 	@Override
 	public String getSandboxWarning(boolean isAnsi) {
-		return format(new LogInfo("The last logged action didn't go through, because we are in sandbox mode.",
-				Level.WARNING, "Logger"), isAnsi);
+		LogInfo info = LogInfo.obtain(SANDBOXWARNING, Level.WARNING, "Logger", null, null,
+				System.currentTimeMillis() * 1_000_000L);
+		try {
+			return format(info, isAnsi);
+		} finally {
+			info.release();
+		}
 	}
 
 	/**
@@ -110,23 +194,4 @@ public class DefaultLogFormatter implements LogFormatter {
 					isAnsi);
 	}
 
-	/**
-	 * Replace a {@link String} with another {@link String} if the {@link String} to
-	 * replace is not {@code null}
-	 * 
-	 * @param stringtotest      the {@link String} to replace. If {@code null}, an
-	 *                          empty {@link String} is returned. If not
-	 *                          {@code null}, {@code replacementstring} is returned.
-	 * @param replacementstring the {@link String} returned if {@code stringtotest}
-	 *                          is not null
-	 * @return If {@code stringtotest} is {@code null}, an empty {@link String} is
-	 *         returned. If {@code stringtotest} is not {@code null},
-	 *         {@code replacementstring} is returned.
-	 */
-	private static String replaceIfNotNull(String stringtotest, String replacementstring) {
-		if (stringtotest == null)
-			return "";
-		return replacementstring;
-	}
-
 }
@@ -1,9 +1,11 @@
 package de.pentagonlp.simplelogging.formatter;
 
-import java.util.Calendar;
+import java.util.ArrayList;
 
+import de.pentagonlp.simplelogging.Level;
 import de.pentagonlp.simplelogging.LogInfo;
 import de.pentagonlp.simplelogging.ansi.AnsiColor;
+import de.pentagonlp.simplelogging.tools.CachedDateFormatter;
 import de.pentagonlp.simplelogging.tools.DateformatterStorage;
 
 /**
@@ -32,6 +34,79 @@ public class StringLogFormatter extends DefaultLogFormatter {
 	 */
 	public static final String DEFAULTFORMAT = "%ansi:WHITE%[%date%|%time% - %levelcolor%%level%%ansi:WHITE%] > %levelcolor%%ansi:ITALIC%%classname%%ansi:ITALIC_OFF%: %msg%%ansi:WHITE%";
 
+	/**
+	 * Prefix of the name of a {@code %ctx:key%} variable
+	 */
+	private static final String CONTEXTPREFIX = "ctx:";
+	/**
+	 * Prefix of the name of a {@code %ansi:stylename%} variable
+	 */
+	private static final String ANSIPREFIX = "ansi:";
+
+	/**
+	 * Kind of a part of the format: text copied as it is
+	 */
+	private static final int LITERAL = 0;
+	/**
+	 * Kind of a part of the format: {@code %date%}
+	 */
+	private static final int DATE = 1;
+	/**
+	 * Kind of a part of the format: {@code %time%}
+	 */
+	private static final int TIME = 2;
+	/**
+	 * Kind of a part of the format: {@code %classname%}
+	 */
+	private static final int CLASSNAME = 3;
+	/**
+	 * Kind of a part of the format: {@code %level%}
+	 */
+	private static final int LEVEL = 4;
+	/**
+	 * Kind of a part of the format: {@code %levelcolor%}
+	 */
+	private static final int LEVELCOLOR = 5;
+	/**
+	 * Kind of a part of the format: {@code %location%}
+	 */
+	private static final int LOCATION = 6;
+	/**
+	 * Kind of a part of the format: {@code %ctx:key%}
+	 */
+	private static final int CONTEXT = 7;
+	/**
+	 * Kind of a part of the format: {@code %msg%}
+	 */
+	private static final int MSG = 8;
+	/**
+	 * Kind of a part of the format: {@code %ansi:stylename%}
+	 */
+	private static final int ANSI = 9;
+
+	/**
+	 * {@link StringBuilder} of each thread to format the messages in, reused so
+	 * only the formatted {@link String} itself is allocated per message
+	 */
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+	/**
+	 * {@link CachedDateFormatter} for {@code %date%}, in the format of
+	 * {@link DateformatterStorage#DATEWITHDOT}
+	 */
+	private static final CachedDateFormatter DATEFORMATTER = new CachedDateFormatter(
+			DateformatterStorage.DATEWITHDOT.toPattern());
+	/**
+	 * {@link CachedDateFormatter} for {@code %time%}, in the format of
+	 * {@link DateformatterStorage#HOURMINUTESECONDWITHCOLON24}
+	 */
+	private static final CachedDateFormatter TIMEFORMATTER = new CachedDateFormatter(
+			DateformatterStorage.HOURMINUTESECONDWITHCOLON24.toPattern());
+
 	/**
 	 * The format {@link String} used by the {@link StringLogFormatter}
 	 * 
@@ -39,6 +114,17 @@ public class StringLogFormatter extends DefaultLogFormatter {
 	 *      variables that can be used in the format {@link String}.
 	 */
 	private final String format;
+	/**
+	 * The kinds of the parts of the format {@link String}, split once when the
+	 * {@link StringLogFormatter} is created
+	 */
+	private final int[] kinds;
+	/**
+	 * The arguments of the parts of the format {@link String}: the text of a
+	 * literal, the key of a {@code %ctx:key%} variable or the formatting code of
+	 * an {@code %ansi:stylename%} variable, {@code null} for all others
+	 */
+	private final String[] arguments;
 
 	/**
 	 * Creates a {@link StringLogFormatter}.
@@ -54,6 +140,94 @@ public class StringLogFormatter extends DefaultLogFormatter {
 		if (format == null)
 			throw new IllegalArgumentException("Format String can not be null!");
 		this.format = format;
+
+		ArrayList<Integer> kinds = new ArrayList<>();
+		ArrayList<String> arguments = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int position = 0;
+		while (position < format.length()) {
+			int start = format.indexOf('%', position);
+			int end = start < 0 ? -1 : format.indexOf('%', start + 1);
+			if (end < 0) {
+				literal.append(format, position, format.length());
+				break;
+			}
+			literal.append(format, position, start);
+			String name = format.substring(start + 1, end);
+			int kind = variableKind(name);
+			if (kind == LITERAL) {
+				// Not a variable, the closing '%' may open the next one
+				literal.append('%');
+				position = start + 1;
+				continue;
+			}
+			if (literal.length() > 0) {
+				kinds.add(LITERAL);
+				arguments.add(literal.toString());
+				literal.setLength(0);
+			}
+			kinds.add(kind);
+			if (kind == CONTEXT)
+				arguments.add(name.substring(CONTEXTPREFIX.length()));
+			else if (kind == ANSI)
+				arguments.add(ansiColor(name.substring(ANSIPREFIX.length())).toString());
+			else
+				arguments.add(null);
+			position = end + 1;
+		}
+		if (literal.length() > 0) {
+			kinds.add(LITERAL);
+			arguments.add(literal.toString());
+		}
+		this.kinds = new int[kinds.size()];
+		for (int i = 0; i < this.kinds.length; i++)
+			this.kinds[i] = kinds.get(i);
+		this.arguments = arguments.toArray(new String[arguments.size()]);
+	}
+
+	/**
+	 * Get the kind of a variable
+	 * 
+	 * @param name the name of the variable, without the enclosing {@code %}
+	 * @return the kind of the variable, {@link StringLogFormatter#LITERAL} if it is
+	 *         no variable
+	 */
+	private static int variableKind(String name) {
+		switch (name) {
+		case "date":
+			return DATE;
+		case "time":
+			return TIME;
+		case "classname":
+			return CLASSNAME;
+		case "level":
+			return LEVEL;
+		case "levelcolor":
+			return LEVELCOLOR;
+		case "location":
+			return LOCATION;
+		case "msg":
+			return MSG;
+		}
+		if (name.startsWith(CONTEXTPREFIX) && name.length() > CONTEXTPREFIX.length())
+			return CONTEXT;
+		if (name.startsWith(ANSIPREFIX) && ansiColor(name.substring(ANSIPREFIX.length())) != null)
+			return ANSI;
+		return LITERAL;
+	}
+
+	/**
+	 * Get the {@link AnsiColor} with a name
+	 * 
+	 * @param name the name
+	 * @return the {@link AnsiColor}, {@code null} if there is none with that name
+	 */
+	private static AnsiColor ansiColor(String name) {
+		for (AnsiColor color : AnsiColor.values()) {
+			if (color.getName().equals(name))
+				return color;
+		}
+		return null;
 	}
 
 	/**
@@ -62,9 +236,10 @@ public class StringLogFormatter extends DefaultLogFormatter {
 	 * <p>
 	 * The following variable can be used in the format {@link String}:
 	 * <p>
-	 * {@code %date%} - <i>Outputs the current date in a {@code dd.mm.yyyy}
-	 * format</i> <br>
-	 * {@code %time%} - <i>Outputs the current time in a {@code HH:mm:ss} format</i>
+	 * {@code %date%} - <i>Outputs the date the message was logged at in a
+	 * {@code dd.mm.yyyy} format</i> <br>
+	 * {@code %time%} - <i>Outputs the time the message was logged at in a
+	 * {@code HH:mm:ss} format</i>
 	 * <br>
 	 * {@code %level%} - <i>Outputs the name of the log messages'
 	 * {@link org.craftyserver.general.log.Level Level}</i> <br>
@@ -78,6 +253,16 @@ public class StringLogFormatter extends DefaultLogFormatter {
 	 * be logged. If no classname is registered for the class, {@code %classname%}
 	 * will be replaced with an empty {@link String}.</i> <br>
 	 * {@code %msg%} - <i>Outputs the given message to be logged</i> <br>
+	 * {@code %location%} - <i>Outputs the location in the code that called for
+	 * the message to be logged, in a {@code File.java:42 (method)} format. If the
+	 * location was not captured ({@link
+	 * de.pentagonlp.simplelogging.Logger#setIncludelocation(boolean)}),
+	 * {@code %location%} will be replaced with an empty {@link String}.</i> <br>
+	 * {@code %ctx:[key]%} - <i>Outputs the value of a contextual field of the
+	 * thread that called for the message to be logged, e.g. {@code %ctx:request%}
+	 * (See {@link de.pentagonlp.simplelogging.Log#putContext(String, String)}). If
+	 * the field is not set, {@code %ctx:[key]%} will be replaced with an empty
+	 * {@link String}.</i> <br>
 	 * {@code %ansi:[stylename]%} - <i>Only if output supports ansi formatting
 	 * codes: Outputs a specific ansi formatting code, e.g. {@code %ansi:RED%} will
 	 * set the textcolor to red. If ansi formatting codes are not supported,
@@ -94,34 +279,65 @@ public class StringLogFormatter extends DefaultLogFormatter {
 	 */
 	@Override
 	public final String format(LogInfo info, boolean isAnsi) {
-		String result = new String(format);
-		Calendar cal = Calendar.getInstance();
-
-		result = result.replaceAll("%date%", DateformatterStorage.DATEWITHDOT.format(cal.getTime()));
-		result = result.replaceAll("%time%", DateformatterStorage.HOURMINUTESECONDWITHCOLON24.format(cal.getTime()));
-
-		if (info.getClassname() != null)
-			result = result.replaceAll("%classname%", info.getClassname());
-		else
-			result = result.replaceAll("%classname%", "");
-
-		result = result.replaceAll("%level%", info.getLevel().getName());
-
-		if (!isAnsi)
-			result = result.replaceAll("%levelcolor%", "");
-		else
-			result = result.replaceAll("%levelcolor%", info.getLevel().getColor().toString());
-
-		result = result.replaceAll("%msg%", info.getMsg());
-
-		for (AnsiColor color : AnsiColor.values()) {
-			if (isAnsi)
-				result = result.replaceAll("%ansi:" + color.getName() + "%", color.toString());
-			else
-				result = result.replaceAll("%ansi:" + color.getName() + "%", "");
+		StringBuilder sb = BUILDER.get();
+		sb.setLength(0);
+		for (int i = 0; i < kinds.length; i++) {
+			switch (kinds[i]) {
+			case LITERAL:
+				sb.append(arguments[i]);
+				break;
+			case DATE:
+				sb.append(DATEFORMATTER.format(info.getTimestamp()));
+				break;
+			case TIME:
+				sb.append(TIMEFORMATTER.format(info.getTimestamp()));
+				break;
+			case CLASSNAME:
+				if (info.getClassname() != null)
+					sb.append(info.getClassname());
+				break;
+			case LEVEL:
+				sb.append(info.getLevel().getName());
+				break;
+			case LEVELCOLOR:
+				if (isAnsi)
+					sb.append(info.getLevel().getColor());
+				break;
+			case LOCATION:
+				if (info.getLocation() != null)
+					sb.append(info.getLocation());
+				break;
+			case CONTEXT:
+				String value = info.getContext().get(arguments[i]);
+				if (value != null)
+					sb.append(value);
+				break;
+			case MSG:
+				sb.append(info.getMsg());
+				break;
+			case ANSI:
+				if (isAnsi)
+					sb.append(arguments[i]);
+				break;
+			}
 		}
+		String formatted = sb.toString();
+		// Nevermind huge messages, do not keep their buffer forever
+		if (sb.capacity() > 64 * 1024)
+			BUILDER.remove();
+		return formatted;
+	}
 
-		return result;
+	/**
+	 * Get whether messages of a {@link Level} are currently formatted. The
+	 * {@link StringLogFormatter} formats messages of all {@link Level Levels}.
+	 * 
+	 * @param level the {@link Level}
+	 * @return always {@code true}
+	 */
+	@Override
+	public final boolean isFormatted(Level level) {
+		return true;
 	}
 
 }
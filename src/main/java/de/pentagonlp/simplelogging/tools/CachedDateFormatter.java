@@ -0,0 +1,84 @@
+package de.pentagonlp.simplelogging.tools;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Thread safe date formatter for formats with a resolution of a second or
+ * coarser, e.g. {@code dd.MM.yyyy|HH:mm:ss}. The last formatted second is
+ * cached, so formatting many timestamps of the same second only formats the
+ * date once.
+ * 
+ * @author PentagonLP
+ * @see DateformatterStorage
+ */
+public class CachedDateFormatter {
+
+	/**
+	 * The {@link SimpleDateFormat} used on a cache miss. Guarded by its own lock,
+	 * as {@link SimpleDateFormat} is not thread safe.
+	 */
+	private final SimpleDateFormat format;
+	/**
+	 * The last formatted second and its formatted {@link String}
+	 */
+	private volatile CachedSecond cached = new CachedSecond(Long.MIN_VALUE, null);
+
+	/**
+	 * Creates a new {@link CachedDateFormatter}.
+	 * 
+	 * @param pattern the pattern of the format, as used by
+	 *                {@link SimpleDateFormat}. Must not contain fields finer than
+	 *                seconds.
+	 */
+	public CachedDateFormatter(String pattern) {
+		this.format = new SimpleDateFormat(pattern);
+	}
+
+	/**
+	 * Format a timestamp.
+	 * 
+	 * @param millis the timestamp, in milliseconds since the epoch
+	 * @return the formatted timestamp
+	 */
+	public String format(long millis) {
+		long second = Math.floorDiv(millis, 1000);
+		CachedSecond current = cached;
+		if (current.second == second)
+			return current.formatted;
+		String formatted;
+		synchronized (format) {
+			formatted = format.format(new Date(second * 1000));
+		}
+		cached = new CachedSecond(second, formatted);
+		return formatted;
+	}
+
+	/**
+	 * A formatted second.
+	 */
+	private static class CachedSecond {
+
+		/**
+		 * The second, since the epoch
+		 */
+		private final long second;
+		/**
+		 * The formatted second
+		 */
+		private final String formatted;
+
+		/**
+		 * Creates a new {@link CachedSecond}.
+		 * 
+		 * @param second    the second, since the epoch
+		 * @param formatted the formatted second
+		 */
+		private CachedSecond(long second, String formatted) {
+			this.second = second;
+			this.formatted = formatted;
+		}
+
+	}
+
+}
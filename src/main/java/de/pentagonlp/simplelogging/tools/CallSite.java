@@ -0,0 +1,191 @@
+package de.pentagonlp.simplelogging.tools;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.pentagonlp.simplelogging.Log;
+
+/**
+ * A resolved call site, i.e. the location in the code that called for a
+ * message to be logged. Call sites are cached per {@link StackTraceElement}, so
+ * repeated calls from the same line reuse the pre-rendered location
+ * {@link String} and the translated class name instead of building them again.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code CallSite site = StackTrace.getCallerSite(Log.class, Logger.class);}
+ * 
+ * @author PentagonLP
+ * @see StackTrace#getCallerSite(Class...)
+ */
+public final class CallSite {
+
+	/**
+	 * Maximum number of call sites kept in the cache. If exceeded, the cache is
+	 * cleared and filled up again, so generated classes can not let it grow
+	 * unbounded.
+	 */
+	private static final int MAXCACHEDCALLSITES = 4096;
+
+	/**
+	 * Cache of all resolved {@link CallSite CallSites}, keyed by the
+	 * {@link StackTraceElement} they were resolved from
+	 */
+	private static final ConcurrentHashMap<StackTraceElement, CallSite> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * {@link Class#getName()} of the calling class
+	 */
+	private final String classpath;
+	/**
+	 * Name of the calling method
+	 */
+	private final String methodname;
+	/**
+	 * Name of the source file of the call, {@code null} if unknown
+	 */
+	private final String filename;
+	/**
+	 * Line number of the call, negative if unknown
+	 */
+	private final int linenumber;
+	/**
+	 * The pre-rendered location, in a {@code File.java:42 (method)} format
+	 */
+	private final String location;
+
+	/**
+	 * The translated class name, as returned by {@link Log#getClassName(String)}
+	 * when this {@link CallSite} was last asked for it
+	 */
+	private volatile String classname;
+	/**
+	 * The {@link Log#getClassTranslationsVersion()} {@link CallSite#classname} was
+	 * translated at, {@code -1} if it was not translated yet
+	 */
+	private volatile int classnameversion = -1;
+
+	/**
+	 * Creates a new {@link CallSite} from a {@link StackTraceElement}.
+	 * 
+	 * @param ste the {@link StackTraceElement} to read the call site from
+	 */
+	private CallSite(StackTraceElement ste) {
+		this.classpath = ste.getClassName();
+		this.methodname = ste.getMethodName();
+		this.filename = ste.getFileName();
+		this.linenumber = ste.getLineNumber();
+
+		StringBuilder sb = new StringBuilder();
+		if (filename != null) {
+			sb.append(filename);
+			if (linenumber >= 0)
+				sb.append(':').append(linenumber);
+		} else
+			sb.append("Unknown Source");
+		sb.append(" (").append(methodname).append(')');
+		this.location = sb.toString();
+	}
+
+	/**
+	 * Get the cached {@link CallSite} for a {@link StackTraceElement}, resolving
+	 * and caching it first if needed.
+	 * 
+	 * @param ste the {@link StackTraceElement} to get the {@link CallSite} for
+	 * @return the {@link CallSite}, {@code null} if {@code ste} is {@code null}
+	 */
+	public static CallSite of(StackTraceElement ste) {
+		if (ste == null)
+			return null;
+		CallSite site = CACHE.get(ste);
+		if (site == null) {
+			if (CACHE.size() >= MAXCACHEDCALLSITES)
+				CACHE.clear();
+			site = new CallSite(ste);
+			CallSite previous = CACHE.putIfAbsent(ste, site);
+			if (previous != null)
+				site = previous;
+		}
+		return site;
+	}
+
+	/**
+	 * Clear the cache of resolved {@link CallSite CallSites}.
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Get the {@link Class#getName()} of the calling class
+	 * 
+	 * @return the {@link Class#getName()} of the calling class
+	 */
+	public String getClasspath() {
+		return classpath;
+	}
+
+	/**
+	 * Get the translated name of the calling class, as returned by
+	 * {@link Log#getClassName(String)}. The translation is cached until a class
+	 * name is registered or removed in {@link Log}.
+	 * 
+	 * @return the translated name of the calling class, {@code null} if no
+	 *         translation is registered
+	 */
+	public String getClassname() {
+		int version = Log.getClassTranslationsVersion();
+		if (classnameversion != version) {
+			classname = Log.getClassName(classpath);
+			classnameversion = version;
+		}
+		return classname;
+	}
+
+	/**
+	 * Get the name of the calling method
+	 * 
+	 * @return the name of the calling method
+	 */
+	public String getMethodname() {
+		return methodname;
+	}
+
+	/**
+	 * Get the name of the source file of the call
+	 * 
+	 * @return the name of the source file, {@code null} if unknown
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Get the line number of the call
+	 * 
+	 * @return the line number, negative if unknown
+	 */
+	public int getLinenumber() {
+		return linenumber;
+	}
+
+	/**
+	 * Get the pre-rendered location of the call, in a {@code File.java:42 (method)}
+	 * format
+	 * 
+	 * @return the pre-rendered location of the call
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Get the pre-rendered location of the call.
+	 * 
+	 * @return the pre-rendered location of the call
+	 * @see CallSite#getLocation()
+	 */
+	@Override
+	public String toString() {
+		return location;
+	}
+
+}
@@ -0,0 +1,76 @@
+package de.pentagonlp.simplelogging.tools;
+
+import java.util.Arrays;
+
+/**
+ * Formatting of parameterized messages. Every {@code {}} in a template is
+ * replaced by the next argument, additional arguments are ignored and
+ * placeholders without an argument are kept.
+ * <p>
+ * <b>Example:</b> <br>
+ * {@code MessageTemplate.format("Processed {} items in {} ms", new Object[] { 42, 7 });}
+ * <i>(returns {@code "Processed 42 items in 7 ms"})</i>
+ * 
+ * @author PentagonLP
+ * @see de.pentagonlp.simplelogging.Logger#logTemplate(de.pentagonlp.simplelogging.Level,
+ *      String, Object...) Logger.logTemplate(Level, String, Object...)
+ */
+public final class MessageTemplate {
+
+	/**
+	 * The placeholder replaced by an argument
+	 */
+	public static final String PLACEHOLDER = "{}";
+
+	/**
+	 * Utility class, not to be instantiated
+	 */
+	private MessageTemplate() {
+	}
+
+	/**
+	 * Replace the placeholders of a template by the arguments
+	 * 
+	 * @param template the template
+	 * @param args     the arguments, {@code null} for none
+	 * @return the formatted message, {@code "null"} if {@code template} is
+	 *         {@code null}
+	 */
+	public static String format(String template, Object[] args) {
+		if (template == null)
+			return "null";
+		if (args == null || args.length == 0)
+			return template;
+		StringBuilder builder = new StringBuilder(template.length() + 16 * args.length);
+		int start = 0;
+		for (Object arg : args) {
+			int placeholder = template.indexOf(PLACEHOLDER, start);
+			if (placeholder < 0)
+				break;
+			builder.append(template, start, placeholder);
+			builder.append(render(arg));
+			start = placeholder + PLACEHOLDER.length();
+		}
+		builder.append(template, start, template.length());
+		return builder.toString();
+	}
+
+	/**
+	 * Render an argument. Arrays are rendered with their elements.
+	 * 
+	 * @param arg the argument
+	 * @return the rendered argument
+	 */
+	public static String render(Object arg) {
+		if (arg instanceof Object[])
+			return Arrays.deepToString((Object[]) arg);
+		if (arg instanceof int[])
+			return Arrays.toString((int[]) arg);
+		if (arg instanceof long[])
+			return Arrays.toString((long[]) arg);
+		if (arg instanceof double[])
+			return Arrays.toString((double[]) arg);
+		return String.valueOf(arg);
+	}
+
+}
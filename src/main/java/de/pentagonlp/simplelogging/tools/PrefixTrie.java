@@ -0,0 +1,191 @@
+package de.pentagonlp.simplelogging.tools;
+
+import java.util.HashMap;
+
+/**
+ * Trie mapping prefixes of class names to values. Class names are split into
+ * segments at every {@code .} and {@code $}, so a prefix only matches whole
+ * package, class or nested class names: {@code com.example} matches
+ * {@code com.example.Foo} and {@code com.example.Foo$1}, but not
+ * {@code com.examples.Foo}.
+ * <p>
+ * <b>Example:</b> <br>
+ * {@code trie.put("com.example", "Example");} <br>
+ * {@code trie.getLongestPrefixMatch("com.example.db.Connection$1");} <i>(returns
+ * {@code "Example"})</i>
+ * 
+ * @param <V> the type of the values stored in the trie
+ * @author PentagonLP
+ */
+public class PrefixTrie<V> {
+
+	/**
+	 * The root node, representing the empty prefix
+	 */
+	private final Node<V> root = new Node<>();
+	/**
+	 * Number of prefixes stored in the trie
+	 */
+	private int size = 0;
+
+	/**
+	 * Store a value for a prefix. An existing value for the same prefix is
+	 * replaced.
+	 * 
+	 * @param prefix the prefix, e.g. a package name or class name
+	 * @param value  the value to store for the prefix
+	 * @throws IllegalArgumentException if {@code prefix} or {@code value} is
+	 *                                  {@code null}
+	 */
+	public synchronized void put(String prefix, V value) {
+		if (prefix == null)
+			throw new IllegalArgumentException("Prefix can not be null!");
+		if (value == null)
+			throw new IllegalArgumentException("Value can not be null!");
+		Node<V> node = root;
+		int start = 0;
+		while (start < prefix.length()) {
+			int end = nextSeparator(prefix, start);
+			String segment = prefix.substring(start, end);
+			Node<V> child = node.children.get(segment);
+			if (child == null) {
+				child = new Node<>();
+				node.children.put(segment, child);
+			}
+			node = child;
+			start = end + 1;
+		}
+		if (node.value == null)
+			size++;
+		node.value = value;
+	}
+
+	/**
+	 * Remove the value stored for a prefix. Values of longer or shorter prefixes
+	 * are not affected.
+	 * 
+	 * @param prefix the prefix to remove the value of
+	 * @return the removed value, {@code null} if no value was stored for the prefix
+	 */
+	public synchronized V remove(String prefix) {
+		if (prefix == null)
+			return null;
+		Node<V> node = find(prefix);
+		if (node == null || node.value == null)
+			return null;
+		V value = node.value;
+		node.value = null;
+		size--;
+		return value;
+	}
+
+	/**
+	 * Get the value stored for exactly the given prefix.
+	 * 
+	 * @param prefix the prefix to get the value of
+	 * @return the value, {@code null} if no value is stored for the prefix
+	 */
+	public synchronized V get(String prefix) {
+		if (prefix == null)
+			return null;
+		Node<V> node = find(prefix);
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * Get the value of the longest stored prefix matching the given class name.
+	 * 
+	 * @param classname the class name to look up, e.g. {@link Class#getName()}
+	 * @return the value of the longest matching prefix, {@code null} if no stored
+	 *         prefix matches
+	 */
+	public synchronized V getLongestPrefixMatch(String classname) {
+		if (classname == null)
+			return null;
+		Node<V> node = root;
+		V match = root.value;
+		int start = 0;
+		while (start < classname.length()) {
+			int end = nextSeparator(classname, start);
+			node = node.children.get(classname.substring(start, end));
+			if (node == null)
+				break;
+			if (node.value != null)
+				match = node.value;
+			start = end + 1;
+		}
+		return match;
+	}
+
+	/**
+	 * Get the number of prefixes stored in the trie
+	 * 
+	 * @return the number of prefixes stored in the trie
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all prefixes from the trie.
+	 */
+	public synchronized void clear() {
+		root.children.clear();
+		root.value = null;
+		size = 0;
+	}
+
+	/**
+	 * Find the node of a prefix.
+	 * 
+	 * @param prefix the prefix to find the node of
+	 * @return the node, {@code null} if the trie contains no such node
+	 */
+	private Node<V> find(String prefix) {
+		Node<V> node = root;
+		int start = 0;
+		while (node != null && start < prefix.length()) {
+			int end = nextSeparator(prefix, start);
+			node = node.children.get(prefix.substring(start, end));
+			start = end + 1;
+		}
+		return node;
+	}
+
+	/**
+	 * Get the index of the next segment separator ({@code .} or {@code $}) in a
+	 * class name.
+	 * 
+	 * @param name  the class name
+	 * @param start the index to start searching at
+	 * @return the index of the next separator, the length of {@code name} if there
+	 *         is none
+	 */
+	private static int nextSeparator(String name, int start) {
+		for (int i = start; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '.' || c == '$')
+				return i;
+		}
+		return name.length();
+	}
+
+	/**
+	 * A node of the trie, representing one segment of a prefix.
+	 * 
+	 * @param <V> the type of the value stored in the node
+	 */
+	private static class Node<V> {
+
+		/**
+		 * The child nodes, keyed by their segment
+		 */
+		private final HashMap<String, Node<V>> children = new HashMap<>(4);
+		/**
+		 * The value stored for the prefix ending at this node, {@code null} if none
+		 */
+		private V value;
+
+	}
+
+}
@@ -1,13 +1,73 @@
 package de.pentagonlp.simplelogging.tools;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
 /**
  * Class of {@code static} methods to access the method stack.
+ * <p>
+ * On Java 9 and later, the caller is found using {@code java.lang.StackWalker},
+ * which only inspects the frames up to the caller instead of capturing the
+ * whole stack. On Java 8, the stack of a new {@link Exception} is used.
  * 
  * @author PentagonLP
  */
-// TODO seams a bit buggy sometimes: Only some classes seam to work? Might also have something to do with Log.registerClassName().
 public class StackTrace {
 
+	/**
+	 * Number of frames fetched by {@code java.lang.StackWalker} at once, enough to
+	 * reach the caller of the logging api in one batch
+	 */
+	private static final int WALKDEPTH = 16;
+	/**
+	 * {@code StackWalker.walk(Function)}, bound to a {@code StackWalker}
+	 * fetching {@link StackTrace#WALKDEPTH} frames at once, {@code null} if not
+	 * available
+	 */
+	private static final MethodHandle WALK;
+	/**
+	 * {@code StackWalker.StackFrame.getClassName()}, {@code null} if not available
+	 */
+	private static final MethodHandle FRAMECLASSNAME;
+	/**
+	 * {@code StackWalker.StackFrame.toStackTraceElement()}, {@code null} if not
+	 * available
+	 */
+	private static final MethodHandle FRAMEELEMENT;
+
+	static {
+		MethodHandle walk = null;
+		MethodHandle frameclassname = null;
+		MethodHandle frameelement = null;
+		try {
+			Class<?> walkerclass = Class.forName("java.lang.StackWalker");
+			Class<?> frameclass = Class.forName("java.lang.StackWalker$StackFrame");
+			Object walker = walkerclass.getMethod("getInstance", Set.class, int.class).invoke(null,
+					Collections.emptySet(), WALKDEPTH);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			walk = lookup.unreflect(walkerclass.getMethod("walk", Function.class)).bindTo(walker)
+					.asType(MethodType.methodType(Object.class, Function.class));
+			frameclassname = lookup.unreflect(frameclass.getMethod("getClassName"))
+					.asType(MethodType.methodType(String.class, Object.class));
+			frameelement = lookup.unreflect(frameclass.getMethod("toStackTraceElement"))
+					.asType(MethodType.methodType(StackTraceElement.class, Object.class));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Nevermind, Java 8: capture the whole stack instead
+			walk = null;
+			frameclassname = null;
+			frameelement = null;
+		}
+		WALK = walk;
+		FRAMECLASSNAME = frameclassname;
+		FRAMEELEMENT = frameelement;
+	}
+
 	/**
 	 * Get the current method stack
 	 * 
@@ -34,4 +94,103 @@ public class StackTrace {
 		return null;
 	}
 
+	/**
+	 * Get the first call of a method outside of the given classes, after at least
+	 * one call of a method of the given classes. This is the caller of the
+	 * outermost of the given classes on the stack, e.g. the code that called
+	 * {@link de.pentagonlp.simplelogging.Log Log}. Nested and anonymous classes of
+	 * the given classes count as part of them.
+	 * 
+	 * @param classes the classes to get the caller of
+	 * @return the {@link StackTraceElement} of the caller, {@code null} if none of
+	 *         the given classes is on the stack or they were not called from
+	 *         outside
+	 */
+	public static StackTraceElement getCaller(Class<?>... classes) {
+		if (WALK != null) {
+			try {
+				return walkToCaller(classes);
+			} catch (Throwable e) {
+				// Nevermind, capture the whole stack instead
+			}
+		}
+		boolean inside = false;
+		for (StackTraceElement ste : getStack()) {
+			if (isOneOf(ste.getClassName(), classes))
+				inside = true;
+			else if (inside)
+				return ste;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the first call of a method outside of the given classes, after at least
+	 * one call of a method of the given classes, using
+	 * {@code java.lang.StackWalker}. Only the frames up to the caller are
+	 * inspected, and only the frame of the caller is turned into a
+	 * {@link StackTraceElement}.
+	 * 
+	 * @param classes the classes to get the caller of
+	 * @return the {@link StackTraceElement} of the caller, {@code null} if none of
+	 *         the given classes is on the stack or they were not called from
+	 *         outside
+	 * @throws Throwable if the stack can not be walked
+	 * @see StackTrace#getCaller(Class...)
+	 */
+	private static StackTraceElement walkToCaller(final Class<?>[] classes) throws Throwable {
+		Function<Stream<?>, StackTraceElement> tocaller = new Function<Stream<?>, StackTraceElement>() {
+			@Override
+			public StackTraceElement apply(Stream<?> frames) {
+				try {
+					boolean inside = false;
+					Iterator<?> iterator = frames.iterator();
+					while (iterator.hasNext()) {
+						Object frame = iterator.next();
+						if (isOneOf((String) FRAMECLASSNAME.invokeExact(frame), classes))
+							inside = true;
+						else if (inside)
+							return (StackTraceElement) FRAMEELEMENT.invokeExact(frame);
+					}
+					return null;
+				} catch (Throwable e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		return (StackTraceElement) (Object) WALK.invokeExact((Function<?, ?>) tocaller);
+	}
+
+	/**
+	 * Get the {@link CallSite} of the first call outside of the given classes. The
+	 * {@link CallSite} is cached, so its rendered location and translated class
+	 * name are only computed on the first call from that site.
+	 * 
+	 * @param classes the classes to get the caller of
+	 * @return the {@link CallSite} of the caller, {@code null} if none of the given
+	 *         classes is on the stack or they were not called from outside
+	 * @see StackTrace#getCaller(Class...)
+	 */
+	public static CallSite getCallerSite(Class<?>... classes) {
+		return CallSite.of(getCaller(classes));
+	}
+
+	/**
+	 * Check whether a class name belongs to one of the given classes, including
+	 * their nested and anonymous classes.
+	 * 
+	 * @param classname the {@link Class#getName()} to check
+	 * @param classes   the classes to check against
+	 * @return {@code true} if the class name belongs to one of the given classes
+	 */
+	private static boolean isOneOf(String classname, Class<?>[] classes) {
+		for (Class<?> c : classes) {
+			String name = c.getName();
+			if (classname.startsWith(name)
+					&& (classname.length() == name.length() || classname.charAt(name.length()) == '$'))
+				return true;
+		}
+		return false;
+	}
+
 }
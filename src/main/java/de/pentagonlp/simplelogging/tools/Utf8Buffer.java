@@ -0,0 +1,245 @@
+package de.pentagonlp.simplelogging.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable byte buffer encoding {@link String Strings} to UTF-8 directly, used
+ * by writers to get a message onto their output without a
+ * {@link java.nio.charset.CharsetEncoder CharsetEncoder} and intermediate
+ * buffers per call. Text consisting only of ASCII characters is copied by a
+ * fast path, constant fragments can be encoded once using
+ * {@link Utf8Buffer#encode(String)} and copied as bytes.
+ * <p>
+ * A {@link Utf8Buffer} is not thread safe.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code buffer.reset();} <br>
+ * {@code buffer.append(logtext).append(Utf8Buffer.LINESEPARATOR);} <br>
+ * {@code buffer.writeTo(outputstream);}
+ * 
+ * @author PentagonLP
+ */
+public class Utf8Buffer {
+
+	/**
+	 * The systems' line separator, encoded in UTF-8
+	 */
+	public static final byte[] LINESEPARATOR = encode(System.lineSeparator());
+
+	/**
+	 * Default initial capacity of the buffer, in bytes
+	 */
+	private static final int DEFAULTCAPACITY = 512;
+	/**
+	 * Maximum capacity kept when the buffer is reset. A buffer grown larger by a
+	 * huge message is shrunk back to its initial capacity, so it does not hold on
+	 * to the memory.
+	 */
+	private static final int MAXRETAINEDCAPACITY = 64 * 1024;
+	/**
+	 * Byte written for an unpaired surrogate, like the replacement of
+	 * {@link String#getBytes(java.nio.charset.Charset)}
+	 */
+	private static final byte REPLACEMENT = '?';
+
+	/**
+	 * The initial capacity of the buffer, in bytes
+	 */
+	private final int initialcapacity;
+	/**
+	 * The bytes of the buffer
+	 */
+	private byte[] bytes;
+	/**
+	 * The number of bytes used
+	 */
+	private int size = 0;
+
+	/**
+	 * Creates a new {@link Utf8Buffer} with the default initial capacity.
+	 */
+	public Utf8Buffer() {
+		this(DEFAULTCAPACITY);
+	}
+
+	/**
+	 * Creates a new {@link Utf8Buffer}.
+	 * 
+	 * @param initialcapacity the initial capacity of the buffer, in bytes
+	 */
+	public Utf8Buffer(int initialcapacity) {
+		this.initialcapacity = Math.max(16, initialcapacity);
+		this.bytes = new byte[this.initialcapacity];
+	}
+
+	/**
+	 * Encode a constant fragment to UTF-8 once, so it can be copied using
+	 * {@link Utf8Buffer#append(byte[])} afterwards.
+	 * 
+	 * @param fragment the fragment to encode
+	 * @return the fragment, encoded in UTF-8
+	 */
+	public static byte[] encode(String fragment) {
+		return fragment.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Append a {@link String}, encoded in UTF-8.
+	 * 
+	 * @param text the {@link String} to append. If {@code null}, {@code "null"} is
+	 *             appended.
+	 * @return this {@link Utf8Buffer}
+	 */
+	public Utf8Buffer append(String text) {
+		if (text == null)
+			text = "null";
+		int length = text.length();
+		ensureCapacity(size + length);
+
+		// Fast path: ASCII characters are copied as they are
+		int i = 0;
+		byte[] b = bytes;
+		int position = size;
+		for (; i < length; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80)
+				break;
+			b[position++] = (byte) c;
+		}
+		size = position;
+		if (i < length)
+			appendNonAscii(text, i);
+		return this;
+	}
+
+	/**
+	 * Append pre-encoded bytes.
+	 * 
+	 * @param fragment the bytes to append
+	 * @return this {@link Utf8Buffer}
+	 * @see Utf8Buffer#encode(String)
+	 */
+	public Utf8Buffer append(byte[] fragment) {
+		ensureCapacity(size + fragment.length);
+		System.arraycopy(fragment, 0, bytes, size, fragment.length);
+		size += fragment.length;
+		return this;
+	}
+
+	/**
+	 * Append a single ASCII character.
+	 * 
+	 * @param c the character to append, must be below {@code 0x80}
+	 * @return this {@link Utf8Buffer}
+	 */
+	public Utf8Buffer appendAscii(char c) {
+		ensureCapacity(size + 1);
+		bytes[size++] = (byte) c;
+		return this;
+	}
+
+	/**
+	 * Write the content of the buffer to an {@link OutputStream}, in a single call
+	 * of {@link OutputStream#write(byte[], int, int)}.
+	 * 
+	 * @param out the {@link OutputStream} to write to
+	 * @throws IOException if writing fails
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, size);
+	}
+
+	/**
+	 * Empty the buffer, to reuse it for the next message.
+	 */
+	public void reset() {
+		size = 0;
+		if (bytes.length > MAXRETAINEDCAPACITY)
+			bytes = new byte[initialcapacity];
+	}
+
+	/**
+	 * Get the number of bytes in the buffer
+	 * 
+	 * @return the number of bytes in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the array backing the buffer. Only the first {@link Utf8Buffer#size()}
+	 * bytes are used, and the array is replaced when the buffer grows.
+	 * 
+	 * @return the array backing the buffer
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	/**
+	 * Get a copy of the content of the buffer
+	 * 
+	 * @return a copy of the bytes in the buffer
+	 */
+	public byte[] toByteArray() {
+		byte[] copy = new byte[size];
+		System.arraycopy(bytes, 0, copy, 0, size);
+		return copy;
+	}
+
+	/**
+	 * Append the rest of a {@link String}, starting at the first non ASCII
+	 * character.
+	 * 
+	 * @param text  the {@link String} to append
+	 * @param start the index of the first character to append
+	 */
+	private void appendNonAscii(String text, int start) {
+		int length = text.length();
+		// A char is at most 3 bytes, a surrogate pair (2 chars) is 4 bytes
+		ensureCapacity(size + 3 * (length - start));
+		byte[] b = bytes;
+		int position = size;
+		for (int i = start; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				b[position++] = (byte) c;
+			} else if (c < 0x800) {
+				b[position++] = (byte) (0xC0 | (c >> 6));
+				b[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+					int codepoint = Character.toCodePoint(c, text.charAt(++i));
+					b[position++] = (byte) (0xF0 | (codepoint >> 18));
+					b[position++] = (byte) (0x80 | ((codepoint >> 12) & 0x3F));
+					b[position++] = (byte) (0x80 | ((codepoint >> 6) & 0x3F));
+					b[position++] = (byte) (0x80 | (codepoint & 0x3F));
+				} else
+					b[position++] = REPLACEMENT;
+			} else {
+				b[position++] = (byte) (0xE0 | (c >> 12));
+				b[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		size = position;
+	}
+
+	/**
+	 * Grow the buffer, if needed, so it can hold at least {@code capacity} bytes.
+	 * 
+	 * @param capacity the needed capacity, in bytes
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= bytes.length)
+			return;
+		int newcapacity = Math.max(capacity, bytes.length * 2);
+		byte[] newbytes = new byte[newcapacity];
+		System.arraycopy(bytes, 0, newbytes, 0, size);
+		bytes = newbytes;
+	}
+
+}
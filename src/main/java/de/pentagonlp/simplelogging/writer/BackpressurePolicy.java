@@ -0,0 +1,41 @@
+package de.pentagonlp.simplelogging.writer;
+
+/**
+ * Policies for a {@link QueuedLogWriter} deciding what happens with a new
+ * message if the queue in front of the writer is full. Messages of
+ * {@link de.pentagonlp.simplelogging.Level#ERROR ERROR} and
+ * {@link de.pentagonlp.simplelogging.Level#FATAL FATAL} level, or more severe,
+ * are never dropped: if the policy would drop them, the caller waits for space
+ * instead.
+ * 
+ * @author PentagonLP
+ */
+public enum BackpressurePolicy {
+
+	/**
+	 * The caller waits until there is enough space in the queue.
+	 */
+	BLOCK,
+	/**
+	 * The new message is dropped.
+	 */
+	DROP_NEWEST,
+	/**
+	 * The oldest queued messages are dropped until there is enough space for the
+	 * new message.
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new message is dropped if its {@link de.pentagonlp.simplelogging.Level
+	 * Level} is less severe than the drop level of the {@link QueuedLogWriter}
+	 * ({@link QueuedLogWriter#setDroplevel(de.pentagonlp.simplelogging.Level)}),
+	 * otherwise the caller waits until there is enough space in the queue.
+	 */
+	DROP_BELOW_LEVEL,
+	/**
+	 * The new message is written to the fallback writer of the
+	 * {@link QueuedLogWriter} directly, on the callers' thread.
+	 */
+	SPILL;
+
+}
@@ -0,0 +1,333 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.ansi.AnsiColor;
+import de.pentagonlp.simplelogging.tools.Utf8Buffer;
+
+/**
+ * {@link de.pentagonlp.simplelogging.LogWriter LogWriter} to write logged
+ * messages to the standard output, for high throughput e.g. in containers. In
+ * contrast to {@link SystemoutLogWriter}, messages are not written through the
+ * synchronized and line flushed {@link System#out}, but collected in a buffer
+ * and written directly to {@link FileDescriptor#out}. A plain stream is used,
+ * not an interruptible {@link java.nio.channels.FileChannel FileChannel}, so a
+ * logging thread with its interrupt flag set can not close the standard output.
+ * <p>
+ * The buffer is flushed
+ * <ul>
+ * <li>if it is full,</li>
+ * <li>periodically, every {@link BufferedSystemoutLogWriter#getFlushinterval()}
+ * milliseconds,</li>
+ * <li>after a message of {@link BufferedSystemoutLogWriter#getFlushlevel()} or
+ * more severe is written,</li>
+ * <li>before a {@code StackTrace} is written,</li>
+ * <li>when the writer is closed, e.g. by {@link de.pentagonlp.simplelogging.Log#shutdown()
+ * Log.shutdown()} from the shutdown hook of
+ * {@link de.pentagonlp.simplelogging.Log#setShutdownhook(boolean)
+ * Log.setShutdownhook(boolean)}, and</li>
+ * <li>when the JVM exits, by a single shutdown hook shared by all writers not
+ * closed yet. The writers are only referenced weakly, so unused writers can
+ * still be garbage collected.</li>
+ * </ul>
+ * As {@link System#out} is bypassed, {@link System#setOut(java.io.PrintStream)}
+ * has no effect on this writer. Like {@link SystemoutLogWriter},
+ * {@code StackTraces} are written to {@link System#err}.
+ * 
+ * @author PentagonLP
+ */
+public class BufferedSystemoutLogWriter extends ExceptionOnlyInDebugModeLogWriter {
+
+	/**
+	 * Default size of the buffer, in bytes
+	 */
+	public static final int DEFAULTBUFFERSIZE = 64 * 1024;
+	/**
+	 * Default interval of the periodic flush, in milliseconds
+	 */
+	public static final long DEFAULTFLUSHINTERVAL = 200;
+	/**
+	 * Default {@link Level} flushing the buffer immediately
+	 */
+	private static final Level DEFAULTFLUSHLEVEL = Level.ERROR;
+	/**
+	 * All writers not closed yet, flushed by the shutdown hook. Referenced weakly,
+	 * so the shutdown hook does not keep them from being garbage collected.
+	 */
+	private static final Set<BufferedSystemoutLogWriter> OPENWRITERS = Collections
+			.newSetFromMap(new WeakHashMap<BufferedSystemoutLogWriter, Boolean>());
+	/**
+	 * Whether the shutdown hook flushing {@link BufferedSystemoutLogWriter#OPENWRITERS}
+	 * is registered. Guarded by the lock on
+	 * {@link BufferedSystemoutLogWriter#OPENWRITERS}.
+	 */
+	private static boolean shutdownhook = false;
+
+	/**
+	 * The standard output
+	 */
+	private final FileOutputStream out;
+	/**
+	 * The buffer collecting the encoded messages until they are flushed
+	 */
+	private final ByteBuffer buffer;
+	/**
+	 * Buffer the current message is encoded in before it is copied into
+	 * {@link BufferedSystemoutLogWriter#buffer}
+	 */
+	private final Utf8Buffer encoder = new Utf8Buffer();
+	/**
+	 * Interval of the periodic flush, in milliseconds
+	 */
+	private final long flushinterval;
+	/**
+	 * Messages of this {@link Level} or more severe flush the buffer immediately
+	 */
+	private volatile Level flushlevel = DEFAULTFLUSHLEVEL;
+	/**
+	 * Whether {@link BufferedSystemoutLogWriter#close()} was called
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new {@link BufferedSystemoutLogWriter} with the default buffer size
+	 * and flush interval.
+	 */
+	public BufferedSystemoutLogWriter() {
+		this(DEFAULTBUFFERSIZE, DEFAULTFLUSHINTERVAL);
+	}
+
+	/**
+	 * Creates a new {@link BufferedSystemoutLogWriter} and starts its periodic
+	 * flush.
+	 * 
+	 * @param buffersize    the size of the buffer, in bytes
+	 * @param flushinterval the interval of the periodic flush, in milliseconds. If
+	 *                      not positive, the buffer is not flushed periodically.
+	 * @throws IllegalArgumentException if {@code buffersize} is not positive
+	 */
+	public BufferedSystemoutLogWriter(int buffersize, long flushinterval) {
+		if (buffersize <= 0)
+			throw new IllegalArgumentException("Buffer size must be positive!");
+		this.out = new FileOutputStream(FileDescriptor.out);
+		this.buffer = ByteBuffer.allocate(buffersize);
+		this.flushinterval = flushinterval;
+
+		if (flushinterval > 0) {
+			Thread flusher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					flushPeriodically();
+				}
+			}, "BufferedSystemoutLogWriter");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+		flushOnExit(this);
+	}
+
+	/**
+	 * Flush a writer when the JVM exits, registering the shared shutdown hook if
+	 * needed.
+	 * 
+	 * @param writer the writer to flush
+	 */
+	private static void flushOnExit(BufferedSystemoutLogWriter writer) {
+		synchronized (OPENWRITERS) {
+			OPENWRITERS.add(writer);
+			if (shutdownhook)
+				return;
+			shutdownhook = true;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ArrayList<BufferedSystemoutLogWriter> writers;
+				synchronized (OPENWRITERS) {
+					writers = new ArrayList<>(OPENWRITERS);
+				}
+				for (BufferedSystemoutLogWriter writer : writers)
+					writer.flush();
+			}
+		}, "BufferedSystemoutLogWriter shutdown"));
+	}
+
+	/**
+	 * Write a logged message to the buffer, in a new line.
+	 * 
+	 * @param logtext the message to write, as a {@link String}
+	 */
+	@Override
+	public void write(String logtext) {
+		write(logtext, null);
+	}
+
+	/**
+	 * Write a logged message to the buffer, in a new line. If the {@link Level} is
+	 * {@link BufferedSystemoutLogWriter#getFlushlevel()} or more severe, the
+	 * buffer is flushed immediately.
+	 * 
+	 * @param logtext the message to write, as a {@link String}
+	 * @param level   the {@link Level} of the message
+	 */
+	@Override
+	public void write(String logtext, Level level) {
+		synchronized (buffer) {
+			encoder.reset();
+			encoder.append(logtext).append(Utf8Buffer.LINESEPARATOR);
+			append(encoder);
+			if (closed || (level != null && level.getIntLevel() <= flushlevel.getIntLevel()))
+				flushBuffer();
+		}
+	}
+
+	/**
+	 * Get whether the standard output supports ansi. Determined by calling
+	 * {@link AnsiColor#isSystemOutAnsi()}.
+	 * 
+	 * @return {@code true} if ansi colors are supported, {@code false} if ansi
+	 *         colors are not supported
+	 */
+	@Override
+	public boolean isAnsi() {
+		return AnsiColor.isSystemOutAnsi();
+	}
+
+	/**
+	 * Write all buffered messages to the standard output.
+	 */
+	@Override
+	public void flush() {
+		synchronized (buffer) {
+			flushBuffer();
+		}
+	}
+
+	/**
+	 * Flush the buffer and stop buffering: all messages written afterwards are
+	 * written to the standard output immediately. The standard output itself is
+	 * not closed.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		flush();
+		synchronized (OPENWRITERS) {
+			OPENWRITERS.remove(this);
+		}
+	}
+
+	/**
+	 * Print the {@code StackTrace} of a {@link Throwable} to {@link System#err},
+	 * after {@link ExceptionOnlyInDebugModeLogWriter} has decided its criteria are
+	 * fulfilled. The buffer is flushed first, so the messages written before
+	 * appear before it.
+	 * 
+	 * @param t the {@link Throwable} to print the {@code StackTrace} of
+	 */
+	@Override
+	protected void printStackTraceAfterCheck(Throwable t) {
+		synchronized (buffer) {
+			flushBuffer();
+			t.printStackTrace();
+		}
+	}
+
+	/**
+	 * Get the interval of the periodic flush
+	 * 
+	 * @return the interval of the periodic flush, in milliseconds
+	 */
+	public long getFlushinterval() {
+		return flushinterval;
+	}
+
+	/**
+	 * Get the {@link Level} flushing the buffer immediately
+	 * 
+	 * @return messages of this {@link Level} or more severe flush the buffer
+	 *         immediately
+	 * @see BufferedSystemoutLogWriter#setFlushlevel(Level)
+	 */
+	public Level getFlushlevel() {
+		return flushlevel;
+	}
+
+	/**
+	 * Set the {@link Level} flushing the buffer immediately
+	 * 
+	 * @param flushlevel messages of this {@link Level} or more severe flush the
+	 *                   buffer immediately
+	 * @throws IllegalArgumentException if {@code flushlevel} is {@code null}
+	 */
+	public void setFlushlevel(Level flushlevel) {
+		if (flushlevel == null)
+			throw new IllegalArgumentException("Flush level can not be null!");
+		this.flushlevel = flushlevel;
+	}
+
+	/**
+	 * Copy an encoded message into the buffer, flushing the buffer first if it is
+	 * too full. Messages larger than the buffer are written directly. Must be
+	 * called while holding the lock on {@link BufferedSystemoutLogWriter#buffer}.
+	 * 
+	 * @param encoded the encoded message
+	 */
+	private void append(Utf8Buffer encoded) {
+		if (encoded.size() > buffer.remaining())
+			flushBuffer();
+		if (encoded.size() > buffer.remaining()) {
+			writeFully(encoded.array(), encoded.size());
+			return;
+		}
+		buffer.put(encoded.array(), 0, encoded.size());
+	}
+
+	/**
+	 * Write the buffer to the standard output and empty it. Must be called while
+	 * holding the lock on {@link BufferedSystemoutLogWriter#buffer}.
+	 */
+	private void flushBuffer() {
+		if (buffer.position() == 0)
+			return;
+		writeFully(buffer.array(), buffer.position());
+		buffer.clear();
+	}
+
+	/**
+	 * Write bytes to the standard output.
+	 * 
+	 * @param bytes  the array holding the bytes
+	 * @param length the number of bytes to write, from the start of the array
+	 */
+	private void writeFully(byte[] bytes, int length) {
+		try {
+			out.write(bytes, 0, length);
+		} catch (IOException e) {
+			// Nevermind, the messages are lost
+		}
+	}
+
+	/**
+	 * Main loop of the periodic flush.
+	 */
+	private void flushPeriodically() {
+		while (!closed) {
+			try {
+				Thread.sleep(flushinterval);
+			} catch (InterruptedException e) {
+				// Nevermind, just flush earlier
+			}
+			flush();
+		}
+	}
+
+}
@@ -0,0 +1,413 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.pentagonlp.simplelogging.tools.Utf8Buffer;
+
+/**
+ * {@link de.pentagonlp.simplelogging.LogWriter LogWriter} to write logged
+ * messages to a file using flat combining. Every thread publishes its message
+ * in its own slot, and whichever thread gets the combiner role writes the
+ * messages of all slots in a single call, while the other threads wait for
+ * their message to be written. Without contention, every message is written by
+ * its own thread right away. Under contention, many messages are written with
+ * one system call instead of one each. Waiting threads spin briefly and then
+ * park, the combiner unparks them once their message is written.
+ * <p>
+ * Unlike a {@link QueuedLogWriter}, there is no background thread: a message is
+ * in the file when {@link CombiningFileLogWriter#write(String)} returns. The
+ * order of messages written by different threads at the same time is not
+ * defined, the messages of every single thread keep their order.
+ * <p>
+ * <b>Example:</b> <br>
+ * {@code new Logger(new CombiningFileLogWriter("log.txt"));}
+ * 
+ * @author PentagonLP
+ */
+public class CombiningFileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
+
+	/**
+	 * Default value whether the file supports ansi
+	 */
+	private static final boolean DEFAULTISANSI = true;
+	/**
+	 * Maximum number of passes over the slots by the combiner, picking up messages
+	 * published while it was writing
+	 */
+	private static final int MAXPASSES = 4;
+	/**
+	 * Number of times a waiting thread yields before it parks
+	 */
+	private static final int MAXSPINS = 64;
+	/**
+	 * Maximum time a waiting thread parks before it checks its slot again, in
+	 * nanoseconds. Only a safety net, it is unparked when its message is written.
+	 */
+	private static final long PARKNANOS = 1_000_000;
+	/**
+	 * Minimum time between two attempts to open the file after it could not be
+	 * opened, in milliseconds
+	 */
+	private static final long REOPENINTERVAL = 1000;
+
+	/**
+	 * The filepath of the output file
+	 */
+	private final String filepath;
+	/**
+	 * Whether the file supports ansi
+	 */
+	private final boolean isansi;
+	/**
+	 * The slots of all threads that wrote a message
+	 */
+	private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<>();
+	/**
+	 * The slot of every thread
+	 */
+	private final ThreadLocal<Slot> threadslot = new ThreadLocal<>();
+	/**
+	 * Lock held by the combiner, guarding all fields below
+	 */
+	private final ReentrantLock combinerlock = new ReentrantLock();
+	/**
+	 * Buffer the messages of a batch are encoded in
+	 */
+	private final Utf8Buffer buffer = new Utf8Buffer();
+	/**
+	 * The output file, {@code null} if it could not be opened
+	 */
+	private FileOutputStream fileoutputstream = null;
+	/**
+	 * The {@link System#currentTimeMillis()} of the last attempt to open the file
+	 */
+	private long lastopenattempt = 0;
+	/**
+	 * Whether {@link CombiningFileLogWriter#close()} was called
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * The last exception thrown while opening or writing the file, {@code null} if
+	 * none was thrown
+	 */
+	private volatile IOException lasterror = null;
+	/**
+	 * Whether the file is open and the last write succeeded
+	 */
+	private volatile boolean healthy = false;
+	/**
+	 * Number of batches written
+	 */
+	private volatile long batches = 0;
+	/**
+	 * Number of messages written
+	 */
+	private volatile long records = 0;
+
+	/**
+	 * Creates a new {@link CombiningFileLogWriter}.
+	 * 
+	 * @param filepath the filepath of the output file
+	 * @param isansi   {@code true} if the file supports ansi, {@code false} if it
+	 *                 doesn't
+	 * @throws IllegalArgumentException if {@code filepath} is {@code null}
+	 */
+	public CombiningFileLogWriter(String filepath, boolean isansi) {
+		if (filepath == null)
+			throw new IllegalArgumentException("Filepath can not be null!");
+		this.filepath = filepath;
+		this.isansi = isansi;
+		combinerlock.lock();
+		try {
+			open();
+		} finally {
+			combinerlock.unlock();
+		}
+	}
+
+	/**
+	 * Creates a new {@link CombiningFileLogWriter}, using the default value to
+	 * specify whether the file supports ansi.
+	 * 
+	 * @param filepath the filepath of the output file
+	 * @throws IllegalArgumentException if {@code filepath} is {@code null}
+	 */
+	public CombiningFileLogWriter(String filepath) {
+		this(filepath, DEFAULTISANSI);
+	}
+
+	/**
+	 * Write a message to the file, in a new line. Returns once the message is
+	 * written, by this thread or by the current combiner.
+	 * 
+	 * @param logtext the message to write
+	 */
+	@Override
+	public void write(String logtext) {
+		if (closed)
+			return;
+		Slot slot = threadslot.get();
+		if (slot == null) {
+			slot = new Slot(Thread.currentThread());
+			threadslot.set(slot);
+			slots.add(slot);
+		}
+		slot.record = logtext;
+		int spins = 0;
+		while (slot.record != null) {
+			if (combinerlock.tryLock()) {
+				try {
+					combine();
+				} finally {
+					combinerlock.unlock();
+				}
+				wakePending();
+			} else if (spins < MAXSPINS) {
+				spins++;
+				Thread.yield();
+			} else {
+				// Park until the combiner wrote the message, or left it for this thread to
+				// become the next combiner
+				slot.parked = true;
+				if (slot.record != null && combinerlock.isLocked())
+					LockSupport.parkNanos(this, PARKNANOS);
+				slot.parked = false;
+			}
+		}
+	}
+
+	/**
+	 * Unpark the parked threads whose message is still pending after the combiner
+	 * released its role, so one of them becomes the next combiner. Called after
+	 * releasing {@link CombiningFileLogWriter#combinerlock}.
+	 */
+	private void wakePending() {
+		for (Slot slot : slots) {
+			if (slot.record != null && slot.parked)
+				LockSupport.unpark(slot.owner);
+		}
+	}
+
+	/**
+	 * Write the messages of all slots, in batches. Must be called while holding
+	 * {@link CombiningFileLogWriter#combinerlock}.
+	 */
+	private void combine() {
+		for (int pass = 0; pass < MAXPASSES; pass++) {
+			buffer.reset();
+			int count = 0;
+			for (Slot slot : slots) {
+				String record = slot.record;
+				if (record != null) {
+					buffer.append(record).append(Utf8Buffer.LINESEPARATOR);
+					slot.batched = true;
+					count++;
+				}
+			}
+			if (count == 0)
+				return;
+
+			if (isOpen()) {
+				try {
+					buffer.writeTo(fileoutputstream);
+					healthy = true;
+				} catch (IOException e) {
+					// The batch is lost, report it
+					lasterror = e;
+					healthy = false;
+				}
+			}
+			batches++;
+			records += count;
+
+			// Release the waiting threads of this batch, also if it was lost. Messages
+			// published meanwhile are left for the next pass
+			for (Slot slot : slots) {
+				if (slot.batched) {
+					slot.batched = false;
+					slot.record = null;
+					if (slot.parked)
+						LockSupport.unpark(slot.owner);
+				} else if (slot.record == null && !slot.owner.isAlive())
+					slots.remove(slot);
+			}
+		}
+	}
+
+	/**
+	 * Write the {@code StackTrace} of a {@link Throwable} to the file, as a single
+	 * message.
+	 * 
+	 * @param t the {@link Throwable} to print the {@code StackTrace} of
+	 */
+	@Override
+	protected void printStackTraceAfterCheck(Throwable t) {
+		StringWriter stacktrace = new StringWriter();
+		t.printStackTrace(new PrintWriter(stacktrace));
+		String text = stacktrace.toString();
+		// The last line separator is added to every message
+		int end = text.length();
+		while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r'))
+			end--;
+		write(text.substring(0, end));
+	}
+
+	/**
+	 * Get whether the file supports ansi.
+	 * 
+	 * @return {@code true} if it supports ansi, {@code false} if it doesn't
+	 */
+	@Override
+	public boolean isAnsi() {
+		return isansi;
+	}
+
+	/**
+	 * Get whether the file is open and the last batch was written
+	 * 
+	 * @return {@code true} if messages are written to the file, {@code false} if
+	 *         they are currently lost
+	 */
+	@Override
+	public boolean isHealthy() {
+		if (!healthy && !closed && combinerlock.tryLock()) {
+			try {
+				isOpen();
+			} finally {
+				combinerlock.unlock();
+			}
+		}
+		return healthy;
+	}
+
+	/**
+	 * Close the file, after the current batch is written. Messages written
+	 * afterwards are lost.
+	 */
+	@Override
+	public void close() {
+		combinerlock.lock();
+		try {
+			// Write what was published before closing
+			combine();
+			closed = true;
+			healthy = false;
+			if (fileoutputstream != null) {
+				try {
+					fileoutputstream.close();
+				} catch (IOException e) {
+					// Nevermind, closing anyway
+				}
+				fileoutputstream = null;
+			}
+		} finally {
+			combinerlock.unlock();
+		}
+		wakePending();
+	}
+
+	/**
+	 * Get the number of batches written
+	 * 
+	 * @return the number of batches
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * Get the number of messages written
+	 * 
+	 * @return the number of messages
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Get the last exception thrown while opening or writing the file
+	 * 
+	 * @return the last exception, {@code null} if none was thrown
+	 */
+	public IOException getLasterror() {
+		return lasterror;
+	}
+
+	/**
+	 * Get whether the file is open, trying to open it again if it could not be
+	 * opened before. Must be called while holding
+	 * {@link CombiningFileLogWriter#combinerlock}.
+	 * 
+	 * @return {@code true} if the file is open, {@code false} if not
+	 */
+	private boolean isOpen() {
+		if (fileoutputstream != null)
+			return true;
+		if (closed || System.currentTimeMillis() - lastopenattempt < REOPENINTERVAL)
+			return false;
+		return open();
+	}
+
+	/**
+	 * Open the file. Must be called while holding
+	 * {@link CombiningFileLogWriter#combinerlock}.
+	 * 
+	 * @return {@code true} if the file was opened, {@code false} if not
+	 */
+	private boolean open() {
+		lastopenattempt = System.currentTimeMillis();
+		try {
+			fileoutputstream = new FileOutputStream(filepath, true);
+			healthy = true;
+			return true;
+		} catch (FileNotFoundException e) {
+			// Nevermind, messages are lost until the file can be opened
+			lasterror = e;
+			healthy = false;
+			return false;
+		}
+	}
+
+	/**
+	 * The slot a thread publishes its message in
+	 */
+	private static class Slot {
+
+		/**
+		 * The thread owning the slot
+		 */
+		private final Thread owner;
+		/**
+		 * The published message, {@code null} once it is written
+		 */
+		private volatile String record = null;
+		/**
+		 * Whether the message is in the batch currently written, only used by the
+		 * combiner
+		 */
+		private boolean batched = false;
+		/**
+		 * Whether the owner is parked, or about to park, waiting for its message to
+		 * be written
+		 */
+		private volatile boolean parked = false;
+
+		/**
+		 * Creates a new {@link Slot}.
+		 * 
+		 * @param owner the thread owning the slot
+		 */
+		private Slot(Thread owner) {
+			this.owner = owner;
+		}
+
+	}
+
+}
@@ -0,0 +1,542 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.tools.Utf8Buffer;
+
+/**
+ * {@link de.pentagonlp.simplelogging.LogWriter LogWriter} to write logged
+ * messages to a file durably, e.g. for audit logs. Forcing the file to disk
+ * after every message would limit the throughput to a few hundred messages per
+ * second, so messages are committed in groups instead: a single background
+ * thread forces all messages written so far to disk using
+ * {@link FileChannel#force(boolean)}, every
+ * {@link DurableFileLogWriter#getSyncinterval()} milliseconds or as soon as
+ * {@link DurableFileLogWriter#getSyncevents()} messages are pending, whatever
+ * comes first.
+ * <p>
+ * Callers can wait until their message is on disk:
+ * <ul>
+ * <li>for every message, using
+ * {@link DurableFileLogWriter#setWaitforsync(boolean)},</li>
+ * <li>for messages of a {@link Level} or more severe, using
+ * {@link DurableFileLogWriter#setSynclevel(Level)}, or</li>
+ * <li>for all messages written so far, using
+ * {@link DurableFileLogWriter#sync()}.</li>
+ * </ul>
+ * Waiting callers are committed together with all other pending messages, so
+ * many waiting threads share a single {@link FileChannel#force(boolean)}. If
+ * a message of a waiting caller can not be acknowledged, the reason is kept as
+ * {@link DurableFileLogWriter#getLasterror()}.
+ * <p>
+ * Messages are written through a plain stream on the calling threads, so an
+ * interrupted caller can not close the file. Only the background thread uses
+ * the {@link FileChannel}, to force the file to disk.
+ * 
+ * @author PentagonLP
+ */
+public class DurableFileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
+
+	/**
+	 * Default maximum time a message waits to be forced to disk, in milliseconds
+	 */
+	public static final long DEFAULTSYNCINTERVAL = 10;
+	/**
+	 * Default number of pending messages forcing them to disk immediately
+	 */
+	public static final int DEFAULTSYNCEVENTS = 1024;
+	/**
+	 * Default value whether the file supports ansi
+	 */
+	private static final boolean DEFAULTISANSI = false;
+
+	/**
+	 * Whether the file supports ansi
+	 */
+	private final boolean isansi;
+	/**
+	 * The file, opened for appending
+	 */
+	private final FileOutputStream out;
+	/**
+	 * The {@link FileChannel} of the file, only used by the background thread to
+	 * force it to disk
+	 */
+	private final FileChannel channel;
+	/**
+	 * Maximum time a message waits to be forced to disk, in milliseconds
+	 */
+	private final long syncinterval;
+	/**
+	 * Number of pending messages forcing them to disk immediately
+	 */
+	private final int syncevents;
+	/**
+	 * Buffer the logged messages are encoded in before they are written to the
+	 * file. Also the lock for writing.
+	 */
+	private final Utf8Buffer buffer = new Utf8Buffer();
+	/**
+	 * Lock for the sync state, waited on by callers waiting for their messages to
+	 * be forced to disk
+	 */
+	private final Object synclock = new Object();
+	/**
+	 * The background thread forcing the messages to disk
+	 */
+	private final Thread syncer;
+
+	/**
+	 * Number of messages written to the file so far. Guarded by
+	 * {@link DurableFileLogWriter#synclock}.
+	 */
+	private long written = 0;
+	/**
+	 * Number of messages forced to disk so far. Guarded by
+	 * {@link DurableFileLogWriter#synclock}.
+	 */
+	private long synced = 0;
+	/**
+	 * Size of the file after the messages written so far, in bytes. Guarded by
+	 * {@link DurableFileLogWriter#synclock}.
+	 */
+	private long writtenoffset;
+	/**
+	 * Size of the file forced to disk so far, in bytes. Guarded by
+	 * {@link DurableFileLogWriter#synclock}.
+	 */
+	private long syncedoffset;
+	/**
+	 * Highest sequence number of the messages that could not be forced to disk.
+	 * Guarded by {@link DurableFileLogWriter#synclock}.
+	 */
+	private long failed = 0;
+	/**
+	 * The last error writing or forcing the file, {@code null} if none occurred
+	 */
+	private volatile IOException lasterror = null;
+	/**
+	 * Whether every caller waits until its message is forced to disk
+	 */
+	private volatile boolean waitforsync = false;
+	/**
+	 * Callers of messages of this {@link Level} or more severe wait until their
+	 * message is forced to disk, {@code null} to not wait depending on the
+	 * {@link Level}
+	 */
+	private volatile Level synclevel = null;
+	/**
+	 * Whether {@link DurableFileLogWriter#close()} was called
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new {@link DurableFileLogWriter} with the default sync interval and
+	 * sync events, writing to a file not supporting ansi.
+	 * 
+	 * @param filepath the filepath of the output file
+	 * @throws IOException              if the file can not be opened
+	 * @throws IllegalArgumentException if {@code filepath} is {@code null}
+	 */
+	public DurableFileLogWriter(String filepath) throws IOException {
+		this(filepath, DEFAULTISANSI, DEFAULTSYNCINTERVAL, DEFAULTSYNCEVENTS);
+	}
+
+	/**
+	 * Creates a new {@link DurableFileLogWriter} and starts its background thread.
+	 * 
+	 * @param filepath     the filepath of the output file
+	 * @param isansi       {@code true} if the file supports ansi, {@code false} if
+	 *                     it doesn't
+	 * @param syncinterval the maximum time a message waits to be forced to disk, in
+	 *                     milliseconds
+	 * @param syncevents   the number of pending messages forcing them to disk
+	 *                     immediately
+	 * @throws IOException              if the file can not be opened
+	 * @throws IllegalArgumentException if {@code filepath} is {@code null}, or
+	 *                                  {@code syncinterval} or {@code syncevents}
+	 *                                  is not positive
+	 */
+	public DurableFileLogWriter(String filepath, boolean isansi, long syncinterval, int syncevents)
+			throws IOException {
+		if (filepath == null)
+			throw new IllegalArgumentException("Filepath can not be null!");
+		if (syncinterval <= 0)
+			throw new IllegalArgumentException("Sync interval must be positive!");
+		if (syncevents <= 0)
+			throw new IllegalArgumentException("Sync events must be positive!");
+		this.isansi = isansi;
+		this.syncinterval = syncinterval;
+		this.syncevents = syncevents;
+		File file = new File(filepath);
+		this.out = new FileOutputStream(file, true);
+		this.channel = out.getChannel();
+		// Whatever was in the file before is assumed to be on disk already
+		this.writtenoffset = file.length();
+		this.syncedoffset = writtenoffset;
+
+		syncer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				syncPeriodically();
+			}
+		}, "DurableFileLogWriter");
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+
+	/**
+	 * Write a message to the file, in a new line. Waits until the message is
+	 * forced to disk if {@link DurableFileLogWriter#isWaitforsync()}.
+	 * 
+	 * @param logtext the message to write
+	 */
+	@Override
+	public void write(String logtext) {
+		write(logtext, null);
+	}
+
+	/**
+	 * Write a message to the file, in a new line. Waits until the message is
+	 * forced to disk if {@link DurableFileLogWriter#isWaitforsync()} or the
+	 * {@link Level} is {@link DurableFileLogWriter#getSynclevel()} or more severe.
+	 * If the message can not be written or forced to disk, the reason is kept as
+	 * {@link DurableFileLogWriter#getLasterror()}.
+	 * 
+	 * @param logtext the message to write
+	 * @param level   the {@link Level} of the message
+	 */
+	@Override
+	public void write(String logtext, Level level) {
+		long sequence;
+		synchronized (buffer) {
+			buffer.reset();
+			buffer.append(logtext).append(Utf8Buffer.LINESEPARATOR);
+			sequence = append(buffer);
+		}
+		if (sequence < 0)
+			return;
+		Level synclevel = this.synclevel;
+		if (waitforsync || (level != null && synclevel != null && level.getIntLevel() <= synclevel.getIntLevel()))
+			awaitSync(sequence);
+	}
+
+	/**
+	 * Wait until all messages written so far are forced to disk. If the calling
+	 * thread is interrupted while waiting, it returns early and keeps its interrupt
+	 * status. If the messages are not on disk, the reason is kept as
+	 * {@link DurableFileLogWriter#getLasterror()}.
+	 * 
+	 * @return {@code true} if all messages written so far are on disk,
+	 *         {@code false} if writing or forcing the file failed, or the wait was
+	 *         interrupted
+	 */
+	public boolean sync() {
+		long sequence;
+		synchronized (synclock) {
+			sequence = written;
+		}
+		return awaitSync(sequence);
+	}
+
+	/**
+	 * Wait until all messages written so far are forced to disk.
+	 * 
+	 * @see DurableFileLogWriter#sync()
+	 */
+	@Override
+	public void flush() {
+		sync();
+	}
+
+	/**
+	 * Force all messages written so far to disk, stop the background thread and
+	 * close the file. Messages written afterwards are lost.
+	 */
+	@Override
+	public void close() {
+		synchronized (synclock) {
+			if (closed)
+				return;
+			closed = true;
+			synclock.notifyAll();
+		}
+		try {
+			syncer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (buffer) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				lasterror = e;
+			}
+		}
+	}
+
+	/**
+	 * Get whether the file to be written to supports ansi.
+	 * 
+	 * @return {@code true} if it supports ansi, {@code false} if it doesn't
+	 */
+	@Override
+	public boolean isAnsi() {
+		return isansi;
+	}
+
+	/**
+	 * Print the {@code StackTrace} of a {@link Throwable}, after
+	 * {@link ExceptionOnlyInDebugModeLogWriter} has decided its criteria are
+	 * fulfilled. Waits until it is forced to disk if
+	 * {@link DurableFileLogWriter#isWaitforsync()}.
+	 * 
+	 * @param t the {@link Throwable} to print the {@code StackTrace} of
+	 */
+	@Override
+	protected void printStackTraceAfterCheck(Throwable t) {
+		StringWriter stacktrace = new StringWriter();
+		t.printStackTrace(new PrintWriter(stacktrace));
+		long sequence;
+		synchronized (buffer) {
+			buffer.reset();
+			buffer.append(stacktrace.toString());
+			sequence = append(buffer);
+		}
+		if (sequence >= 0 && waitforsync)
+			awaitSync(sequence);
+	}
+
+	/**
+	 * Get whether every caller waits until its message is forced to disk
+	 * 
+	 * @return {@code true} if every caller waits, {@code false} if not
+	 * @see DurableFileLogWriter#setWaitforsync(boolean)
+	 */
+	public boolean isWaitforsync() {
+		return waitforsync;
+	}
+
+	/**
+	 * Set whether every caller waits until its message is forced to disk. Once
+	 * {@link DurableFileLogWriter#write(String)} returns, the message is
+	 * acknowledged and survives a crash of the process or the system. Disabled by
+	 * default.
+	 * 
+	 * @param waitforsync {@code true} if every caller should wait, {@code false}
+	 *                    if not
+	 */
+	public void setWaitforsync(boolean waitforsync) {
+		this.waitforsync = waitforsync;
+	}
+
+	/**
+	 * Get the {@link Level} whose callers wait until their message is forced to
+	 * disk
+	 * 
+	 * @return callers of messages of this {@link Level} or more severe wait,
+	 *         {@code null} if callers do not wait depending on the {@link Level}
+	 * @see DurableFileLogWriter#setSynclevel(Level)
+	 */
+	public Level getSynclevel() {
+		return synclevel;
+	}
+
+	/**
+	 * Set the {@link Level} whose callers wait until their message is forced to
+	 * disk. {@code null} by default.
+	 * 
+	 * @param synclevel callers of messages of this {@link Level} or more severe
+	 *                  wait, {@code null} if callers should not wait depending on
+	 *                  the {@link Level}
+	 */
+	public void setSynclevel(Level synclevel) {
+		this.synclevel = synclevel;
+	}
+
+	/**
+	 * Get the maximum time a message waits to be forced to disk
+	 * 
+	 * @return the maximum time, in milliseconds
+	 */
+	public long getSyncinterval() {
+		return syncinterval;
+	}
+
+	/**
+	 * Get the number of pending messages forcing them to disk immediately
+	 * 
+	 * @return the number of pending messages
+	 */
+	public int getSyncevents() {
+		return syncevents;
+	}
+
+	/**
+	 * Get the number of messages written to the file so far
+	 * 
+	 * @return the number of messages written
+	 */
+	public long getWritten() {
+		synchronized (synclock) {
+			return written;
+		}
+	}
+
+	/**
+	 * Get the number of messages forced to disk so far
+	 * 
+	 * @return the number of messages forced to disk
+	 */
+	public long getSynced() {
+		synchronized (synclock) {
+			return synced;
+		}
+	}
+
+	/**
+	 * Get the size of the file forced to disk so far. All messages acknowledged so
+	 * far end within this size.
+	 * 
+	 * @return the size, in bytes
+	 */
+	public long getSyncedoffset() {
+		synchronized (synclock) {
+			return syncedoffset;
+		}
+	}
+
+	/**
+	 * Get the last error writing or forcing the file, or waiting for a message to
+	 * be forced to disk. Waiting is ended early by an interrupt, kept as an
+	 * {@link InterruptedIOException}, and by closing the writer.
+	 * 
+	 * @return the last {@link IOException}, {@code null} if none occurred
+	 */
+	public IOException getLasterror() {
+		return lasterror;
+	}
+
+	/**
+	 * Write an encoded message to the file and assign it the next sequence number.
+	 * Must be called while holding the lock on
+	 * {@link DurableFileLogWriter#buffer}.
+	 * 
+	 * @param encoded the encoded message
+	 * @return the sequence number of the message, {@code -1} if it could not be
+	 *         written
+	 */
+	private long append(Utf8Buffer encoded) {
+		if (closed)
+			return -1;
+		try {
+			out.write(encoded.array(), 0, encoded.size());
+		} catch (IOException e) {
+			lasterror = e;
+			return -1;
+		}
+		synchronized (synclock) {
+			writtenoffset += encoded.size();
+			long sequence = ++written;
+			if (written - synced >= syncevents)
+				synclock.notifyAll();
+			return sequence;
+		}
+	}
+
+	/**
+	 * Wait until the message with a sequence number is forced to disk. If it is
+	 * not, the reason is kept as {@link DurableFileLogWriter#lasterror}.
+	 * 
+	 * @param sequence the sequence number of the message
+	 * @return {@code true} if the message is on disk, {@code false} if forcing the
+	 *         file failed, the writer was closed or the wait was interrupted
+	 */
+	private boolean awaitSync(long sequence) {
+		synchronized (synclock) {
+			while (synced < sequence) {
+				// The error of a failed force was already kept by the background thread
+				if (sequence <= failed)
+					return false;
+				if (closed && !syncer.isAlive()) {
+					lasterror = new IOException("Closed before message " + sequence + " was forced to disk");
+					return false;
+				}
+				try {
+					synclock.wait(syncinterval);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					lasterror = new InterruptedIOException(
+							"Interrupted while waiting for message " + sequence + " to be forced to disk");
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Main loop of the background thread. Forces all pending messages to disk
+	 * every {@link DurableFileLogWriter#syncinterval} milliseconds, or earlier if
+	 * {@link DurableFileLogWriter#syncevents} messages are pending. Forces the
+	 * remaining messages once more after closing.
+	 */
+	private void syncPeriodically() {
+		while (true) {
+			long target;
+			long targetoffset;
+			boolean stop;
+			synchronized (synclock) {
+				long deadline = System.currentTimeMillis() + syncinterval;
+				while (!closed && written - synced < syncevents) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						break;
+					try {
+						synclock.wait(remaining);
+					} catch (InterruptedException e) {
+						// Nevermind, just sync earlier
+					}
+				}
+				target = written;
+				targetoffset = writtenoffset;
+				stop = closed;
+				if (target == synced) {
+					if (stop)
+						return;
+					continue;
+				}
+			}
+
+			// Force outside of the lock, so writers are not blocked meanwhile
+			try {
+				channel.force(false);
+				synchronized (synclock) {
+					synced = target;
+					syncedoffset = targetoffset;
+					synclock.notifyAll();
+				}
+			} catch (IOException e) {
+				lasterror = e;
+				synchronized (synclock) {
+					failed = target;
+					synclock.notifyAll();
+				}
+			}
+			if (stop) {
+				synchronized (synclock) {
+					synclock.notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+}
@@ -4,11 +4,29 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.tools.Utf8Buffer;
 
 /**
  * {@link de.pentagonlp.simplelogging.LogWriter LogWriter} to write logged
  * messages to a file
+ * <p>
+ * The file is opened in append mode ({@code O_APPEND}), and every message,
+ * including {@code StackTraces}, is encoded completely before it is written in
+ * a single call. Several processes can therefore append to the same file without
+ * tearing messages up to {@link FileLogWriter#ATOMICLIMIT}. Larger messages may
+ * be split by the operating system, to keep them intact, enable locking (See
+ * {@link FileLogWriter#setLocking(boolean)}) in all processes.
+ * <p>
+ * Optionally, a sidecar index of the times and {@link Level Levels} of the
+ * messages is written, to read a time range quickly using a
+ * {@link LogIndexReader} (See {@link FileLogWriter#setIndexing(boolean)}).
  * 
  * @author PentagonLP
  */
@@ -20,6 +38,30 @@ public class FileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
 	 * @see FileLogWriter#FileLogWriter(String)
 	 */
 	private static final boolean DEFAULTISANSI = true;
+	/**
+	 * Minimum time between two attempts to open the file after it could not be
+	 * opened or written, in milliseconds
+	 */
+	private static final long REOPENINTERVAL = 1000;
+	/**
+	 * Size up to which a message is written to the file atomically by a single
+	 * append, in bytes. Larger messages are locked if locking is enabled.
+	 * 
+	 * @see FileLogWriter#setLocking(boolean)
+	 */
+	public static final int ATOMICLIMIT = 4096;
+	/**
+	 * Number of bytes of the log file covered by one entry of the sidecar index
+	 * 
+	 * @see FileLogWriter#setIndexing(boolean)
+	 */
+	public static final long INDEXBLOCKSIZE = 64 * 1024;
+	/**
+	 * Monitor of every file written to by a {@link FileLogWriter} of this JVM, by
+	 * its canonical path. Held while holding the {@link FileLock}, as a JVM can
+	 * hold only one {@link FileLock} on a file at a time.
+	 */
+	private static final ConcurrentHashMap<String, Object> PATHLOCKS = new ConcurrentHashMap<>();
 
 	/**
 	 * Whether the file supports ansi. Can be set by
@@ -27,13 +69,60 @@ public class FileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
 	 */
 	private final boolean isansi;
 	/**
-	 * {@link PrintStream} to print new messages to to be stored in the {@link File}
+	 * The filepath of the output file
 	 */
-	private PrintStream fileprintstream;
+	private final String filepath;
+	/**
+	 * The monitor of the file shared by all {@link FileLogWriter FileLogWriters}
+	 * of this JVM, see {@link FileLogWriter#PATHLOCKS}
+	 */
+	private final Object pathlock;
+	/**
+	 * {@link FileOutputStream} to write new messages to to be stored in the
+	 * {@link File}
+	 */
+	private FileOutputStream fileoutputstream;
+	/**
+	 * Buffer the logged messages are encoded in before they are written to the
+	 * {@link File}
+	 */
+	private final Utf8Buffer buffer = new Utf8Buffer();
+	/**
+	 * The last exception thrown while opening or writing the file, {@code null} if
+	 * none was thrown
+	 */
+	private volatile IOException lasterror = null;
+	/**
+	 * Whether the file is open and the last write succeeded
+	 */
+	private volatile boolean healthy = false;
+	/**
+	 * Whether {@link FileLogWriter#close()} was called
+	 */
+	private boolean closed = false;
+	/**
+	 * The {@link System#currentTimeMillis()} of the last attempt to open the file
+	 */
+	private long lastopenattempt = 0;
+	/**
+	 * Whether messages larger than {@link FileLogWriter#ATOMICLIMIT} are written
+	 * while holding a lock on the file
+	 * 
+	 * @see FileLogWriter#setLocking(boolean)
+	 */
+	private volatile boolean locking = false;
+	/**
+	 * The writer of the sidecar index, {@code null} if indexing is disabled
+	 * 
+	 * @see FileLogWriter#setIndexing(boolean)
+	 */
+	private LogIndexWriter index = null;
 
 	/**
 	 * Creates a new {@link FileLogWriter} with a given {@code filepath} of the
-	 * output file. Specifies whether the file supports ansi.
+	 * output file. Specifies whether the file supports ansi. If the file can not be
+	 * opened, e.g. as its directory does not exist, messages are lost until it
+	 * can, see {@link FileLogWriter#isHealthy()}.
 	 * 
 	 * @param filepath the filepath of the output file
 	 * @param isansi   {@code true} if the file supports ansi, {@code false} if it
@@ -44,17 +133,37 @@ public class FileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
 		this.isansi = isansi;
 		if (filepath == null)
 			throw new IllegalArgumentException("Filepath can not be null!");
-		File outputfile = new File(filepath);
+		this.filepath = filepath;
+		this.pathlock = pathLockOf(filepath);
+		synchronized (buffer) {
+			open();
+		}
+	}
+
+	/**
+	 * Get the monitor shared by all {@link FileLogWriter FileLogWriters} of this
+	 * JVM writing to a file
+	 * 
+	 * @param filepath the filepath of the file
+	 * @return the monitor of the file
+	 */
+	private static Object pathLockOf(String filepath) {
+		File file = new File(filepath);
+		String key;
 		try {
-			outputfile.createNewFile();
+			key = file.getCanonicalPath();
 		} catch (IOException e) {
-			// No Error, just nevermind then...
+			// Nevermind, files reached by different links are locked separately then
+			key = file.getAbsolutePath();
 		}
-		try {
-			fileprintstream = new PrintStream(new FileOutputStream(filepath, true));
-		} catch (FileNotFoundException e) {
-			// Cannot occur
+		Object lock = PATHLOCKS.get(key);
+		if (lock == null) {
+			Object created = new Object();
+			lock = PATHLOCKS.putIfAbsent(key, created);
+			if (lock == null)
+				lock = created;
 		}
+		return lock;
 	}
 
 	/**
@@ -71,14 +180,321 @@ public class FileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
 	}
 
 	/**
-	 * Write a message to the {@link PrintStream} of the file, using
-	 * {@link PrintStream#println(String)} to write it in a new line.
+	 * Write a message to the file, in a new line. The message and the line
+	 * separator are encoded in UTF-8 and appended in a single call.
 	 * 
 	 * @param logtext the message to write
 	 */
 	@Override
 	public void write(String logtext) {
-		fileprintstream.println(logtext);
+		write(logtext, null);
+	}
+
+	/**
+	 * Write a message to the file, in a new line, with the current time as its
+	 * timestamp. The message and the line separator are encoded in UTF-8 and
+	 * appended in a single call. The {@link Level} is only used for the sidecar
+	 * index.
+	 * 
+	 * @param logtext the message to write
+	 * @param level   the {@link Level} of the message, {@code null} if unknown
+	 */
+	@Override
+	public void write(String logtext, Level level) {
+		write(logtext, level, System.currentTimeMillis() * 1_000_000L);
+	}
+
+	/**
+	 * Write a message to the file, in a new line. The message and the line
+	 * separator are encoded in UTF-8 and appended in a single call. The
+	 * {@link Level} and the timestamp are only used for the sidecar index.
+	 * 
+	 * @param logtext   the message to write
+	 * @param level     the {@link Level} of the message, {@code null} if unknown
+	 * @param timenanos the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 */
+	@Override
+	public void write(String logtext, Level level, long timenanos) {
+		synchronized (buffer) {
+			if (!isOpen())
+				return;
+			buffer.reset();
+			buffer.append(logtext).append(Utf8Buffer.LINESEPARATOR);
+			writeBuffer(level, timenanos);
+		}
+	}
+
+	/**
+	 * Append the content of {@link FileLogWriter#buffer} to the file in a single
+	 * call, holding a lock on the file if it is larger than
+	 * {@link FileLogWriter#ATOMICLIMIT} and locking is enabled, and add it to the
+	 * sidecar index if enabled. Must be called while holding the lock on
+	 * {@link FileLogWriter#buffer}.
+	 * <p>
+	 * Other {@link FileLogWriter FileLogWriters} of this JVM writing to the same
+	 * file wait on its monitor, as the {@link FileLock} only excludes other
+	 * processes. The interrupt flag of the calling thread is cleared while
+	 * locking and restored afterwards, as an interrupt would close the file.
+	 * 
+	 * @param level     the {@link Level} of the message, {@code null} if unknown
+	 * @param timenanos the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 */
+	private void writeBuffer(Level level, long timenanos) {
+		try {
+			if (locking && buffer.size() > ATOMICLIMIT) {
+				synchronized (pathlock) {
+					writeLocked();
+				}
+			} else
+				buffer.writeTo(fileoutputstream);
+			healthy = true;
+		} catch (IOException e) {
+			// The message is lost, report it and reopen the file later, it may have been
+			// deleted or its disk remounted
+			lasterror = e;
+			healthy = false;
+			closeStream();
+			return;
+		}
+		if (index != null) {
+			try {
+				index.add(level, buffer.size(), timenanos);
+			} catch (IOException e) {
+				// Nevermind, the message is written, only stop indexing
+				lasterror = e;
+				closeIndex();
+			}
+		}
+	}
+
+	/**
+	 * Append the content of {@link FileLogWriter#buffer} to the file while holding
+	 * a {@link FileLock} on it. Must be called while holding the lock on
+	 * {@link FileLogWriter#buffer} and {@link FileLogWriter#pathlock}.
+	 * 
+	 * @throws IOException if the file could not be locked or written
+	 */
+	private void writeLocked() throws IOException {
+		FileLock lock = null;
+		// FileChannel.lock() closes the file if the thread is interrupted, so do not
+		// let it see the interrupt and restore it afterwards
+		boolean interrupted = Thread.interrupted();
+		try {
+			lock = fileoutputstream.getChannel().lock();
+		} catch (OverlappingFileLockException e) {
+			// Nevermind, the file is locked by something else in this JVM than a
+			// FileLogWriter, write without the lock
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		try {
+			buffer.writeTo(fileoutputstream);
+		} finally {
+			if (lock != null)
+				lock.release();
+		}
+	}
+
+	/**
+	 * Close the file. Messages written afterwards are lost.
+	 */
+	@Override
+	public void close() {
+		synchronized (buffer) {
+			closed = true;
+			healthy = false;
+			closeIndex();
+			if (fileoutputstream != null) {
+				try {
+					fileoutputstream.close();
+				} catch (IOException e) {
+					// Nevermind, closing anyway
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get whether the file is open and the last write succeeded. If the file could
+	 * not be opened or written, it is tried to open it again, at most once per
+	 * second, so a {@link SupervisedLogWriter} switches back to it once it works
+	 * again.
+	 * 
+	 * @return {@code true} if messages are written to the file, {@code false} if
+	 *         they are currently lost
+	 * @see FileLogWriter#getLasterror()
+	 */
+	@Override
+	public boolean isHealthy() {
+		if (!healthy) {
+			synchronized (buffer) {
+				isOpen();
+			}
+		}
+		return healthy;
+	}
+
+	/**
+	 * Get whether messages larger than {@link FileLogWriter#ATOMICLIMIT} are
+	 * written while holding a lock on the file
+	 * 
+	 * @return {@code true} if locking is enabled, {@code false} if not
+	 * @see FileLogWriter#setLocking(boolean)
+	 */
+	public boolean getLocking() {
+		return locking;
+	}
+
+	/**
+	 * Set whether messages larger than {@link FileLogWriter#ATOMICLIMIT} are
+	 * written while holding an exclusive {@link FileLock} on the file, so they are
+	 * not split by messages of other processes appending to the same file. The
+	 * lock is advisory: all processes have to enable locking. Within this JVM, the
+	 * {@link FileLogWriter FileLogWriters} writing to the same file take turns
+	 * instead. Smaller messages are written atomically by a single append anyway.
+	 * Disabled by default.
+	 * 
+	 * @param locking {@code true} to enable locking, {@code false} to disable it
+	 */
+	public void setLocking(boolean locking) {
+		this.locking = locking;
+	}
+
+	/**
+	 * Get whether a sidecar index is written
+	 * 
+	 * @return {@code true} if indexing is enabled, {@code false} if not
+	 * @see FileLogWriter#setIndexing(boolean)
+	 */
+	public boolean getIndexing() {
+		synchronized (buffer) {
+			return index != null;
+		}
+	}
+
+	/**
+	 * Set whether a sidecar index {@code <filepath>.idx} is written, with one
+	 * entry per {@link FileLogWriter#INDEXBLOCKSIZE} bytes: the offset and length
+	 * of the block, the earliest and latest timestamp of its messages and the
+	 * {@link Level Levels} of its messages. {@link LogIndexReader} uses it to read
+	 * a time range without scanning the whole file. The entry of the last block
+	 * is written when it is full or the writer is closed. The index assumes this
+	 * writer is the only one appending to the file, messages of other processes
+	 * are not indexed. If the index can not be written, indexing is disabled and
+	 * the error is reported by {@link FileLogWriter#getLasterror()}. Disabled by
+	 * default.
+	 * 
+	 * @param indexing {@code true} to enable indexing, {@code false} to disable it
+	 */
+	public void setIndexing(boolean indexing) {
+		synchronized (buffer) {
+			if (!indexing) {
+				closeIndex();
+			} else if (index == null && !closed) {
+				try {
+					index = new LogIndexWriter(filepath + LogIndexReader.INDEXSUFFIX, INDEXBLOCKSIZE,
+							new File(filepath).length());
+				} catch (IOException e) {
+					lasterror = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Close the sidecar index, if open. Must be called while holding the lock on
+	 * {@link FileLogWriter#buffer}.
+	 */
+	private void closeIndex() {
+		if (index == null)
+			return;
+		try {
+			index.close();
+		} catch (IOException e) {
+			lasterror = e;
+		}
+		index = null;
+	}
+
+	/**
+	 * Get the last exception thrown while opening or writing the file
+	 * 
+	 * @return the last exception, {@code null} if none was thrown
+	 */
+	public IOException getLasterror() {
+		return lasterror;
+	}
+
+	/**
+	 * Close the file after a failed write, to open it again after
+	 * {@link FileLogWriter#REOPENINTERVAL}. The current block of the sidecar index
+	 * is ended. Must be called while holding the lock on
+	 * {@link FileLogWriter#buffer}.
+	 */
+	private void closeStream() {
+		if (index != null) {
+			try {
+				index.endBlock();
+			} catch (IOException e) {
+				lasterror = e;
+				closeIndex();
+			}
+		}
+		try {
+			fileoutputstream.close();
+		} catch (IOException e) {
+			// Nevermind, it is broken anyway
+		}
+		fileoutputstream = null;
+		lastopenattempt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get whether the file is open, trying to open it again if it could not be
+	 * opened or written before. Must be called while holding the lock on
+	 * {@link FileLogWriter#buffer}.
+	 * 
+	 * @return {@code true} if the file is open, {@code false} if not
+	 */
+	private boolean isOpen() {
+		if (fileoutputstream != null)
+			return true;
+		if (closed || System.currentTimeMillis() - lastopenattempt < REOPENINTERVAL)
+			return false;
+		return open();
+	}
+
+	/**
+	 * Open the file, continuing the sidecar index at its end. Must be called while
+	 * holding the lock on {@link FileLogWriter#buffer}.
+	 * 
+	 * @return {@code true} if the file was opened, {@code false} if not
+	 */
+	private boolean open() {
+		lastopenattempt = System.currentTimeMillis();
+		try {
+			fileoutputstream = new FileOutputStream(filepath, true);
+			healthy = true;
+			if (index != null) {
+				try {
+					index.reopened(new File(filepath).length());
+				} catch (IOException e) {
+					// Nevermind, the file is open, only stop indexing
+					lasterror = e;
+					closeIndex();
+				}
+			}
+			return true;
+		} catch (FileNotFoundException e) {
+			// Nevermind, messages are lost until the file can be opened
+			lasterror = e;
+			fileoutputstream = null;
+			healthy = false;
+			return false;
+		}
 	}
 
 	/**
@@ -100,7 +516,16 @@ public class FileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
 	 */
 	@Override
 	protected void printStackTraceAfterCheck(Throwable t) {
-		t.printStackTrace(fileprintstream);
+		// Render the whole StackTrace first, to append it in a single call
+		StringWriter stacktrace = new StringWriter();
+		t.printStackTrace(new PrintWriter(stacktrace));
+		synchronized (buffer) {
+			if (!isOpen())
+				return;
+			buffer.reset();
+			buffer.append(stacktrace.toString());
+			writeBuffer(null, System.currentTimeMillis() * 1_000_000L);
+		}
 	}
 
 }
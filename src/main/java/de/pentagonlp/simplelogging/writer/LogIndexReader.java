@@ -0,0 +1,376 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import de.pentagonlp.simplelogging.Level;
+
+/**
+ * Reader of a log file written by a {@link FileLogWriter} with indexing enabled
+ * (See {@link FileLogWriter#setIndexing(boolean)}), using the sidecar index to
+ * read only the parts of the file within a time range and containing messages
+ * of a range of {@link Level Levels}.
+ * <p>
+ * The index {@code <logfile>.idx} is a header ({@code int} magic, {@code int}
+ * version) followed by one entry per block of the log file: {@code long}
+ * offset, {@code long} length, {@code long} earliest and latest timestamp of
+ * its messages, in milliseconds since the epoch, and a {@code long} bitmap of
+ * the {@link Level Levels} in the block. The bit of a {@link Level} only
+ * depends on its {@link Level#getIntLevel()}, so the index can be read by a
+ * program that registered other {@link Level Levels}: {@link Level Levels} in
+ * the same range of {@link LogIndexReader#LEVELSPERBIT} priorities share a
+ * bit, and bit {@code 63} marks messages of unknown {@link Level}. Blocks
+ * always contain whole messages.
+ * <p>
+ * Blocks overlapping the time range and containing a matching {@link Level} are
+ * copied to the output completely, all others are skipped without being read.
+ * Parts of the log file not covered by the index, e.g. the last block before a
+ * crash or messages written before indexing was enabled, are copied as well,
+ * unless disabled by {@link LogIndexReader#setScanunindexed(boolean)}. The
+ * output therefore contains all matching messages, but also the other messages
+ * of their blocks, to be filtered by the caller.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code java de.pentagonlp.simplelogging.writer.LogIndexReader <logfile> <from> <to> [mostsevere] [leastsevere]}
+ * <br>
+ * {@code from} and {@code to} are milliseconds since the epoch or local date
+ * times like {@code 2024-05-01T13:20:00}, the {@link Level Levels} are given
+ * by their names.
+ * 
+ * @author PentagonLP
+ */
+public class LogIndexReader {
+
+	/**
+	 * Suffix of the index file, appended to the filepath of the log file
+	 */
+	public static final String INDEXSUFFIX = ".idx";
+	/**
+	 * Magic number at the start of every index file
+	 */
+	static final int MAGIC = 0x534C4958;
+	/**
+	 * Version of the index format
+	 */
+	static final int VERSION = 2;
+	/**
+	 * Size of the header, in bytes
+	 */
+	static final int HEADERSIZE = 8;
+	/**
+	 * Size of an entry, in bytes
+	 */
+	static final int ENTRYSIZE = 40;
+	/**
+	 * Number of consecutive {@link Level#getIntLevel()} values sharing a bit in
+	 * the level bitmap
+	 */
+	static final int LEVELSPERBIT = 10;
+	/**
+	 * Bit of the least severe {@link Level Levels}, all {@link Level Levels} with
+	 * a larger {@link Level#getIntLevel()} share it
+	 */
+	private static final int LASTLEVELBIT = 62;
+	/**
+	 * Bit of messages of unknown {@link Level} and {@code StackTraces}
+	 */
+	private static final int UNKNOWNLEVELBIT = 63;
+
+	/**
+	 * The log file
+	 */
+	private final File logfile;
+	/**
+	 * The index file
+	 */
+	private final File indexfile;
+	/**
+	 * Whether parts of the log file not covered by the index are copied
+	 */
+	private boolean scanunindexed = true;
+	/**
+	 * Number of bytes of matching blocks copied by the last read
+	 */
+	private long matchedbytes = 0;
+	/**
+	 * Number of bytes of parts not covered by the index copied by the last read
+	 */
+	private long unindexedbytes = 0;
+	/**
+	 * Number of bytes skipped by the last read
+	 */
+	private long skippedbytes = 0;
+
+	/**
+	 * Read the messages of a time range from an indexed log file, to the standard
+	 * output.
+	 * 
+	 * @param args the log file, the start and the end of the time range and
+	 *             optionally the most and the least severe {@link Level}
+	 * @throws IOException if the log file or its index can not be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3 || args.length > 5) {
+			System.out.println("Usage: LogIndexReader <logfile> <from> <to> [mostsevere] [leastsevere]");
+			System.exit(2);
+		}
+		Level mostsevere = args.length > 3 ? parseLevel(args[3]) : null;
+		Level leastsevere = args.length > 4 ? parseLevel(args[4]) : null;
+		LogIndexReader reader = new LogIndexReader(args[0]);
+		reader.read(parseTime(args[1]), parseTime(args[2]), mostsevere, leastsevere, System.out);
+		System.out.flush();
+		System.err.println("Copied " + reader.getMatchedbytes() + " bytes of matching blocks and "
+				+ reader.getUnindexedbytes() + " unindexed bytes, skipped " + reader.getSkippedbytes() + " bytes");
+	}
+
+	/**
+	 * Parse a {@link Level} given on the command line, exiting if no
+	 * {@link Level} has this name
+	 * 
+	 * @param name the name of the {@link Level}
+	 * @return the {@link Level}
+	 */
+	private static Level parseLevel(String name) {
+		Level level = Level.forName(name);
+		if (level == null) {
+			System.err.println("Unknown level: " + name);
+			System.exit(2);
+		}
+		return level;
+	}
+
+	/**
+	 * Parse a time given on the command line
+	 * 
+	 * @param time milliseconds since the epoch or a local date time
+	 * @return the time, in milliseconds since the epoch
+	 */
+	private static long parseTime(String time) {
+		try {
+			return Long.parseLong(time);
+		} catch (NumberFormatException e) {
+			return LocalDateTime.parse(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+	}
+
+	/**
+	 * Creates a new {@link LogIndexReader}.
+	 * 
+	 * @param filepath the filepath of the log file, the index is expected at
+	 *                 {@code filepath + ".idx"}
+	 * @throws IllegalArgumentException if {@code filepath} is {@code null}
+	 */
+	public LogIndexReader(String filepath) {
+		if (filepath == null)
+			throw new IllegalArgumentException("Filepath can not be null!");
+		this.logfile = new File(filepath);
+		this.indexfile = new File(filepath + INDEXSUFFIX);
+	}
+
+	/**
+	 * Copy the blocks of the log file within a time range and containing messages
+	 * of a range of {@link Level Levels} to an {@link OutputStream}. Blocks with
+	 * messages of unknown {@link Level} or {@code StackTraces} always match the
+	 * {@link Level Levels}.
+	 * 
+	 * @param from        the start of the time range, in milliseconds since the
+	 *                    epoch
+	 * @param to          the end of the time range, in milliseconds since the
+	 *                    epoch
+	 * @param mostsevere  the most severe {@link Level}, {@code null} for no limit
+	 * @param leastsevere the least severe {@link Level}, {@code null} for no limit
+	 * @param out         the {@link OutputStream} to copy the blocks to, not
+	 *                    closed
+	 * @throws IOException if the log file or its index can not be read, or the
+	 *                     index is not a valid index file
+	 */
+	public void read(long from, long to, Level mostsevere, Level leastsevere, OutputStream out)
+			throws IOException {
+		matchedbytes = 0;
+		unindexedbytes = 0;
+		skippedbytes = 0;
+		long mask = levelMask(mostsevere, leastsevere);
+		WritableByteChannel target = Channels.newChannel(out);
+		try (FileInputStream login = new FileInputStream(logfile)) {
+			FileChannel log = login.getChannel();
+			long loglength = log.size();
+			// End of the part of the log file handled so far
+			long next = 0;
+			if (indexfile.exists()) {
+				try (DataInputStream index = new DataInputStream(
+						new BufferedInputStream(new FileInputStream(indexfile)))) {
+					if (index.readInt() != MAGIC || index.readInt() != VERSION)
+						throw new IOException("Not a valid index file: " + indexfile);
+					while (true) {
+						long offset;
+						long length;
+						long firsttime;
+						long lasttime;
+						long levelbits;
+						try {
+							offset = index.readLong();
+							length = index.readLong();
+							firsttime = index.readLong();
+							lasttime = index.readLong();
+							levelbits = index.readLong();
+						} catch (EOFException e) {
+							// Nevermind, a cut off entry ends the index
+							break;
+						}
+						// Entries not matching the log file, e.g. after it was replaced, are left to
+						// the unindexed parts
+						if (offset < next || offset + length > loglength)
+							continue;
+						if (offset > next)
+							copyUnindexed(log, next, offset - next, target);
+						if (lasttime >= from && firsttime <= to && (levelbits & mask) != 0) {
+							copy(log, offset, length, target);
+							matchedbytes += length;
+						} else
+							skippedbytes += length;
+						next = offset + length;
+					}
+				}
+			}
+			if (loglength > next)
+				copyUnindexed(log, next, loglength - next, target);
+		}
+	}
+
+	/**
+	 * Copy a part of the log file not covered by the index, if enabled.
+	 * 
+	 * @param log      the log file
+	 * @param position the start of the part
+	 * @param length   the length of the part
+	 * @param target   the output
+	 * @throws IOException if the part can not be copied
+	 */
+	private void copyUnindexed(FileChannel log, long position, long length, WritableByteChannel target)
+			throws IOException {
+		if (scanunindexed) {
+			copy(log, position, length, target);
+			unindexedbytes += length;
+		} else
+			skippedbytes += length;
+	}
+
+	/**
+	 * Copy a part of the log file.
+	 * 
+	 * @param log      the log file
+	 * @param position the start of the part
+	 * @param length   the length of the part
+	 * @param target   the output
+	 * @throws IOException if the part can not be copied
+	 */
+	private static void copy(FileChannel log, long position, long length, WritableByteChannel target)
+			throws IOException {
+		long end = position + length;
+		while (position < end) {
+			long transferred = log.transferTo(position, end - position, target);
+			if (transferred <= 0)
+				throw new EOFException("Log file ended early");
+			position += transferred;
+		}
+	}
+
+	/**
+	 * Get the bit of a {@link Level} in the level bitmap of a block
+	 * 
+	 * @param level the {@link Level}, {@code null} if unknown
+	 * @return the bit
+	 */
+	static long levelBit(Level level) {
+		if (level == null)
+			return 1L << UNKNOWNLEVELBIT;
+		return 1L << levelBitIndex(level.getIntLevel());
+	}
+
+	/**
+	 * Get the index of the bit of a {@link Level#getIntLevel()} in the level
+	 * bitmap of a block
+	 * 
+	 * @param intLevel the {@link Level#getIntLevel()}
+	 * @return the index of the bit, from {@code 0} to
+	 *         {@link LogIndexReader#LASTLEVELBIT}
+	 */
+	private static int levelBitIndex(int intLevel) {
+		return Math.max(0, Math.min(intLevel / LEVELSPERBIT, LASTLEVELBIT));
+	}
+
+	/**
+	 * Get the level bitmap matching a range of {@link Level Levels}, including
+	 * unknown ones and {@link Level Levels} not registered in this program
+	 * 
+	 * @param mostsevere  the most severe {@link Level}, {@code null} for no limit
+	 * @param leastsevere the least severe {@link Level}, {@code null} for no limit
+	 * @return the bitmap
+	 */
+	private static long levelMask(Level mostsevere, Level leastsevere) {
+		int first = mostsevere != null ? levelBitIndex(mostsevere.getIntLevel()) : 0;
+		int last = leastsevere != null ? levelBitIndex(leastsevere.getIntLevel()) : LASTLEVELBIT;
+		long mask = levelBit(null);
+		for (int bit = first; bit <= last; bit++)
+			mask |= 1L << bit;
+		return mask;
+	}
+
+	/**
+	 * Get whether parts of the log file not covered by the index are copied
+	 * 
+	 * @return {@code true} if they are copied, {@code false} if skipped
+	 * @see LogIndexReader#setScanunindexed(boolean)
+	 */
+	public boolean getScanunindexed() {
+		return scanunindexed;
+	}
+
+	/**
+	 * Set whether parts of the log file not covered by the index are copied, as
+	 * they may contain matching messages. Enabled by default.
+	 * 
+	 * @param scanunindexed {@code true} to copy them, {@code false} to skip them
+	 */
+	public void setScanunindexed(boolean scanunindexed) {
+		this.scanunindexed = scanunindexed;
+	}
+
+	/**
+	 * Get the number of bytes of matching blocks copied by the last read
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getMatchedbytes() {
+		return matchedbytes;
+	}
+
+	/**
+	 * Get the number of bytes not covered by the index copied by the last read
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getUnindexedbytes() {
+		return unindexedbytes;
+	}
+
+	/**
+	 * Get the number of bytes skipped by the last read
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getSkippedbytes() {
+		return skippedbytes;
+	}
+
+}
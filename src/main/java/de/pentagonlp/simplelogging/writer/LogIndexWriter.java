@@ -0,0 +1,188 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.pentagonlp.simplelogging.Level;
+
+/**
+ * Writer of the sidecar index of a log file, see {@link LogIndexReader} for the
+ * format. The log file is split into blocks of whole messages, and one entry
+ * is appended to the index whenever a block reaches the block size. The offset
+ * of the messages is tracked from the length of the log file when it was
+ * opened, without asking the file for its position. Not thread safe, guarded
+ * by the lock of the {@link FileLogWriter} using it.
+ * 
+ * @author PentagonLP
+ */
+final class LogIndexWriter {
+
+	/**
+	 * The index file, opened for appending
+	 */
+	private final FileOutputStream out;
+	/**
+	 * Number of bytes after which a block is ended
+	 */
+	private final long blocksize;
+	/**
+	 * Buffer an entry is encoded in
+	 */
+	private final ByteBuffer entry = ByteBuffer.allocate(LogIndexReader.ENTRYSIZE);
+
+	/**
+	 * Offset of the end of the log file, where the next message is appended
+	 */
+	private long logoffset;
+	/**
+	 * Offset of the current block in the log file, {@code -1} if it is empty
+	 */
+	private long blockoffset = -1;
+	/**
+	 * Length of the current block, in bytes
+	 */
+	private long blocklength = 0;
+	/**
+	 * Earliest timestamp of the messages of the current block, in milliseconds
+	 * since the epoch
+	 */
+	private long firsttime = 0;
+	/**
+	 * Latest timestamp of the messages of the current block, in milliseconds since
+	 * the epoch
+	 */
+	private long lasttime = 0;
+	/**
+	 * The level bits of all messages of the current block
+	 */
+	private long levelbits = 0;
+
+	/**
+	 * Creates a new {@link LogIndexWriter}, writing the header if the index file
+	 * is new. An index file of another format is replaced, the parts of the log
+	 * file it covered are read as unindexed.
+	 * 
+	 * @param filepath  the filepath of the index file
+	 * @param blocksize the number of bytes after which a block is ended
+	 * @param logoffset the length of the log file, where the next message is
+	 *                  appended
+	 * @throws IOException if the index file can not be opened
+	 */
+	LogIndexWriter(String filepath, long blocksize, long logoffset) throws IOException {
+		this.blocksize = blocksize;
+		this.logoffset = logoffset;
+		boolean isnew = !hasHeader(new File(filepath));
+		out = new FileOutputStream(filepath, !isnew);
+		if (isnew) {
+			ByteBuffer header = ByteBuffer.allocate(LogIndexReader.HEADERSIZE);
+			header.putInt(LogIndexReader.MAGIC).putInt(LogIndexReader.VERSION).flip();
+			write(header);
+		}
+	}
+
+	/**
+	 * Get whether an index file starts with the header of the current format
+	 * 
+	 * @param file the index file
+	 * @return {@code true} if it has the header, {@code false} if it is empty,
+	 *         missing or of another format
+	 * @throws IOException if it can not be read
+	 */
+	private static boolean hasHeader(File file) throws IOException {
+		if (file.length() < LogIndexReader.HEADERSIZE)
+			return false;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == LogIndexReader.MAGIC && in.readInt() == LogIndexReader.VERSION;
+		}
+	}
+
+	/**
+	 * Add a message just appended to the log file to the current block, ending the
+	 * block if it reached the block size.
+	 * 
+	 * @param level     the {@link Level} of the message, {@code null} if unknown
+	 * @param bytes     the number of bytes of the message
+	 * @param timenanos the timestamp of the message, in nanoseconds since the
+	 *                  epoch
+	 * @throws IOException if the entry can not be written
+	 */
+	void add(Level level, int bytes, long timenanos) throws IOException {
+		long time = timenanos / 1_000_000;
+		if (blockoffset < 0) {
+			blockoffset = logoffset;
+			firsttime = time;
+			lasttime = time;
+			levelbits = 0;
+		}
+		logoffset += bytes;
+		blocklength += bytes;
+		// Messages may be written out of order, e.g. by several threads or after
+		// being queued
+		firsttime = Math.min(firsttime, time);
+		lasttime = Math.max(lasttime, time);
+		levelbits |= LogIndexReader.levelBit(level);
+		if (blocklength >= blocksize)
+			endBlock();
+	}
+
+	/**
+	 * Continue at a new end of the log file after it was opened again, ending the
+	 * current block. Messages appended by others in the meantime are left
+	 * unindexed.
+	 * 
+	 * @param logoffset the length of the log file, where the next message is
+	 *                  appended
+	 * @throws IOException if the entry can not be written
+	 */
+	void reopened(long logoffset) throws IOException {
+		endBlock();
+		this.logoffset = logoffset;
+	}
+
+	/**
+	 * Append the entry of the current block to the index, if it is not empty.
+	 * 
+	 * @throws IOException if the entry can not be written
+	 */
+	void endBlock() throws IOException {
+		if (blockoffset < 0)
+			return;
+		entry.clear();
+		entry.putLong(blockoffset).putLong(blocklength).putLong(firsttime).putLong(lasttime).putLong(levelbits)
+				.flip();
+		blockoffset = -1;
+		blocklength = 0;
+		write(entry);
+	}
+
+	/**
+	 * End the current block and close the index file.
+	 * 
+	 * @throws IOException if the entry can not be written
+	 */
+	void close() throws IOException {
+		try {
+			endBlock();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write a buffer to the index file completely
+	 * 
+	 * @param buffer the buffer
+	 * @throws IOException if it can not be written
+	 */
+	private void write(ByteBuffer buffer) throws IOException {
+		FileChannel channel = out.getChannel();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+}
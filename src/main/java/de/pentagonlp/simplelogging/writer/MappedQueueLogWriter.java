@@ -0,0 +1,380 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import de.pentagonlp.simplelogging.tools.Utf8Buffer;
+
+/**
+ * {@link de.pentagonlp.simplelogging.LogWriter LogWriter} appending logged
+ * messages to a persistent queue of memory-mapped files, to hand them to a
+ * separate process (e.g. a log shipper) without sockets or a system call per
+ * message. Writing a message is a copy into memory, so the latency of the
+ * logging thread does not depend on the shipping at all. The messages are read
+ * using a {@link MappedQueueTailer}, in the same or another JVM.
+ * <p>
+ * The queue is a directory of segment files of a fixed size, named after their
+ * index (e.g. {@code 0000000000000000.queue}). A segment holds records of
+ * <ul>
+ * <li>the length of the message in bytes plus one, as a 4 byte {@code int},
+ * so an empty message is not mistaken for the end, and</li>
+ * <li>the message, encoded in UTF-8 and padded to a multiple of 4 bytes.</li>
+ * </ul>
+ * The length is written after the message, ordered by a release fence, so a
+ * reader seeing a length always sees the complete message. A length of {@code 0} marks the end of the
+ * written records, a length of {@link MappedQueueLogWriter#ENDOFSEGMENT} marks
+ * that the next record is in the next segment.
+ * <p>
+ * The records are in the page cache of the operating system as soon as they
+ * are written, so they survive a crash of the application. To survive a crash
+ * of the system, call {@link MappedQueueLogWriter#flush()}. Reopening a queue
+ * continues after the last complete record.
+ * 
+ * @author PentagonLP
+ * @see MappedQueueTailer
+ */
+public class MappedQueueLogWriter extends ExceptionOnlyInDebugModeLogWriter {
+
+	/**
+	 * Default size of a segment file, in bytes
+	 */
+	public static final int DEFAULTSEGMENTSIZE = 64 * 1024 * 1024;
+	/**
+	 * Length marking that the next record is in the next segment
+	 */
+	public static final int ENDOFSEGMENT = -1;
+	/**
+	 * File name suffix of the segment files
+	 */
+	public static final String SEGMENTSUFFIX = ".queue";
+	/**
+	 * Size of the length in front of every record, in bytes
+	 */
+	static final int HEADERSIZE = 4;
+
+	/**
+	 * The directory of the queue
+	 */
+	private final File directory;
+	/**
+	 * The size of a segment file, in bytes
+	 */
+	private final int segmentsize;
+	/**
+	 * Buffer the logged messages are encoded in before they are copied into the
+	 * segment. Also the lock for writing.
+	 */
+	private final Utf8Buffer buffer = new Utf8Buffer();
+	/**
+	 * Index of the current segment
+	 */
+	private long segment;
+	/**
+	 * The mapped current segment
+	 */
+	private MappedByteBuffer mapped;
+	/**
+	 * Position of the next record in the current segment
+	 */
+	private int position;
+	/**
+	 * Number of segments to keep, older ones are deleted. {@code 0} to keep all
+	 * segments.
+	 */
+	private volatile int retainedsegments = 0;
+	/**
+	 * Whether {@link MappedQueueLogWriter#close()} was called
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Creates a new {@link MappedQueueLogWriter} with the default segment size.
+	 * 
+	 * @param directory the directory of the queue, created if it does not exist
+	 * @throws IOException              if the queue can not be opened
+	 * @throws IllegalArgumentException if {@code directory} is {@code null}
+	 */
+	public MappedQueueLogWriter(String directory) throws IOException {
+		this(directory, DEFAULTSEGMENTSIZE);
+	}
+
+	/**
+	 * Creates a new {@link MappedQueueLogWriter}. If the queue already exists, new
+	 * messages are appended after the last complete record.
+	 * 
+	 * @param directory   the directory of the queue, created if it does not exist
+	 * @param segmentsize the size of a segment file, in bytes. Only used for new
+	 *                    segments, existing segments keep their size.
+	 * @throws IOException              if the queue can not be opened
+	 * @throws IllegalArgumentException if {@code directory} is {@code null} or
+	 *                                  {@code segmentsize} is less than 1024 bytes
+	 */
+	public MappedQueueLogWriter(String directory, int segmentsize) throws IOException {
+		if (directory == null)
+			throw new IllegalArgumentException("Directory can not be null!");
+		if (segmentsize < 1024)
+			throw new IllegalArgumentException("Segment size must be at least 1024 bytes!");
+		this.directory = new File(directory);
+		this.segmentsize = segmentsize & ~3;
+		this.directory.mkdirs();
+		if (!this.directory.isDirectory())
+			throw new IOException("Can not create directory " + directory);
+
+		long[] segments = listSegments(this.directory);
+		segment = segments.length == 0 ? 0 : segments[segments.length - 1];
+		mapped = map(this.directory, segment, this.segmentsize, false);
+		position = findEnd(mapped);
+	}
+
+	/**
+	 * Append a message to the queue.
+	 * 
+	 * @param logtext the message to write
+	 */
+	@Override
+	public void write(String logtext) {
+		synchronized (buffer) {
+			buffer.reset();
+			buffer.append(logtext);
+			append(buffer);
+		}
+	}
+
+	/**
+	 * Force the records written so far to disk.
+	 */
+	@Override
+	public void flush() {
+		synchronized (buffer) {
+			if (!closed)
+				mapped.force();
+		}
+	}
+
+	/**
+	 * Force the records written so far to disk and stop writing. Messages written
+	 * afterwards are lost. The mapping is released by the garbage collector.
+	 */
+	@Override
+	public void close() {
+		synchronized (buffer) {
+			if (closed)
+				return;
+			mapped.force();
+			closed = true;
+		}
+	}
+
+	/**
+	 * Messages in the queue are not displayed directly, so ansi is not supported.
+	 * 
+	 * @return {@code false}
+	 */
+	@Override
+	public boolean isAnsi() {
+		return false;
+	}
+
+	/**
+	 * Append the {@code StackTrace} of a {@link Throwable} to the queue as a single
+	 * record, after {@link ExceptionOnlyInDebugModeLogWriter} has decided its
+	 * criteria are fulfilled.
+	 * 
+	 * @param t the {@link Throwable} to print the {@code StackTrace} of
+	 */
+	@Override
+	protected void printStackTraceAfterCheck(Throwable t) {
+		StringWriter stacktrace = new StringWriter();
+		t.printStackTrace(new PrintWriter(stacktrace));
+		write(stacktrace.toString());
+	}
+
+	/**
+	 * Get the directory of the queue
+	 * 
+	 * @return the directory of the queue
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the number of segments kept
+	 * 
+	 * @return the number of segments kept, {@code 0} if all segments are kept
+	 * @see MappedQueueLogWriter#setRetainedsegments(int)
+	 */
+	public int getRetainedsegments() {
+		return retainedsegments;
+	}
+
+	/**
+	 * Set the number of segments kept. When a new segment is started, older
+	 * segments are deleted, whether a {@link MappedQueueTailer} has read them or
+	 * not. All segments are kept by default.
+	 * 
+	 * @param retainedsegments the number of segments to keep, {@code 0} to keep
+	 *                         all segments
+	 * @throws IllegalArgumentException if {@code retainedsegments} is negative
+	 */
+	public void setRetainedsegments(int retainedsegments) {
+		if (retainedsegments < 0)
+			throw new IllegalArgumentException("Retained segments can not be negative!");
+		this.retainedsegments = retainedsegments;
+	}
+
+	/**
+	 * Copy an encoded message into the current segment as a record, starting a
+	 * new segment if it does not fit. Messages too large for a segment are
+	 * truncated. Must be called while holding the lock on
+	 * {@link MappedQueueLogWriter#buffer}.
+	 * 
+	 * @param encoded the encoded message
+	 */
+	private void append(Utf8Buffer encoded) {
+		if (closed)
+			return;
+		int length = Math.min(encoded.size(), mapped.capacity() - HEADERSIZE);
+		if (position + recordSize(length) > mapped.capacity()) {
+			try {
+				roll();
+			} catch (IOException e) {
+				// Nevermind, the message is lost
+				return;
+			}
+			length = Math.min(encoded.size(), mapped.capacity() - HEADERSIZE);
+		}
+		mapped.position(position + HEADERSIZE);
+		mapped.put(encoded.array(), 0, length);
+		// Publish the record by writing its length last, ordered after the message
+		MemoryFence.release();
+		mapped.putInt(position, length + 1);
+		position += recordSize(length);
+	}
+
+	/**
+	 * Mark the end of the current segment and start the next one. Must be called
+	 * while holding the lock on {@link MappedQueueLogWriter#buffer}.
+	 * 
+	 * @throws IOException if the next segment can not be created
+	 */
+	private void roll() throws IOException {
+		MappedByteBuffer next = map(directory, segment + 1, segmentsize, false);
+		if (position + HEADERSIZE <= mapped.capacity()) {
+			MemoryFence.release();
+			mapped.putInt(position, ENDOFSEGMENT);
+		}
+		mapped = next;
+		segment++;
+		position = 0;
+
+		int retainedsegments = this.retainedsegments;
+		if (retainedsegments > 0) {
+			for (long old : listSegments(directory)) {
+				if (old <= segment - retainedsegments)
+					segmentFile(directory, old).delete();
+			}
+		}
+	}
+
+	/**
+	 * Get the size of a record, including the length and the padding
+	 * 
+	 * @param length the length of the message, in bytes
+	 * @return the size of the record, in bytes
+	 */
+	static int recordSize(int length) {
+		return HEADERSIZE + ((length + 3) & ~3);
+	}
+
+	/**
+	 * Get the file of a segment
+	 * 
+	 * @param directory the directory of the queue
+	 * @param segment   the index of the segment
+	 * @return the file of the segment
+	 */
+	static File segmentFile(File directory, long segment) {
+		return new File(directory, String.format("%016d", segment) + SEGMENTSUFFIX);
+	}
+
+	/**
+	 * Get the indices of all segments of a queue
+	 * 
+	 * @param directory the directory of the queue
+	 * @return the indices of the segments, in ascending order
+	 */
+	static long[] listSegments(File directory) {
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENTSUFFIX);
+			}
+		});
+		if (names == null)
+			return new long[0];
+		long[] segments = new long[names.length];
+		int count = 0;
+		for (String name : names) {
+			try {
+				segments[count] = Long.parseLong(name.substring(0, name.length() - SEGMENTSUFFIX.length()));
+				count++;
+			} catch (NumberFormatException e) {
+				// Nevermind, not a segment
+			}
+		}
+		segments = Arrays.copyOf(segments, count);
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Map a segment into memory. The mapping stays valid after the file is closed.
+	 * 
+	 * @param directory   the directory of the queue
+	 * @param segment     the index of the segment
+	 * @param segmentsize the size of the segment, if it is created
+	 * @param readonly    {@code true} to map the segment read only, it is not
+	 *                    created then
+	 * @return the mapped segment
+	 * @throws IOException if the segment can not be mapped
+	 */
+	static MappedByteBuffer map(File directory, long segment, int segmentsize, boolean readonly)
+			throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile(directory, segment), readonly ? "r" : "rw")) {
+			if (!readonly && file.length() == 0)
+				file.setLength(segmentsize);
+			int size = (int) Math.min(file.length(), Integer.MAX_VALUE) & ~3;
+			return file.getChannel().map(readonly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+					0, size);
+		}
+	}
+
+	/**
+	 * Find the position after the last complete record of a segment
+	 * 
+	 * @param mapped the mapped segment
+	 * @return the position after the last record, the capacity of the segment if
+	 *         the segment is full
+	 */
+	private static int findEnd(MappedByteBuffer mapped) {
+		int position = 0;
+		while (position + HEADERSIZE <= mapped.capacity()) {
+			int length = mapped.getInt(position);
+			if (length == 0)
+				return position;
+			if (length < 0)
+				return mapped.capacity();
+			position += recordSize(length - 1);
+		}
+		return mapped.capacity();
+	}
+
+}
@@ -0,0 +1,267 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of the messages appended to a queue by a {@link MappedQueueLogWriter},
+ * in the same or another JVM, e.g. a log shipper. Every {@link MappedQueueTailer}
+ * has a name and its own read position, persisted in the file
+ * {@code <name>.position} in the directory of the queue, so a restarted reader
+ * continues where it stopped. Several readers with different names can read the
+ * same queue independently.
+ * <p>
+ * A {@link MappedQueueTailer} is not thread safe.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code MappedQueueTailer tailer = new MappedQueueTailer("logqueue", "shipper");}
+ * <br>
+ * {@code String message;} <br>
+ * {@code while ((message = tailer.poll(1000)) != null) ship(message);}
+ * 
+ * @author PentagonLP
+ */
+public class MappedQueueTailer {
+
+	/**
+	 * File name suffix of the position files
+	 */
+	public static final String POSITIONSUFFIX = ".position";
+	/**
+	 * Time to wait between polls in {@link MappedQueueTailer#poll(long)}, in
+	 * milliseconds
+	 */
+	private static final long POLLINTERVAL = 1;
+	/**
+	 * Size of the position file, in bytes
+	 */
+	private static final int POSITIONSIZE = 8;
+
+	/**
+	 * The directory of the queue
+	 */
+	private final File directory;
+	/**
+	 * The name of this reader
+	 */
+	private final String name;
+	/**
+	 * The mapped position file: a single {@code long}, the index of the segment in
+	 * the upper and the position in the segment in the lower 32 bits. Written by a
+	 * single store, so a crash can not leave a segment with the position of
+	 * another one.
+	 */
+	private final MappedByteBuffer positionfile;
+	/**
+	 * Index of the current segment
+	 */
+	private long segment;
+	/**
+	 * Position of the next record in the current segment
+	 */
+	private int offset;
+	/**
+	 * The mapped current segment, {@code null} if not mapped yet
+	 */
+	private MappedByteBuffer mapped = null;
+
+	/**
+	 * Creates a new {@link MappedQueueTailer}. If a reader of the same name read
+	 * the queue before, reading continues at its persisted position, otherwise at
+	 * the oldest message in the queue.
+	 * 
+	 * @param directory the directory of the queue
+	 * @param name      the name of this reader
+	 * @throws IOException              if the position file can not be opened
+	 * @throws IllegalArgumentException if {@code directory} or {@code name} is
+	 *                                  {@code null}
+	 */
+	public MappedQueueTailer(String directory, String name) throws IOException {
+		if (directory == null)
+			throw new IllegalArgumentException("Directory can not be null!");
+		if (name == null)
+			throw new IllegalArgumentException("Name can not be null!");
+		this.directory = new File(directory);
+		this.name = name;
+		this.directory.mkdirs();
+
+		File file = new File(this.directory, name + POSITIONSUFFIX);
+		boolean exists = file.length() == POSITIONSIZE;
+		try (RandomAccessFile positionraf = new RandomAccessFile(file, "rw")) {
+			positionraf.setLength(POSITIONSIZE);
+			positionfile = positionraf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, POSITIONSIZE);
+		}
+		if (exists) {
+			long position = positionfile.getLong(0);
+			segment = position >>> 32;
+			offset = (int) position;
+		} else {
+			long[] segments = MappedQueueLogWriter.listSegments(this.directory);
+			segment = segments.length == 0 ? 0 : segments[0];
+			offset = 0;
+			persist();
+		}
+	}
+
+	/**
+	 * Read the next message, if there is one.
+	 * 
+	 * @return the next message, {@code null} if there is no new message
+	 */
+	public String poll() {
+		while (true) {
+			if (mapped == null && !mapSegment())
+				return null;
+			if (offset + MappedQueueLogWriter.HEADERSIZE > mapped.capacity()) {
+				if (!nextSegment())
+					return null;
+				continue;
+			}
+			int header = mapped.getInt(offset);
+			if (header == 0)
+				return null;
+			// Read the message only after its length, matching the release of the writer
+			MemoryFence.acquire();
+			if (header < 0) {
+				if (!nextSegment())
+					return null;
+				continue;
+			}
+
+			int length = header - 1;
+			if (length > mapped.capacity() - offset - MappedQueueLogWriter.HEADERSIZE) {
+				// Nevermind, a corrupt length, continue like at the end of the segment
+				if (!nextSegment())
+					return null;
+				continue;
+			}
+			byte[] bytes = new byte[length];
+			ByteBuffer record = mapped.duplicate();
+			record.position(offset + MappedQueueLogWriter.HEADERSIZE);
+			record.get(bytes);
+			offset += MappedQueueLogWriter.recordSize(length);
+			persist();
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Read the next message, waiting for one if there is none yet. If the calling
+	 * thread is interrupted while waiting, it returns early and keeps its interrupt
+	 * status.
+	 * 
+	 * @param timeoutmillis the maximum time to wait, in milliseconds
+	 * @return the next message, {@code null} if there was no new message in time
+	 */
+	public String poll(long timeoutmillis) {
+		long deadline = System.currentTimeMillis() + timeoutmillis;
+		while (true) {
+			String message = poll();
+			if (message != null || System.currentTimeMillis() >= deadline)
+				return message;
+			try {
+				Thread.sleep(POLLINTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Force the read position to disk. The read position survives a crash of the
+	 * reader anyway, this is only needed to survive a crash of the system.
+	 */
+	public void close() {
+		positionfile.force();
+	}
+
+	/**
+	 * Get the name of this reader
+	 * 
+	 * @return the name of this reader
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the index of the segment read
+	 * 
+	 * @return the index of the segment read
+	 */
+	public long getSegment() {
+		return segment;
+	}
+
+	/**
+	 * Get the position of the next record in the segment read
+	 * 
+	 * @return the position in the segment read, in bytes
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Map the current segment. If it was deleted, continue at the oldest segment
+	 * still there.
+	 * 
+	 * @return {@code true} if the segment is mapped, {@code false} if it does not
+	 *         exist yet
+	 */
+	private boolean mapSegment() {
+		File file = MappedQueueLogWriter.segmentFile(directory, segment);
+		if (!file.exists()) {
+			boolean skipped = false;
+			for (long existing : MappedQueueLogWriter.listSegments(directory)) {
+				if (existing > segment) {
+					segment = existing;
+					offset = 0;
+					skipped = true;
+					break;
+				}
+			}
+			if (!skipped)
+				return false;
+		}
+		try {
+			MappedByteBuffer segmentmapped = MappedQueueLogWriter.map(directory, segment, 0, true);
+			// Nevermind, the writer is still creating it
+			if (segmentmapped.capacity() == 0)
+				return false;
+			mapped = segmentmapped;
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Continue at the next segment, if it exists
+	 * 
+	 * @return {@code true} if there is a next segment, {@code false} if not
+	 */
+	private boolean nextSegment() {
+		if (!MappedQueueLogWriter.segmentFile(directory, segment + 1).exists())
+			return false;
+		segment++;
+		offset = 0;
+		mapped = null;
+		persist();
+		return true;
+	}
+
+	/**
+	 * Write the read position to the position file, in a single store.
+	 */
+	private void persist() {
+		positionfile.putLong(0, segment << 32 | (offset & 0xFFFFFFFFL));
+	}
+
+}
@@ -0,0 +1,100 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences ordering the plain accesses to memory-mapped files shared with
+ * other threads or processes, used by the {@link MappedQueueLogWriter} to
+ * publish a record and by the {@link MappedQueueTailer} to read it. The fences
+ * of {@code sun.misc.Unsafe} are used, available since Java 8. If they are not
+ * accessible, volatile accesses are used instead, which fence at least as
+ * strongly.
+ * 
+ * @author PentagonLP
+ */
+final class MemoryFence {
+
+	/**
+	 * {@code Unsafe.storeFence()}, bound to the {@code Unsafe} instance,
+	 * {@code null} if not accessible
+	 */
+	private static final MethodHandle STOREFENCE;
+	/**
+	 * {@code Unsafe.loadFence()}, bound to the {@code Unsafe} instance,
+	 * {@code null} if not accessible
+	 */
+	private static final MethodHandle LOADFENCE;
+
+	/**
+	 * Target of the volatile accesses if the fences of {@code sun.misc.Unsafe} are
+	 * not accessible
+	 */
+	private static volatile int fallback = 0;
+
+	static {
+		MethodHandle storefence = null;
+		MethodHandle loadfence = null;
+		try {
+			Class<?> unsafeclass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeclass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			storefence = lookup.unreflect(unsafeclass.getMethod("storeFence")).bindTo(unsafe);
+			loadfence = lookup.unreflect(unsafeclass.getMethod("loadFence")).bindTo(unsafe);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Nevermind, fall back to volatile accesses
+			storefence = null;
+			loadfence = null;
+		}
+		STOREFENCE = storefence;
+		LOADFENCE = loadfence;
+	}
+
+	/**
+	 * Utility class, not to be instantiated
+	 */
+	private MemoryFence() {
+	}
+
+	/**
+	 * Release fence: no load or store before the fence is reordered with a store
+	 * after it. Call before the store publishing the data written before.
+	 */
+	static void release() {
+		if (STOREFENCE != null) {
+			try {
+				STOREFENCE.invokeExact();
+				return;
+			} catch (Throwable e) {
+				// Nevermind, fall back to volatile accesses
+			}
+		}
+		// The volatile write orders the accesses before it, the volatile read the
+		// accesses after it
+		fallback = 0;
+		if (fallback != 0)
+			fallback = 0;
+	}
+
+	/**
+	 * Acquire fence: no load before the fence is reordered with a load or store
+	 * after it. Call after the load of the publishing store, before reading the
+	 * published data.
+	 */
+	static void acquire() {
+		if (LOADFENCE != null) {
+			try {
+				LOADFENCE.invokeExact();
+				return;
+			} catch (Throwable e) {
+				// Nevermind, fall back to a volatile read
+			}
+		}
+		if (fallback != 0)
+			fallback = 0;
+	}
+
+}
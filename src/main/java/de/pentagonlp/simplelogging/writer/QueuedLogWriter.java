@@ -0,0 +1,1016 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.LogWriter;
+
+/**
+ * {@link LogWriter} putting a queue in front of another {@link LogWriter}.
+ * Messages are written to the queue on the callers' thread and written to the
+ * wrapped {@link LogWriter} by a background thread, so a slow output does not
+ * slow down the caller.
+ * <p>
+ * The queue is bounded by the estimated number of bytes of all queued messages,
+ * not by their count. If the queue is full, the {@link BackpressurePolicy}
+ * decides what happens with new messages. Dropped messages are counted, and a
+ * summary is written to the wrapped {@link LogWriter} periodically.
+ * <p>
+ * Messages can be sorted into priority lanes by their {@link Level} (See
+ * {@link QueuedLogWriter#setLanes(int...)}), so e.g. errors are written before
+ * the debug messages queued in front of them. Every message gets a global
+ * sequence number when it is queued, which can be written in front of the
+ * message to restore the original order later (See
+ * {@link QueuedLogWriter#setSequencenumbers(boolean)}).
+ * <p>
+ * By default, the background thread adapts its batch size and flush interval
+ * to the load (See {@link QueuedLogWriter#setAdaptive(boolean)}): when idle, it
+ * writes small batches and flushes the wrapped {@link LogWriter} after every
+ * batch. Under bursts, the batches grow and flushes become rarer, up to a batch
+ * size bounded by the observed write latency, so messages of higher priority
+ * lanes never wait long. The current parameters are visible through
+ * {@link QueuedLogWriter#getBatchsize()},
+ * {@link QueuedLogWriter#getFlushinterval()} and
+ * {@link QueuedLogWriter#getWritelatency()}.
+ * <p>
+ * <b>Example:</b> <br>
+ * {@code new Logger(new QueuedLogWriter(new FileLogWriter("log.txt"), 16 * 1024 * 1024, BackpressurePolicy.DROP_BELOW_LEVEL));}
+ * 
+ * @author PentagonLP
+ */
+public class QueuedLogWriter implements LogWriter {
+
+	/**
+	 * Default maximum number of bytes of all queued messages
+	 */
+	public static final long DEFAULTMAXQUEUEDBYTES = 8 * 1024 * 1024;
+	/**
+	 * Default {@link BackpressurePolicy}
+	 */
+	public static final BackpressurePolicy DEFAULTPOLICY = BackpressurePolicy.BLOCK;
+	/**
+	 * Default drop level for {@link BackpressurePolicy#DROP_BELOW_LEVEL}
+	 * 
+	 * @see QueuedLogWriter#setDroplevel(Level)
+	 */
+	private static final Level DEFAULTDROPLEVEL = Level.WARNING;
+	/**
+	 * Default interval of the summary of dropped messages, in milliseconds
+	 * 
+	 * @see QueuedLogWriter#setSummaryinterval(long)
+	 */
+	private static final long DEFAULTSUMMARYINTERVAL = 10_000;
+	/**
+	 * Estimated number of bytes used by a queued message, in addition to its text
+	 */
+	private static final long MESSAGEOVERHEAD = 64;
+	/**
+	 * Estimated number of bytes used by a queued {@link Throwable}
+	 */
+	private static final long THROWABLESIZE = 4096;
+	/**
+	 * Number of messages of a lane written in one batch, before the background
+	 * thread checks the lanes of higher priority again, if not adaptive
+	 */
+	private static final int DEFAULTBATCHSIZE = 256;
+	/**
+	 * Minimum batch size if adaptive
+	 */
+	private static final int MINBATCHSIZE = 16;
+	/**
+	 * Maximum batch size if adaptive
+	 */
+	private static final int MAXBATCHSIZE = 4096;
+	/**
+	 * Maximum estimated time to write one batch if adaptive, in nanoseconds. Bounds
+	 * the time messages of higher priority lanes wait for the current batch.
+	 */
+	private static final long MAXBATCHNANOS = 20_000_000;
+	/**
+	 * Flush interval of the lowest priority lane at the start of a burst if
+	 * adaptive, in milliseconds
+	 */
+	private static final long MINFLUSHINTERVAL = 1;
+	/**
+	 * Maximum flush interval of the lowest priority lane if adaptive, in
+	 * milliseconds
+	 */
+	private static final long MAXFLUSHINTERVAL = 1000;
+
+	/**
+	 * The wrapped {@link LogWriter}, written to by the background thread
+	 */
+	private final LogWriter writer;
+	/**
+	 * The {@link LogWriter} written to on {@link BackpressurePolicy#SPILL},
+	 * {@code null} for all other policies
+	 */
+	private final LogWriter fallbackwriter;
+	/**
+	 * Maximum number of bytes of all queued messages
+	 */
+	private final long maxqueuedbytes;
+	/**
+	 * The {@link BackpressurePolicy} applied if the queue is full
+	 */
+	private final BackpressurePolicy policy;
+	/**
+	 * Messages less severe than this {@link Level} are dropped if the queue is full
+	 * and the policy is {@link BackpressurePolicy#DROP_BELOW_LEVEL}
+	 */
+	private volatile Level droplevel = DEFAULTDROPLEVEL;
+	/**
+	 * Interval of the summary of dropped messages, in milliseconds
+	 */
+	private volatile long summaryinterval = DEFAULTSUMMARYINTERVAL;
+	/**
+	 * Whether the sequence number of a message is written in front of it
+	 */
+	private volatile boolean sequencenumbers = false;
+	/**
+	 * Whether batch size and flush interval adapt to the load
+	 */
+	private volatile boolean adaptive = true;
+	/**
+	 * The current batch size, only changed by the background thread
+	 */
+	private volatile int batchsize = DEFAULTBATCHSIZE;
+	/**
+	 * The current flush interval of the lowest priority lane, in milliseconds, only
+	 * changed by the background thread. {@code 0} flushes after every batch.
+	 */
+	private volatile long flushinterval = 0;
+	/**
+	 * Moving average of the time to write one message to the wrapped
+	 * {@link LogWriter}, in nanoseconds, only changed by the background thread
+	 */
+	private volatile long writelatency = 0;
+
+	/**
+	 * Lock guarding all fields below
+	 */
+	private final Object lock = new Object();
+	/**
+	 * The {@link Level#getIntLevel()} thresholds of the priority lanes, ascending.
+	 * A message goes into the first lane whose threshold is greater than or equal
+	 * to its {@link Level#getIntLevel()}, or into the last lane if there is none.
+	 */
+	private int[] lanethresholds = new int[0];
+	/**
+	 * The queued messages per priority lane, highest priority first. Within a
+	 * lane, the oldest message is first.
+	 */
+	private ArrayDeque<QueuedMessage>[] lanes = createLanes(1);
+	/**
+	 * Number of messages queued in all lanes
+	 */
+	private int queued = 0;
+	/**
+	 * The sequence number given to the next queued message
+	 */
+	private long nextsequence = 0;
+	/**
+	 * Estimated number of bytes of all queued messages, including those currently
+	 * written by the background thread
+	 */
+	private long queuedbytes = 0;
+	/**
+	 * Number of messages currently written by the background thread
+	 */
+	private int inflight = 0;
+	/**
+	 * The lowest sequence number of the messages currently written by the
+	 * background thread, valid if {@link QueuedLogWriter#inflight} is not
+	 * {@code 0}
+	 */
+	private long inflightsequence = 0;
+	/**
+	 * Whether {@link QueuedLogWriter#close()} was called
+	 */
+	private boolean closed = false;
+	/**
+	 * Number of messages dropped since the last summary, per {@link Level} name
+	 */
+	private final LinkedHashMap<String, Long> droppedsincesummary = new LinkedHashMap<>();
+	/**
+	 * Number of bytes dropped since the last summary
+	 */
+	private long droppedbytessincesummary = 0;
+	/**
+	 * Total number of messages dropped
+	 */
+	private long dropped = 0;
+	/**
+	 * Total number of messages written to the fallback writer
+	 */
+	private long spilled = 0;
+
+	/**
+	 * The background thread writing queued messages to the wrapped
+	 * {@link LogWriter}
+	 */
+	private final Thread worker;
+
+	/**
+	 * Creates a new {@link QueuedLogWriter} using the default maximum queue size
+	 * and the default {@link BackpressurePolicy}, {@link BackpressurePolicy#BLOCK}.
+	 * 
+	 * @param writer the {@link LogWriter} to write the queued messages to
+	 * @throws IllegalArgumentException if {@code writer} is {@code null}
+	 */
+	public QueuedLogWriter(LogWriter writer) {
+		this(writer, DEFAULTMAXQUEUEDBYTES, DEFAULTPOLICY);
+	}
+
+	/**
+	 * Creates a new {@link QueuedLogWriter}.
+	 * 
+	 * @param writer         the {@link LogWriter} to write the queued messages to
+	 * @param maxqueuedbytes the maximum number of bytes of all queued messages
+	 * @param policy         the {@link BackpressurePolicy} applied if the queue is
+	 *                       full
+	 * @throws IllegalArgumentException if {@code writer} or {@code policy} is
+	 *                                  {@code null}, {@code maxqueuedbytes} is not
+	 *                                  positive or {@code policy} is
+	 *                                  {@link BackpressurePolicy#SPILL} (use
+	 *                                  {@link QueuedLogWriter#QueuedLogWriter(LogWriter, long, LogWriter)}
+	 *                                  instead)
+	 */
+	public QueuedLogWriter(LogWriter writer, long maxqueuedbytes, BackpressurePolicy policy) {
+		this(writer, maxqueuedbytes, policy, null);
+	}
+
+	/**
+	 * Creates a new {@link QueuedLogWriter} spilling messages to a fallback
+	 * {@link LogWriter} if the queue is full ({@link BackpressurePolicy#SPILL}).
+	 * 
+	 * @param writer         the {@link LogWriter} to write the queued messages to
+	 * @param maxqueuedbytes the maximum number of bytes of all queued messages
+	 * @param fallbackwriter the {@link LogWriter} to write messages to if the queue
+	 *                       is full
+	 * @throws IllegalArgumentException if {@code writer} or {@code fallbackwriter}
+	 *                                  is {@code null} or {@code maxqueuedbytes} is
+	 *                                  not positive
+	 */
+	public QueuedLogWriter(LogWriter writer, long maxqueuedbytes, LogWriter fallbackwriter) {
+		this(writer, maxqueuedbytes, BackpressurePolicy.SPILL, fallbackwriter);
+	}
+
+	/**
+	 * Creates a new {@link QueuedLogWriter} and starts its background thread.
+	 * 
+	 * @param writer         the {@link LogWriter} to write the queued messages to
+	 * @param maxqueuedbytes the maximum number of bytes of all queued messages
+	 * @param policy         the {@link BackpressurePolicy} applied if the queue is
+	 *                       full
+	 * @param fallbackwriter the {@link LogWriter} to write messages to on
+	 *                       {@link BackpressurePolicy#SPILL}
+	 */
+	private QueuedLogWriter(LogWriter writer, long maxqueuedbytes, BackpressurePolicy policy,
+			LogWriter fallbackwriter) {
+		if (writer == null)
+			throw new IllegalArgumentException("Writer can not be null!");
+		if (policy == null)
+			throw new IllegalArgumentException("Policy can not be null!");
+		if (maxqueuedbytes <= 0)
+			throw new IllegalArgumentException("Maximum queued bytes must be positive!");
+		if (policy == BackpressurePolicy.SPILL && fallbackwriter == null)
+			throw new IllegalArgumentException("Policy SPILL needs a fallback writer!");
+		this.writer = writer;
+		this.maxqueuedbytes = maxqueuedbytes;
+		this.policy = policy;
+		this.fallbackwriter = fallbackwriter;
+
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "QueuedLogWriter");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Queue a message to be written, without knowing its {@link Level}. The
+	 * message is treated as never to be dropped by
+	 * {@link BackpressurePolicy#DROP_BELOW_LEVEL}.
+	 * 
+	 * @param logtext the message to write
+	 */
+	@Override
+	public void write(String logtext) {
+		write(logtext, null);
+	}
+
+	/**
+	 * Queue a message to be written, with the current time as its timestamp. If
+	 * the queue is full, the {@link BackpressurePolicy} is applied.
+	 * 
+	 * @param logtext the message to write
+	 * @param level   the {@link Level} of the message
+	 */
+	@Override
+	public void write(String logtext, Level level) {
+		write(logtext, level, System.currentTimeMillis() * 1_000_000L);
+	}
+
+	/**
+	 * Queue a message to be written. The timestamp is passed on to the wrapped
+	 * {@link LogWriter}, so it is not replaced by the time the message is written.
+	 * If the queue is full, the {@link BackpressurePolicy} is applied.
+	 * 
+	 * @param logtext   the message to write
+	 * @param level     the {@link Level} of the message
+	 * @param timenanos the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 */
+	@Override
+	public void write(String logtext, Level level, long timenanos) {
+		enqueue(new QueuedMessage(logtext, null, level, timenanos));
+	}
+
+	/**
+	 * Queue the {@code StackTrace} of a {@link Throwable} to be written. Stack
+	 * traces are treated like {@link Level#ERROR} messages and never dropped.
+	 * 
+	 * @param t the {@link Throwable} to write the {@code StackTrace} of
+	 */
+	@Override
+	public void printStackTrace(Throwable t) {
+		enqueue(new QueuedMessage(null, t, Level.ERROR, 0));
+	}
+
+	/**
+	 * Get whether the wrapped {@link LogWriter} supports ansi.
+	 * 
+	 * @return {@code true} if it supports ansi, {@code false} if it doesn't
+	 */
+	@Override
+	public boolean isAnsi() {
+		return writer.isAnsi();
+	}
+
+	/**
+	 * Wait until all messages queued so far are written to the wrapped
+	 * {@link LogWriter}, then flush it. Messages queued while waiting are not
+	 * waited for, so producers logging continuously can not keep it from
+	 * returning. If the calling thread is interrupted while waiting, it returns
+	 * early and keeps its interrupt status.
+	 */
+	@Override
+	public void flush() {
+		synchronized (lock) {
+			long target = nextsequence;
+			while (oldestPending() < target) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Get the lowest sequence number of all messages not written yet. Lanes are
+	 * ordered by sequence number, so only their first messages are checked. Must
+	 * be called while holding {@link QueuedLogWriter#lock}.
+	 * 
+	 * @return the lowest sequence number, {@link Long#MAX_VALUE} if all messages
+	 *         are written
+	 */
+	private long oldestPending() {
+		long oldest = inflight > 0 ? inflightsequence : Long.MAX_VALUE;
+		for (ArrayDeque<QueuedMessage> lane : lanes) {
+			QueuedMessage first = lane.peekFirst();
+			if (first != null)
+				oldest = Math.min(oldest, first.sequence);
+		}
+		return oldest;
+	}
+
+	/**
+	 * Write all queued messages, stop the background thread and close the wrapped
+	 * {@link LogWriter}. Messages written after closing started are dropped and
+	 * counted by {@link QueuedLogWriter#getDropped()}: the background thread is
+	 * the only one writing to the wrapped {@link LogWriter}, and it is closed
+	 * afterwards. If the calling thread is interrupted while waiting, it returns
+	 * early and keeps its interrupt status.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		writer.close();
+		if (fallbackwriter != null)
+			fallbackwriter.flush();
+	}
+
+	/**
+	 * Put a message into the queue, applying the {@link BackpressurePolicy} if the
+	 * queue is full.
+	 * 
+	 * @param message the message to queue
+	 */
+	private void enqueue(QueuedMessage message) {
+		boolean spill = false;
+		synchronized (lock) {
+			if (closed) {
+				drop(message);
+				return;
+			}
+			boolean critical = isCritical(message.level);
+			boolean interrupted = false;
+			while (queuedbytes + message.bytes > maxqueuedbytes && (queued > 0 || inflight > 0) && !closed) {
+				if (!critical) {
+					if (policy == BackpressurePolicy.DROP_NEWEST) {
+						drop(message);
+						return;
+					}
+					if (policy == BackpressurePolicy.DROP_BELOW_LEVEL && message.level != null
+							&& message.level.getIntLevel() > droplevel.getIntLevel()) {
+						drop(message);
+						return;
+					}
+					if (policy == BackpressurePolicy.SPILL) {
+						spill = true;
+						spilled++;
+						break;
+					}
+				}
+				if (policy == BackpressurePolicy.DROP_OLDEST && dropOldest())
+					continue;
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					// Rather exceed the limit than lose the message
+					interrupted = true;
+					break;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (closed && !spill) {
+				// Closed while waiting for space
+				drop(message);
+				return;
+			}
+			if (!spill) {
+				message.sequence = nextsequence++;
+				lanes[laneOf(message.level)].addLast(message);
+				queued++;
+				queuedbytes += message.bytes;
+				lock.notifyAll();
+			}
+		}
+		if (spill)
+			message.writeTo(fallbackwriter);
+	}
+
+	/**
+	 * Drop the oldest queued message that is allowed to be dropped. Must be called
+	 * while holding {@link QueuedLogWriter#lock}.
+	 * 
+	 * @return {@code true} if a message was dropped, {@code false} if all queued
+	 *         messages must be kept
+	 */
+	private boolean dropOldest() {
+		// Lowest priority lanes first
+		for (int lane = lanes.length - 1; lane >= 0; lane--) {
+			Iterator<QueuedMessage> iterator = lanes[lane].iterator();
+			while (iterator.hasNext()) {
+				QueuedMessage message = iterator.next();
+				if (!isCritical(message.level)) {
+					iterator.remove();
+					queued--;
+					queuedbytes -= message.bytes;
+					drop(message);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the priority lane of a message. Must be called while holding
+	 * {@link QueuedLogWriter#lock}.
+	 * 
+	 * @param level the {@link Level} of the message
+	 * @return the index of the lane in {@link QueuedLogWriter#lanes}
+	 */
+	private int laneOf(Level level) {
+		if (level == null)
+			return lanethresholds.length;
+		for (int lane = 0; lane < lanethresholds.length; lane++) {
+			if (level.getIntLevel() <= lanethresholds[lane])
+				return lane;
+		}
+		return lanethresholds.length;
+	}
+
+	/**
+	 * Create the array of priority lanes
+	 * 
+	 * @param count the number of lanes
+	 * @return the array of empty lanes
+	 */
+	@SuppressWarnings("unchecked")
+	private static ArrayDeque<QueuedMessage>[] createLanes(int count) {
+		// Generic arrays can not be created, the cast is safe as only empty lanes of
+		// QueuedMessages are put in
+		ArrayDeque<QueuedMessage>[] lanes = (ArrayDeque<QueuedMessage>[]) new ArrayDeque<?>[count];
+		for (int lane = 0; lane < count; lane++)
+			lanes[lane] = new ArrayDeque<>();
+		return lanes;
+	}
+
+	/**
+	 * Count a dropped message. Must be called while holding
+	 * {@link QueuedLogWriter#lock}.
+	 * 
+	 * @param message the dropped message
+	 */
+	private void drop(QueuedMessage message) {
+		String levelname = message.level == null ? "unknown" : message.level.getName();
+		Long count = droppedsincesummary.get(levelname);
+		droppedsincesummary.put(levelname, count == null ? 1 : count + 1);
+		droppedbytessincesummary += message.bytes;
+		dropped++;
+	}
+
+	/**
+	 * Main loop of the background thread: take a batch of queued messages from the
+	 * lane with the highest priority, write them to the wrapped {@link LogWriter}
+	 * and periodically write a summary of dropped messages. Batches of all lanes
+	 * but the lowest priority one are flushed immediately, the lowest priority one
+	 * is flushed according to the flush interval if adaptive.
+	 */
+	private void work() {
+		ArrayList<QueuedMessage> batch = new ArrayList<>();
+		long nextsummary = System.currentTimeMillis() + summaryinterval;
+		long lastflush = System.currentTimeMillis();
+		while (true) {
+			String summary = null;
+			boolean exit = false;
+			boolean priority = false;
+			boolean adapt = adaptive;
+			int limit = adapt ? batchsize : DEFAULTBATCHSIZE;
+			int backlog;
+			synchronized (lock) {
+				while (queued == 0 && !closed) {
+					long wait = nextsummary - System.currentTimeMillis();
+					if (wait <= 0)
+						break;
+					try {
+						lock.wait(wait);
+					} catch (InterruptedException e) {
+						// Keep working, the thread is stopped using close()
+					}
+				}
+				for (int lane = 0; lane < lanes.length; lane++) {
+					if (lanes[lane].isEmpty())
+						continue;
+					while (!lanes[lane].isEmpty() && batch.size() < limit)
+						batch.add(lanes[lane].pollFirst());
+					priority = lane < lanes.length - 1;
+					break;
+				}
+				queued -= batch.size();
+				backlog = queued;
+				inflight = batch.size();
+				if (!batch.isEmpty())
+					inflightsequence = batch.get(0).sequence;
+				if (closed && batch.isEmpty())
+					exit = true;
+				if (exit || System.currentTimeMillis() >= nextsummary) {
+					summary = createSummary();
+					nextsummary = System.currentTimeMillis() + summaryinterval;
+				}
+			}
+
+			long writtenbytes = 0;
+			boolean writesequence = sequencenumbers;
+			long start = System.nanoTime();
+			for (QueuedMessage message : batch) {
+				try {
+					if (writesequence && message.text != null)
+						writer.write("#" + message.sequence + " " + message.text, message.level, message.timenanos);
+					else
+						message.writeTo(writer);
+				} catch (RuntimeException e) {
+					// A failing writer must not stop the background thread
+				}
+				writtenbytes += message.bytes;
+			}
+			if (adapt && !batch.isEmpty())
+				adapt(batch.size(), limit, backlog, System.nanoTime() - start);
+			if (priority || adapt && !batch.isEmpty()
+					&& System.currentTimeMillis() - lastflush >= flushinterval) {
+				lastflush = System.currentTimeMillis();
+				try {
+					writer.flush();
+				} catch (RuntimeException e) {
+					// Nevermind, the messages are written anyway
+				}
+			}
+			batch.clear();
+			if (summary != null) {
+				try {
+					writer.write(summary, Level.WARNING);
+				} catch (RuntimeException e) {
+					// A failing writer must not stop the background thread
+				}
+			}
+
+			synchronized (lock) {
+				queuedbytes -= writtenbytes;
+				inflight = 0;
+				lock.notifyAll();
+			}
+			if (exit)
+				return;
+		}
+	}
+
+	/**
+	 * Adapt batch size and flush interval after a batch was written. If the
+	 * backlog left behind is at least a full batch, the batch size doubles and the
+	 * flush interval grows. If the queue is empty, both shrink back, so an idle
+	 * writer flushes every message immediately. The batch size is bounded by
+	 * {@link QueuedLogWriter#MAXBATCHNANOS} divided by the average write latency.
+	 * Only called by the background thread.
+	 * 
+	 * @param size      the number of messages written
+	 * @param limit     the batch size the batch was taken with
+	 * @param backlog   the number of messages queued after the batch was taken
+	 * @param writetime the time taken to write the batch, in nanoseconds
+	 */
+	private void adapt(int size, int limit, int backlog, long writetime) {
+		long latency = writetime / size;
+		// Moving average, weighting the last batch with 1/8
+		writelatency = writelatency == 0 ? latency : writelatency + (latency - writelatency) / 8;
+
+		int newbatchsize = limit;
+		if (backlog >= limit) {
+			newbatchsize = Math.min(MAXBATCHSIZE, limit * 2);
+			flushinterval = flushinterval == 0 ? MINFLUSHINTERVAL : Math.min(MAXFLUSHINTERVAL, flushinterval * 2);
+		} else if (backlog == 0) {
+			newbatchsize = Math.max(MINBATCHSIZE, limit / 2);
+			flushinterval = 0;
+		}
+		if (writelatency > 0)
+			newbatchsize = (int) Math.min(newbatchsize, MAXBATCHNANOS / writelatency);
+		batchsize = Math.max(MINBATCHSIZE, newbatchsize);
+	}
+
+	/**
+	 * Create the summary of the messages dropped since the last summary and reset
+	 * the counters. Must be called while holding {@link QueuedLogWriter#lock}.
+	 * 
+	 * @return the summary, {@code null} if no messages were dropped
+	 */
+	private String createSummary() {
+		if (droppedsincesummary.isEmpty())
+			return null;
+		long count = 0;
+		StringBuilder perlevel = new StringBuilder();
+		for (Map.Entry<String, Long> entry : droppedsincesummary.entrySet()) {
+			count += entry.getValue();
+			if (perlevel.length() > 0)
+				perlevel.append(", ");
+			perlevel.append(entry.getValue()).append(' ').append(entry.getKey());
+		}
+		String summary = "QueuedLogWriter dropped " + count + " messages (" + droppedbytessincesummary
+				+ " bytes) because the queue was full: " + perlevel;
+		droppedsincesummary.clear();
+		droppedbytessincesummary = 0;
+		return summary;
+	}
+
+	/**
+	 * Check whether a message of a {@link Level} must never be dropped
+	 * 
+	 * @param level the {@link Level} to check
+	 * @return {@code true} if the {@link Level} is {@link Level#ERROR} or more
+	 *         severe
+	 */
+	private static boolean isCritical(Level level) {
+		return level != null && level.getIntLevel() <= Level.ERROR.getIntLevel();
+	}
+
+	/**
+	 * Get the {@link BackpressurePolicy} applied if the queue is full
+	 * 
+	 * @return the {@link BackpressurePolicy}
+	 */
+	public BackpressurePolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Get the level below which messages are dropped if the queue is full and the
+	 * policy is {@link BackpressurePolicy#DROP_BELOW_LEVEL}
+	 * 
+	 * @return the drop level
+	 * @see QueuedLogWriter#setDroplevel(Level)
+	 */
+	public Level getDroplevel() {
+		return droplevel;
+	}
+
+	/**
+	 * Set the level below which messages are dropped if the queue is full and the
+	 * policy is {@link BackpressurePolicy#DROP_BELOW_LEVEL}. Messages of this
+	 * {@link Level} or more severe are kept.
+	 * 
+	 * @param droplevel the drop level
+	 * @throws IllegalArgumentException if {@code droplevel} is {@code null}
+	 */
+	public void setDroplevel(Level droplevel) {
+		if (droplevel == null)
+			throw new IllegalArgumentException("Drop level can not be null!");
+		this.droplevel = droplevel;
+	}
+
+	/**
+	 * Get the interval of the summary of dropped messages
+	 * 
+	 * @return the interval, in milliseconds
+	 * @see QueuedLogWriter#setSummaryinterval(long)
+	 */
+	public long getSummaryinterval() {
+		return summaryinterval;
+	}
+
+	/**
+	 * Set the interval of the summary of dropped messages. The summary is only
+	 * written if messages were dropped. The new interval is used after the next
+	 * summary.
+	 * 
+	 * @param summaryinterval the interval, in milliseconds
+	 */
+	public void setSummaryinterval(long summaryinterval) {
+		this.summaryinterval = summaryinterval;
+	}
+
+	/**
+	 * Get the {@link Level#getIntLevel()} thresholds of the priority lanes
+	 * 
+	 * @return a copy of the thresholds, empty if all messages share one lane
+	 * @see QueuedLogWriter#setLanes(int...)
+	 */
+	public int[] getLanes() {
+		synchronized (lock) {
+			return lanethresholds.clone();
+		}
+	}
+
+	/**
+	 * Set the {@link Level#getIntLevel()} thresholds of the priority lanes. A
+	 * message goes into the first lane whose threshold is greater than or equal to
+	 * its {@link Level#getIntLevel()}, all other messages go into an additional
+	 * last lane. Lanes are written in order, so messages of the first lane are
+	 * written before all messages queued in later lanes. <br>
+	 * <b>Example:</b> {@code setLanes(Level.ERROR.getIntLevel())} writes
+	 * {@link Level#FATAL} and {@link Level#ERROR} messages before all others.
+	 * <br>
+	 * Already queued messages are moved into the new lanes.
+	 * 
+	 * @param thresholds the thresholds of the lanes. If none are given, all
+	 *                   messages share one lane and are written in the order they
+	 *                   were queued in.
+	 */
+	public void setLanes(int... thresholds) {
+		int[] sorted = thresholds.clone();
+		Arrays.sort(sorted);
+		synchronized (lock) {
+			ArrayList<QueuedMessage> messages = new ArrayList<>(queued);
+			for (ArrayDeque<QueuedMessage> lane : lanes)
+				messages.addAll(lane);
+			Collections.sort(messages, new Comparator<QueuedMessage>() {
+				@Override
+				public int compare(QueuedMessage m1, QueuedMessage m2) {
+					return Long.compare(m1.sequence, m2.sequence);
+				}
+			});
+			lanethresholds = sorted;
+			lanes = createLanes(sorted.length + 1);
+			for (QueuedMessage message : messages)
+				lanes[laneOf(message.level)].addLast(message);
+		}
+	}
+
+	/**
+	 * Get whether the sequence number of a message is written in front of it
+	 * 
+	 * @return {@code true} if sequence numbers are written, {@code false} if not
+	 * @see QueuedLogWriter#setSequencenumbers(boolean)
+	 */
+	public boolean getSequencenumbers() {
+		return sequencenumbers;
+	}
+
+	/**
+	 * Set whether the sequence number of a message is written in front of it, as
+	 * {@code #42 message}. Sequence numbers are given in the order messages are
+	 * queued, so the original order can be restored if priority lanes wrote a
+	 * message earlier.
+	 * 
+	 * @param sequencenumbers {@code true} to write sequence numbers, {@code false}
+	 *                        to write the messages only
+	 * @see QueuedLogWriter#setLanes(int...)
+	 */
+	public void setSequencenumbers(boolean sequencenumbers) {
+		this.sequencenumbers = sequencenumbers;
+	}
+
+	/**
+	 * Get whether batch size and flush interval adapt to the load
+	 * 
+	 * @return {@code true} if adaptive, {@code false} if not
+	 * @see QueuedLogWriter#setAdaptive(boolean)
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Set whether batch size and flush interval adapt to the load. If not
+	 * adaptive, batches have a fixed size of {@value #DEFAULTBATCHSIZE} messages
+	 * and only batches of priority lanes are flushed. Enabled by default.
+	 * 
+	 * @param adaptive {@code true} to adapt to the load, {@code false} for fixed
+	 *                 batches
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * Get the current maximum number of messages written in one batch
+	 * 
+	 * @return the batch size
+	 */
+	public int getBatchsize() {
+		return adaptive ? batchsize : DEFAULTBATCHSIZE;
+	}
+
+	/**
+	 * Get the current interval between flushes of the lowest priority lane, if
+	 * adaptive
+	 * 
+	 * @return the flush interval, in milliseconds, {@code 0} if every batch is
+	 *         flushed
+	 */
+	public long getFlushinterval() {
+		return flushinterval;
+	}
+
+	/**
+	 * Get the average time to write one message to the wrapped {@link LogWriter},
+	 * measured if adaptive
+	 * 
+	 * @return the average write latency, in nanoseconds, {@code 0} if not measured
+	 *         yet
+	 */
+	public long getWritelatency() {
+		return writelatency;
+	}
+
+	/**
+	 * Get the estimated number of bytes of all currently queued messages
+	 * 
+	 * @return the estimated number of queued bytes
+	 */
+	public long getQueuedbytes() {
+		synchronized (lock) {
+			return queuedbytes;
+		}
+	}
+
+	/**
+	 * Get the maximum number of bytes of all queued messages
+	 * 
+	 * @return the maximum number of queued bytes
+	 */
+	public long getMaxqueuedbytes() {
+		return maxqueuedbytes;
+	}
+
+	/**
+	 * Get the total number of messages dropped because the queue was full
+	 * 
+	 * @return the total number of dropped messages
+	 */
+	public long getDropped() {
+		synchronized (lock) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Get the total number of messages written to the fallback writer because the
+	 * queue was full
+	 * 
+	 * @return the total number of spilled messages
+	 */
+	public long getSpilled() {
+		synchronized (lock) {
+			return spilled;
+		}
+	}
+
+	/**
+	 * Get a one line report of the queue and its current parameters
+	 * 
+	 * @return the report
+	 */
+	@Override
+	public String toString() {
+		return "QueuedLogWriter: queued " + getQueuedbytes() + "/" + maxqueuedbytes + " bytes, batch size "
+				+ getBatchsize() + ", flush interval " + getFlushinterval() + " ms, write latency "
+				+ getWritelatency() + " ns, dropped " + getDropped() + ", spilled " + getSpilled();
+	}
+
+	/**
+	 * A queued message, or {@link Throwable} to write the {@code StackTrace} of.
+	 */
+	private static class QueuedMessage {
+
+		/**
+		 * The text of the message, {@code null} if this is a {@link Throwable}
+		 */
+		private final String text;
+		/**
+		 * The {@link Throwable} to write the {@code StackTrace} of, {@code null} if
+		 * this is a message
+		 */
+		private final Throwable throwable;
+		/**
+		 * The {@link Level} of the message, {@code null} if unknown
+		 */
+		private final Level level;
+		/**
+		 * The time the message was logged at, in nanoseconds since the epoch
+		 */
+		private final long timenanos;
+		/**
+		 * The estimated number of bytes used by the message
+		 */
+		private final long bytes;
+		/**
+		 * The global sequence number of the message, given when it is queued
+		 */
+		private long sequence;
+
+		/**
+		 * Creates a new {@link QueuedMessage}.
+		 * 
+		 * @param text      the text of the message
+		 * @param throwable the {@link Throwable} to write the {@code StackTrace} of
+		 * @param level     the {@link Level} of the message
+		 * @param timenanos the time the message was logged at, in nanoseconds since
+		 *                  the epoch
+		 */
+		private QueuedMessage(String text, Throwable throwable, Level level, long timenanos) {
+			this.text = text;
+			this.throwable = throwable;
+			this.level = level;
+			this.timenanos = timenanos;
+			this.bytes = MESSAGEOVERHEAD + (text != null ? 2L * text.length() : THROWABLESIZE);
+		}
+
+		/**
+		 * Write the message to a {@link LogWriter}.
+		 * 
+		 * @param writer the {@link LogWriter} to write to
+		 */
+		private void writeTo(LogWriter writer) {
+			if (throwable != null)
+				writer.printStackTrace(throwable);
+			else
+				writer.write(text, level, timenanos);
+		}
+
+	}
+
+}
@@ -0,0 +1,214 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the shards written by a {@link ShardedFileLogWriter} into one file,
+ * ordered by timestamp and, for equal timestamps, by sequence number. The merge
+ * is a streaming k-way merge: only the next record of every shard is kept in
+ * memory, so shards of any size can be merged. The timestamps, sequence numbers
+ * and line counts are removed, the merged file contains the messages only.
+ * <p>
+ * A record cut off at the end of a shard, e.g. by a crash, ends that shard and
+ * is counted as skipped.
+ * <p>
+ * <b>Usage:</b> <br>
+ * {@code java de.pentagonlp.simplelogging.writer.ShardMerger <directory> <name> <output>}
+ * 
+ * @author PentagonLP
+ */
+public class ShardMerger {
+
+	/**
+	 * The number of records written by the last merge
+	 */
+	private long merged = 0;
+	/**
+	 * The number of malformed records skipped by the last merge
+	 */
+	private long skipped = 0;
+
+	/**
+	 * Merge the shards of a log into a file.
+	 * 
+	 * @param args the directory of the shards, the name of the log and the output
+	 *             file
+	 * @throws IOException if a shard can not be read or the output file can not be
+	 *                     written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.out.println("Usage: ShardMerger <directory> <name> <output>");
+			System.exit(2);
+		}
+		File[] shards = listShards(new File(args[0]), args[1]);
+		ShardMerger merger = new ShardMerger();
+		try (Writer out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(args[2]), StandardCharsets.UTF_8))) {
+			merger.merge(shards, out);
+		}
+		System.out.println("Merged " + merger.getMerged() + " records from " + shards.length + " shards, skipped "
+				+ merger.getSkipped() + " malformed records");
+	}
+
+	/**
+	 * List the shards of a log
+	 * 
+	 * @param directory the directory of the shards
+	 * @param name      the name of the log
+	 * @return the shards, empty if there are none
+	 */
+	public static File[] listShards(File directory, final String name) {
+		File[] shards = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String filename) {
+				return filename.startsWith(name + ".") && filename.endsWith(ShardedFileLogWriter.SHARDSUFFIX);
+			}
+		});
+		return shards == null ? new File[0] : shards;
+	}
+
+	/**
+	 * Merge shards into a {@link Writer}, ordered by timestamp and sequence number.
+	 * 
+	 * @param shards the shards
+	 * @param out    the {@link Writer} to write the messages to, not closed
+	 * @throws IOException if a shard can not be read or the output can not be
+	 *                     written
+	 */
+	public void merge(File[] shards, Writer out) throws IOException {
+		merged = 0;
+		skipped = 0;
+		PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+		ArrayList<Cursor> opened = new ArrayList<>();
+		try {
+			for (File shard : shards) {
+				Cursor cursor = new Cursor(new BufferedReader(
+						new InputStreamReader(new FileInputStream(shard), StandardCharsets.UTF_8)));
+				opened.add(cursor);
+				if (cursor.next())
+					cursors.add(cursor);
+			}
+			String lineseparator = System.lineSeparator();
+			while (!cursors.isEmpty()) {
+				Cursor cursor = cursors.poll();
+				out.write(cursor.text);
+				out.write(lineseparator);
+				merged++;
+				if (cursor.next())
+					cursors.add(cursor);
+			}
+		} finally {
+			for (Cursor cursor : opened)
+				cursor.in.close();
+		}
+	}
+
+	/**
+	 * Get the number of records written by the last merge
+	 * 
+	 * @return the number of records merged
+	 */
+	public long getMerged() {
+		return merged;
+	}
+
+	/**
+	 * Get the number of malformed records skipped by the last merge
+	 * 
+	 * @return the number of records skipped
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * The current record of a shard
+	 */
+	private class Cursor implements Comparable<Cursor> {
+
+		/**
+		 * The shard
+		 */
+		private final BufferedReader in;
+		/**
+		 * The timestamp of the current record
+		 */
+		private long timestamp;
+		/**
+		 * The sequence number of the current record
+		 */
+		private long sequence;
+		/**
+		 * The message of the current record
+		 */
+		private String text;
+
+		/**
+		 * Creates a new {@link Cursor}, before the first record.
+		 * 
+		 * @param in the shard
+		 */
+		private Cursor(BufferedReader in) {
+			this.in = in;
+		}
+
+		/**
+		 * Read the next record.
+		 * 
+		 * @return {@code true} if a record was read, {@code false} at the end of the
+		 *         shard
+		 * @throws IOException if the shard can not be read
+		 */
+		private boolean next() throws IOException {
+			String line = in.readLine();
+			if (line == null)
+				return false;
+			int first = line.indexOf(' ');
+			int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+			int third = second < 0 ? -1 : line.indexOf(' ', second + 1);
+			try {
+				if (third < 0)
+					throw new NumberFormatException();
+				timestamp = Long.parseLong(line.substring(0, first));
+				sequence = Long.parseLong(line.substring(first + 1, second));
+				int extralines = Integer.parseInt(line.substring(second + 1, third));
+				StringBuilder builder = new StringBuilder(line.length() - third - 1);
+				builder.append(line, third + 1, line.length());
+				for (int i = 0; i < extralines; i++) {
+					String extra = in.readLine();
+					if (extra == null)
+						throw new NumberFormatException();
+					builder.append(System.lineSeparator()).append(extra);
+				}
+				text = builder.toString();
+				return true;
+			} catch (NumberFormatException e) {
+				// Nevermind, a cut off record ends the shard
+				skipped++;
+				return false;
+			}
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			if (timestamp != other.timestamp)
+				return Long.compare(timestamp, other.timestamp);
+			return Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+}
@@ -0,0 +1,376 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.pentagonlp.simplelogging.LogClock;
+import de.pentagonlp.simplelogging.clock.CoarseLogClock;
+import de.pentagonlp.simplelogging.tools.Utf8Buffer;
+
+/**
+ * {@link de.pentagonlp.simplelogging.LogWriter LogWriter} spreading the
+ * logging threads over several shard files by their id, so they do not contend
+ * for a shared file lock. By default there is one stripe per processor,
+ * optionally every thread gets a shard of its own.
+ * <p>
+ * Every record in a shard starts with its timestamp, a global sequence number
+ * and the number of lines following the first one:
+ * {@code <timestamp> <sequence> <extralines> <message>}. {@link ShardMerger}
+ * merges the shards into one file ordered by timestamp and sequence. The global
+ * sequence is the only state shared between threads, a single atomic counter.
+ * <p>
+ * Shards are named {@code <name>.<number>.shard} and opened when a thread or
+ * stripe writes its first message. The shards of terminated threads are closed
+ * when the next shard is opened, so short-lived threads do not leak open files,
+ * but every thread still leaves a file behind.
+ * <p>
+ * <b>Example:</b> <br>
+ * {@code new Logger(new ShardedFileLogWriter("logs", "app"));} <br>
+ * {@code java de.pentagonlp.simplelogging.writer.ShardMerger logs app app.log}
+ * 
+ * @author PentagonLP
+ */
+public class ShardedFileLogWriter extends ExceptionOnlyInDebugModeLogWriter {
+
+	/**
+	 * Suffix of every shard file
+	 */
+	public static final String SHARDSUFFIX = ".shard";
+	/**
+	 * Default value whether the shards support ansi
+	 */
+	private static final boolean DEFAULTISANSI = false;
+	/**
+	 * Default number of stripes, one per processor
+	 */
+	private static final int DEFAULTSTRIPES = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The directory of the shards
+	 */
+	private final File directory;
+	/**
+	 * The name of the log, the prefix of every shard
+	 */
+	private final String name;
+	/**
+	 * Whether the shards support ansi
+	 */
+	private final boolean isansi;
+	/**
+	 * The {@link LogClock} giving the timestamps of the records
+	 */
+	private final LogClock clock = CoarseLogClock.getDefault();
+	/**
+	 * The sequence number of the next record, shared by all shards
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+	/**
+	 * The number of the next shard
+	 */
+	private final AtomicInteger nextshard;
+	/**
+	 * The shard of every thread, if not striped
+	 */
+	private final ThreadLocal<Shard> threadshard = new ThreadLocal<>();
+	/**
+	 * The shard of every stripe, {@code null} if not striped
+	 */
+	private final Shard[] stripes;
+	/**
+	 * All open shards, guarded by itself
+	 */
+	private final ArrayList<Shard> shards = new ArrayList<>();
+	/**
+	 * Whether {@link ShardedFileLogWriter#close()} was called
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * The last exception thrown while opening or writing a shard, {@code null} if
+	 * none was thrown
+	 */
+	private volatile IOException lasterror = null;
+
+	/**
+	 * Creates a new {@link ShardedFileLogWriter} with one stripe per processor.
+	 * 
+	 * @param directory the directory of the shards, created if needed
+	 * @param name      the name of the log, the prefix of every shard
+	 * @throws IllegalArgumentException if {@code directory} or {@code name} is
+	 *                                  {@code null}
+	 */
+	public ShardedFileLogWriter(String directory, String name) {
+		this(directory, name, DEFAULTSTRIPES, DEFAULTISANSI);
+	}
+
+	/**
+	 * Creates a new {@link ShardedFileLogWriter}.
+	 * 
+	 * @param directory the directory of the shards, created if needed
+	 * @param name      the name of the log, the prefix of every shard
+	 * @param stripes   the number of shards threads are spread over by their id,
+	 *                  {@code 0} for one shard per thread
+	 * @param isansi    {@code true} if the shards support ansi, {@code false} if
+	 *                  they don't
+	 * @throws IllegalArgumentException if {@code directory} or {@code name} is
+	 *                                  {@code null} or {@code stripes} is negative
+	 */
+	public ShardedFileLogWriter(String directory, String name, int stripes, boolean isansi) {
+		if (directory == null)
+			throw new IllegalArgumentException("Directory can not be null!");
+		if (name == null)
+			throw new IllegalArgumentException("Name can not be null!");
+		if (stripes < 0)
+			throw new IllegalArgumentException("Stripes can not be negative!");
+		this.directory = new File(directory);
+		this.name = name;
+		this.isansi = isansi;
+		this.stripes = stripes > 0 ? new Shard[stripes] : null;
+		this.directory.mkdirs();
+		// Do not append to the shards of an earlier run
+		this.nextshard = new AtomicInteger(maxShardNumber() + 1);
+	}
+
+	/**
+	 * Write a message to the shard of the calling thread.
+	 * 
+	 * @param logtext the message to write
+	 */
+	@Override
+	public void write(String logtext) {
+		Shard shard = shardOfCurrentThread();
+		if (shard != null)
+			shard.write(clock.currentTimeNanos(), sequence.getAndIncrement(), logtext);
+	}
+
+	/**
+	 * Write the {@code StackTrace} of a {@link Throwable} to the shard of the
+	 * calling thread, as a single record.
+	 * 
+	 * @param t the {@link Throwable} to print the {@code StackTrace} of
+	 */
+	@Override
+	protected void printStackTraceAfterCheck(Throwable t) {
+		StringWriter stacktrace = new StringWriter();
+		t.printStackTrace(new PrintWriter(stacktrace));
+		String text = stacktrace.toString();
+		// The last line separator is added by the record
+		int end = text.length();
+		while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r'))
+			end--;
+		write(text.substring(0, end));
+	}
+
+	/**
+	 * Get whether the shards support ansi.
+	 * 
+	 * @return {@code true} if they support ansi, {@code false} if they don't
+	 */
+	@Override
+	public boolean isAnsi() {
+		return isansi;
+	}
+
+	/**
+	 * Get whether all shards could be opened and written so far
+	 * 
+	 * @return {@code true} if no shard failed and the writer is not closed,
+	 *         {@code false} if not
+	 */
+	@Override
+	public boolean isHealthy() {
+		return lasterror == null && !closed;
+	}
+
+	/**
+	 * Close all shards. Messages written afterwards are lost.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (shards) {
+			for (Shard shard : shards)
+				shard.close();
+		}
+	}
+
+	/**
+	 * Get the last exception thrown while opening or writing a shard
+	 * 
+	 * @return the last exception, {@code null} if none was thrown
+	 */
+	public IOException getLasterror() {
+		return lasterror;
+	}
+
+	/**
+	 * Get the number of shards open
+	 * 
+	 * @return the number of shards
+	 */
+	public int getShardcount() {
+		synchronized (shards) {
+			return shards.size();
+		}
+	}
+
+	/**
+	 * Get the shard of the calling thread, opening it if needed.
+	 * 
+	 * @return the shard, {@code null} if it can not be opened
+	 */
+	private Shard shardOfCurrentThread() {
+		if (closed)
+			return null;
+		if (stripes == null) {
+			Shard shard = threadshard.get();
+			if (shard == null) {
+				shard = openShard(Thread.currentThread());
+				threadshard.set(shard);
+			}
+			return shard;
+		}
+		int stripe = (int) (Thread.currentThread().getId() % stripes.length);
+		Shard shard = stripes[stripe];
+		if (shard == null) {
+			synchronized (stripes) {
+				shard = stripes[stripe];
+				if (shard == null) {
+					shard = openShard(null);
+					stripes[stripe] = shard;
+				}
+			}
+		}
+		return shard;
+	}
+
+	/**
+	 * Open a new shard, closing the shards of terminated threads.
+	 * 
+	 * @param owner the thread the shard belongs to, {@code null} for a stripe
+	 * @return the shard, {@code null} if it can not be opened
+	 */
+	private Shard openShard(Thread owner) {
+		File file = new File(directory, name + "." + nextshard.getAndIncrement() + SHARDSUFFIX);
+		try {
+			Shard shard = new Shard(new FileOutputStream(file, true), owner);
+			synchronized (shards) {
+				if (closed) {
+					shard.close();
+					return null;
+				}
+				// Only its own thread writes to a thread shard, nobody will after it ended
+				for (int i = shards.size() - 1; i >= 0; i--) {
+					Thread other = shards.get(i).owner;
+					if (other != null && !other.isAlive())
+						shards.remove(i).close();
+				}
+				shards.add(shard);
+			}
+			return shard;
+		} catch (IOException e) {
+			lasterror = e;
+			return null;
+		}
+	}
+
+	/**
+	 * Get the highest number of an existing shard of this log
+	 * 
+	 * @return the highest shard number, {@code -1} if there is none
+	 */
+	private int maxShardNumber() {
+		int max = -1;
+		for (File shard : ShardMerger.listShards(directory, name)) {
+			String filename = shard.getName();
+			try {
+				max = Math.max(max, Integer.parseInt(
+						filename.substring(name.length() + 1, filename.length() - SHARDSUFFIX.length())));
+			} catch (NumberFormatException e) {
+				// Nevermind, not a shard of this writer
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * A shard file, written by one thread or stripe
+	 */
+	private class Shard {
+
+		/**
+		 * The shard file
+		 */
+		private final FileOutputStream out;
+		/**
+		 * The thread the shard belongs to, {@code null} for a stripe
+		 */
+		private final Thread owner;
+		/**
+		 * Buffer a record is encoded in before it is written
+		 */
+		private final Utf8Buffer buffer = new Utf8Buffer();
+
+		/**
+		 * Creates a new {@link Shard}.
+		 * 
+		 * @param out   the shard file
+		 * @param owner the thread the shard belongs to, {@code null} for a stripe
+		 */
+		private Shard(FileOutputStream out, Thread owner) {
+			this.out = out;
+			this.owner = owner;
+		}
+
+		/**
+		 * Write a record. The lock is only contended by threads of the same stripe.
+		 * Line breaks are normalised to {@code '\n'}: {@link ShardMerger} reads the
+		 * lines using {@link java.io.BufferedReader#readLine()}, which also ends a
+		 * line at a lone {@code '\r'}, and would otherwise read a different number
+		 * of lines than counted.
+		 * 
+		 * @param timestamp the timestamp of the record, in nanoseconds since the
+		 *                  epoch
+		 * @param sequence  the global sequence number of the record
+		 * @param text      the message
+		 */
+		private synchronized void write(long timestamp, long sequence, String text) {
+			if (text.indexOf('\r') >= 0)
+				text = text.replace("\r\n", "\n").replace('\r', '\n');
+			int extralines = 0;
+			for (int i = 0; i < text.length(); i++) {
+				if (text.charAt(i) == '\n')
+					extralines++;
+			}
+			buffer.reset();
+			buffer.append(Long.toString(timestamp)).appendAscii(' ').append(Long.toString(sequence))
+					.appendAscii(' ').append(Integer.toString(extralines)).appendAscii(' ').append(text)
+					.append(Utf8Buffer.LINESEPARATOR);
+			try {
+				buffer.writeTo(out);
+			} catch (IOException e) {
+				// The record is lost, report it
+				lasterror = e;
+			}
+		}
+
+		/**
+		 * Close the shard file.
+		 */
+		private synchronized void close() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Nevermind, closing anyway
+			}
+		}
+
+	}
+
+}
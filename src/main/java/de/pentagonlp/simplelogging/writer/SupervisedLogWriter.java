@@ -0,0 +1,570 @@
+package de.pentagonlp.simplelogging.writer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.LogWriter;
+
+/**
+ * {@link LogWriter} supervising another {@link LogWriter}, the primary, and
+ * failing over to a fallback {@link LogWriter} if the primary stalls or fails.
+ * <p>
+ * The primary is considered failed if a write throws an exception, if it is not
+ * {@link LogWriter#isHealthy() healthy} afterwards, or if a write takes longer
+ * than the latency threshold. A watchdog thread also fails over while a write is
+ * still stuck, so only the thread stuck in it waits. Other threads fail over as
+ * soon as the write in progress took longer than the latency threshold, and
+ * wait at most the latency threshold for the primary. While failed over,
+ * messages are written to the fallback and kept in a bounded buffer. The
+ * watchdog checks the primary periodically, and as soon as it is healthy again,
+ * replays the buffered messages to it in their original order and switches
+ * back.
+ * <p>
+ * <b>Example:</b> <br>
+ * {@code new Logger(new SupervisedLogWriter(new FileLogWriter("/mnt/nfs/log.txt"), new FileLogWriter("/tmp/log.txt")));}
+ * 
+ * @author PentagonLP
+ */
+public class SupervisedLogWriter implements LogWriter {
+
+	/**
+	 * Default latency threshold of a write to the primary, in milliseconds
+	 */
+	public static final long DEFAULTTHRESHOLD = 1000;
+	/**
+	 * Default maximum number of messages buffered for replay
+	 */
+	public static final int DEFAULTREPLAYCAPACITY = 10_000;
+	/**
+	 * Interval the watchdog checks the primary at, in milliseconds
+	 */
+	private static final long CHECKINTERVAL = 100;
+
+	/**
+	 * The supervised {@link LogWriter}
+	 */
+	private final LogWriter primary;
+	/**
+	 * The {@link LogWriter} written to while failed over, {@code null} to only
+	 * buffer messages for replay
+	 */
+	private final LogWriter fallback;
+	/**
+	 * The latency threshold of a write to the primary, in milliseconds
+	 */
+	private final long threshold;
+	/**
+	 * The maximum number of messages buffered for replay
+	 */
+	private final int replaycapacity;
+
+	/**
+	 * Lock held while writing to the primary
+	 */
+	private final ReentrantLock primarylock = new ReentrantLock();
+	/**
+	 * The {@link System#nanoTime()} the current write to the primary started at,
+	 * {@code 0} if none is in progress
+	 */
+	private volatile long writesince = 0;
+	/**
+	 * Whether messages are currently written to the fallback
+	 */
+	private volatile boolean failedover = false;
+	/**
+	 * Whether {@link SupervisedLogWriter#close()} was called
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * The last exception thrown by the primary, {@code null} if none was thrown
+	 */
+	private volatile RuntimeException lasterror = null;
+
+	/**
+	 * Messages written while failed over, oldest first, to be replayed to the
+	 * primary. Guarded by itself, which is also held while switching back.
+	 */
+	private final ArrayDeque<BufferedMessage> buffered = new ArrayDeque<>();
+	/**
+	 * Number of times the primary was failed over from
+	 */
+	private long failovers = 0;
+	/**
+	 * Number of messages replayed to the primary
+	 */
+	private long replayed = 0;
+	/**
+	 * Number of messages not replayed, as the buffer was full
+	 */
+	private long dropped = 0;
+
+	/**
+	 * The watchdog thread
+	 */
+	private final Thread watchdog;
+
+	/**
+	 * Creates a new {@link SupervisedLogWriter} with the default latency threshold
+	 * and replay capacity.
+	 * 
+	 * @param primary  the supervised {@link LogWriter}
+	 * @param fallback the {@link LogWriter} written to while failed over,
+	 *                 {@code null} to only buffer messages for replay
+	 * @throws IllegalArgumentException if {@code primary} is {@code null}
+	 */
+	public SupervisedLogWriter(LogWriter primary, LogWriter fallback) {
+		this(primary, fallback, DEFAULTTHRESHOLD, DEFAULTREPLAYCAPACITY);
+	}
+
+	/**
+	 * Creates a new {@link SupervisedLogWriter}.
+	 * 
+	 * @param primary        the supervised {@link LogWriter}
+	 * @param fallback       the {@link LogWriter} written to while failed over,
+	 *                       {@code null} to only buffer messages for replay
+	 * @param threshold      the latency threshold of a write to the primary, in
+	 *                       milliseconds
+	 * @param replaycapacity the maximum number of messages buffered for replay,
+	 *                       {@code 0} to not replay
+	 * @throws IllegalArgumentException if {@code primary} is {@code null},
+	 *                                  {@code threshold} is not positive or
+	 *                                  {@code replaycapacity} is negative
+	 */
+	public SupervisedLogWriter(LogWriter primary, LogWriter fallback, long threshold, int replaycapacity) {
+		if (primary == null)
+			throw new IllegalArgumentException("Primary writer can not be null!");
+		if (threshold <= 0)
+			throw new IllegalArgumentException("Threshold must be positive!");
+		if (replaycapacity < 0)
+			throw new IllegalArgumentException("Replay capacity can not be negative!");
+		this.primary = primary;
+		this.fallback = fallback;
+		this.threshold = threshold;
+		this.replaycapacity = replaycapacity;
+		watchdog = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "SupervisedLogWriter watchdog");
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	@Override
+	public void write(String logtext) {
+		write(logtext, null);
+	}
+
+	/**
+	 * Write a message to the primary, or to the fallback if failed over, with the
+	 * current time as its timestamp.
+	 * 
+	 * @param logtext the message to write
+	 * @param level   the {@link Level} of the message, {@code null} if unknown
+	 */
+	@Override
+	public void write(String logtext, Level level) {
+		write(logtext, level, System.currentTimeMillis() * 1_000_000L);
+	}
+
+	/**
+	 * Write a message to the primary, or to the fallback if failed over. The
+	 * timestamp is passed on, also when the message is replayed.
+	 * 
+	 * @param logtext   the message to write
+	 * @param level     the {@link Level} of the message, {@code null} if unknown
+	 * @param timenanos the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 */
+	@Override
+	public void write(String logtext, Level level, long timenanos) {
+		while (true) {
+			if (!failedover && writePrimary(logtext, level, timenanos))
+				return;
+			if (writeFallback(logtext, level, timenanos))
+				return;
+			// Switched back in the meantime, try the primary again
+		}
+	}
+
+	/**
+	 * Try to write a message to the primary, failing over if it stalls or fails.
+	 * If another write is in progress, this waits until it is done, but fails over
+	 * as soon as that write took longer than the latency threshold, or after
+	 * waiting the latency threshold.
+	 * 
+	 * @param logtext   the message to write
+	 * @param level     the {@link Level} of the message, {@code null} if unknown
+	 * @param timenanos the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 * @return {@code true} if the message was written, {@code false} if it has to
+	 *         be written to the fallback
+	 */
+	private boolean writePrimary(String logtext, Level level, long timenanos) {
+		try {
+			long thresholdnanos = threshold * 1_000_000;
+			long deadline = System.nanoTime() + thresholdnanos;
+			while (!primarylock.tryLock()) {
+				long since = writesince;
+				long now = System.nanoTime();
+				if ((since != 0 && now - since > thresholdnanos) || now - deadline >= 0) {
+					// Another write is stuck in the primary, nevermind waiting for it
+					failover();
+					return false;
+				}
+				// Wake up when the write in progress exceeds the threshold
+				long wait = deadline - now;
+				if (since != 0)
+					wait = Math.min(wait, since + thresholdnanos - now + 1);
+				if (primarylock.tryLock(wait, TimeUnit.NANOSECONDS))
+					break;
+			}
+		} catch (InterruptedException e) {
+			// Do not wait for the primary, the watchdog switches back if it is fine
+			Thread.currentThread().interrupt();
+			failover();
+			return false;
+		}
+		try {
+			if (failedover)
+				return false;
+			long start = System.nanoTime();
+			writesince = start;
+			try {
+				if (level == null)
+					primary.write(logtext);
+				else
+					primary.write(logtext, level, timenanos);
+			} catch (RuntimeException e) {
+				lasterror = e;
+				failover();
+				return false;
+			} finally {
+				writesince = 0;
+			}
+			if (!primary.isHealthy()) {
+				failover();
+				return false;
+			}
+			// Written, but too slow: spare the following messages
+			if (System.nanoTime() - start > threshold * 1_000_000)
+				failover();
+			return true;
+		} finally {
+			primarylock.unlock();
+		}
+	}
+
+	/**
+	 * Write a message to the fallback and buffer it for replay, if still failed
+	 * over.
+	 * 
+	 * @param logtext   the message to write
+	 * @param level     the {@link Level} of the message, {@code null} if unknown
+	 * @param timenanos the time the message was logged at, in nanoseconds since
+	 *                  the epoch
+	 * @return {@code true} if the message was written, {@code false} if the
+	 *         primary was switched back to in the meantime
+	 */
+	private boolean writeFallback(String logtext, Level level, long timenanos) {
+		synchronized (buffered) {
+			if (!failedover)
+				return false;
+			if (replaycapacity > 0) {
+				if (buffered.size() == replaycapacity) {
+					buffered.pollFirst();
+					dropped++;
+				}
+				buffered.addLast(new BufferedMessage(logtext, level, timenanos));
+			}
+		}
+		if (fallback != null) {
+			try {
+				if (level == null)
+					fallback.write(logtext);
+				else
+					fallback.write(logtext, level, timenanos);
+			} catch (RuntimeException e) {
+				// Nevermind, the message is still buffered for replay
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write messages to the fallback from now on.
+	 */
+	private void failover() {
+		synchronized (buffered) {
+			if (failedover)
+				return;
+			failedover = true;
+			failovers++;
+		}
+	}
+
+	/**
+	 * Main loop of the watchdog thread
+	 */
+	private void watch() {
+		while (!closed) {
+			try {
+				Thread.sleep(CHECKINTERVAL);
+			} catch (InterruptedException e) {
+				// Nevermind, closing
+				continue;
+			}
+			if (!failedover) {
+				long since = writesince;
+				if (since != 0 && System.nanoTime() - since > threshold * 1_000_000)
+					failover();
+			} else
+				tryRecover();
+		}
+	}
+
+	/**
+	 * Replay the buffered messages to the primary and switch back to it, if it is
+	 * healthy and no write is stuck in it. A message is removed from the buffer as
+	 * soon as the primary wrote it, so it is never replayed twice. If the primary
+	 * is slow or unhealthy afterwards, replaying stops and is tried again later.
+	 * 
+	 * @return {@code true} if switched back to the primary, {@code false} if not
+	 */
+	private boolean tryRecover() {
+		if (!primarylock.tryLock())
+			return false;
+		try {
+			if (!primary.isHealthy())
+				return false;
+			while (true) {
+				BufferedMessage message;
+				synchronized (buffered) {
+					message = buffered.peekFirst();
+					if (message == null) {
+						// No message can be buffered after this
+						failedover = false;
+						return true;
+					}
+				}
+				long start = System.nanoTime();
+				try {
+					if (message.level == null)
+						primary.write(message.text);
+					else
+						primary.write(message.text, message.level, message.timenanos);
+				} catch (RuntimeException e) {
+					lasterror = e;
+					return false;
+				}
+				// Written, even if slowly: never replay it again
+				synchronized (buffered) {
+					if (buffered.peekFirst() == message)
+						buffered.pollFirst();
+					replayed++;
+				}
+				if (!primary.isHealthy() || System.nanoTime() - start > threshold * 1_000_000)
+					return false;
+			}
+		} finally {
+			primarylock.unlock();
+		}
+	}
+
+	/**
+	 * Get whether the primary supports ansi. The same text is written to the
+	 * fallback.
+	 * 
+	 * @return {@code true} if the primary supports ansi, {@code false} if it
+	 *         doesn't
+	 */
+	@Override
+	public boolean isAnsi() {
+		return primary.isAnsi();
+	}
+
+	/**
+	 * Print a {@code StackTrace} to the primary, or to the fallback if failed
+	 * over. {@code StackTraces} are not replayed.
+	 * 
+	 * @param t the {@link Throwable} to print the {@code StackTrace} of
+	 */
+	@Override
+	public void printStackTrace(Throwable t) {
+		if (!failedover) {
+			if (primarylock.tryLock()) {
+				try {
+					primary.printStackTrace(t);
+					return;
+				} catch (RuntimeException e) {
+					lasterror = e;
+					failover();
+				} finally {
+					primarylock.unlock();
+				}
+			}
+		}
+		if (fallback != null)
+			fallback.printStackTrace(t);
+	}
+
+	/**
+	 * Flush the fallback, and the primary if not failed over.
+	 */
+	@Override
+	public void flush() {
+		if (fallback != null)
+			fallback.flush();
+		if (!failedover && primarylock.tryLock()) {
+			try {
+				primary.flush();
+			} catch (RuntimeException e) {
+				lasterror = e;
+				failover();
+			} finally {
+				primarylock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Stop the watchdog, replay the buffered messages if the primary recovered and
+	 * close both {@link LogWriter LogWriters}.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		watchdog.interrupt();
+		if (failedover)
+			tryRecover();
+		if (fallback != null)
+			fallback.close();
+		if (primarylock.tryLock()) {
+			try {
+				primary.close();
+			} finally {
+				primarylock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Get whether messages are currently written to the fallback
+	 * 
+	 * @return {@code true} if failed over, {@code false} if the primary is used
+	 */
+	public boolean isFailedover() {
+		return failedover;
+	}
+
+	/**
+	 * Get whether the primary or, if failed over, the fallback is healthy
+	 * 
+	 * @return {@code true} if messages are currently written somewhere,
+	 *         {@code false} if not
+	 */
+	@Override
+	public boolean isHealthy() {
+		return !failedover || (fallback != null && fallback.isHealthy());
+	}
+
+	/**
+	 * Get the number of times the primary was failed over from
+	 * 
+	 * @return the number of failovers
+	 */
+	public long getFailovers() {
+		synchronized (buffered) {
+			return failovers;
+		}
+	}
+
+	/**
+	 * Get the number of messages replayed to the primary
+	 * 
+	 * @return the number of messages replayed
+	 */
+	public long getReplayed() {
+		synchronized (buffered) {
+			return replayed;
+		}
+	}
+
+	/**
+	 * Get the number of messages buffered for replay
+	 * 
+	 * @return the number of messages buffered
+	 */
+	public int getBuffered() {
+		synchronized (buffered) {
+			return buffered.size();
+		}
+	}
+
+	/**
+	 * Get the number of messages not replayed, as the buffer was full
+	 * 
+	 * @return the number of messages dropped from the buffer
+	 */
+	public long getDropped() {
+		synchronized (buffered) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Get the last exception thrown by the primary
+	 * 
+	 * @return the last exception, {@code null} if none was thrown
+	 */
+	public RuntimeException getLasterror() {
+		return lasterror;
+	}
+
+	/**
+	 * Get the latency threshold of a write to the primary
+	 * 
+	 * @return the latency threshold, in milliseconds
+	 */
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * A message buffered for replay
+	 */
+	private static class BufferedMessage {
+
+		/**
+		 * The message
+		 */
+		private final String text;
+		/**
+		 * The {@link Level} of the message, {@code null} if unknown
+		 */
+		private final Level level;
+		/**
+		 * The time the message was logged at, in nanoseconds since the epoch
+		 */
+		private final long timenanos;
+
+		/**
+		 * Creates a new {@link BufferedMessage}.
+		 * 
+		 * @param text      the message
+		 * @param level     the {@link Level} of the message
+		 * @param timenanos the time the message was logged at, in nanoseconds since
+		 *                  the epoch
+		 */
+		private BufferedMessage(String text, Level level, long timenanos) {
+			this.text = text;
+			this.level = level;
+			this.timenanos = timenanos;
+		}
+
+	}
+
+}
@@ -1,6 +1,11 @@
 package de.pentagonlp.simplelogging.writer;
 
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import de.pentagonlp.simplelogging.ansi.AnsiColor;
+import de.pentagonlp.simplelogging.tools.Utf8Buffer;
 
 /**
  * {@link de.pentagonlp.simplelogging.LogWriter LogWriter} to write logged
@@ -10,6 +15,19 @@ import de.pentagonlp.simplelogging.ansi.AnsiColor;
  */
 public class SystemoutLogWriter extends ExceptionOnlyInDebugModeLogWriter {
 
+	/**
+	 * Whether {@link System#out} encodes in UTF-8, so encoded messages can be
+	 * written to it directly
+	 */
+	private static final boolean UTF8SYSTEMOUT = isUtf8(System.getProperty("stdout.encoding"))
+			&& isUtf8(System.getProperty("sun.stdout.encoding")) && isUtf8(Charset.defaultCharset().name());
+
+	/**
+	 * Buffer the logged messages are encoded in before they are written to
+	 * {@link System#out}
+	 */
+	private final Utf8Buffer buffer = new Utf8Buffer();
+
 	/**
 	 * Creates a new {@link SystemoutLogWriter}, using the default setting whether
 	 * {@link ExceptionOnlyInDebugModeLogWriter} is active and only writes
@@ -35,13 +53,62 @@ public class SystemoutLogWriter extends ExceptionOnlyInDebugModeLogWriter {
 
 	/**
 	 * Write a logged message to the {@link System#out} {@link java.io.PrintStream
-	 * PrintStream}
+	 * PrintStream}. If the standard output is UTF-8, the message and the line
+	 * separator are encoded in UTF-8 and written in a single call, bypassing the
+	 * {@link java.io.PrintStream PrintStreams'} own encoder. Otherwise, the
+	 * {@link java.io.PrintStream PrintStream} encodes the message in its charset.
 	 * 
 	 * @param logtext the message to write, as a {@link String}
 	 */
 	@Override
 	public void write(String logtext) {
-		System.out.println(logtext);
+		if (!UTF8SYSTEMOUT) {
+			System.out.println(logtext);
+			return;
+		}
+		synchronized (buffer) {
+			buffer.reset();
+			buffer.append(logtext).append(Utf8Buffer.LINESEPARATOR);
+			try {
+				buffer.writeTo(System.out);
+			} catch (IOException e) {
+				// Cannot occur, PrintStream does not throw
+			}
+		}
+	}
+
+	/**
+	 * Check whether a charset name, if given, is UTF-8
+	 * 
+	 * @param charsetname the name of the charset, {@code null} if not given
+	 * @return {@code true} if UTF-8 or not given, {@code false} if not
+	 */
+	private static boolean isUtf8(String charsetname) {
+		if (charsetname == null)
+			return true;
+		try {
+			return Charset.forName(charsetname).equals(StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			// Nevermind, an unknown charset is not UTF-8
+			return false;
+		}
+	}
+
+	/**
+	 * Flush the {@link System#out} {@link java.io.PrintStream PrintStream}.
+	 */
+	@Override
+	public void flush() {
+		System.out.flush();
+	}
+
+	/**
+	 * Flush the {@link System#out} {@link java.io.PrintStream PrintStream}. The
+	 * standard output itself is not closed.
+	 */
+	@Override
+	public void close() {
+		flush();
 	}
 
 	/**
@@ -0,0 +1,228 @@
+package de.pentagonlp.simplelogging.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.pentagonlp.simplelogging.Level;
+import de.pentagonlp.simplelogging.Log;
+import de.pentagonlp.simplelogging.LogWriter;
+import de.pentagonlp.simplelogging.Logger;
+import de.pentagonlp.simplelogging.formatter.DefaultLogFormatter;
+import de.pentagonlp.simplelogging.formatter.StringLogFormatter;
+import de.pentagonlp.simplelogging.writer.SystemoutLogWriter;
+
+/**
+ * Check of the bytes allocated per logging call on representative paths,
+ * measured using {@code com.sun.management.ThreadMXBean}. Every path has a
+ * declared budget, and the test fails if a path allocates more, so allocation
+ * improvements do not quietly regress between versions. Budgets are set with
+ * little headroom above the measured values: most of a logged message is the
+ * lookup of its call site and the formatted {@link String}, a disabled
+ * {@link Level} allocates nothing. Skipped if the JVM can not measure
+ * allocations per thread.
+ * 
+ * @author PentagonLP
+ */
+public class AllocationBudgetTest {
+
+	/**
+	 * Number of measured iterations per path, run once more before as warmup
+	 */
+	private static final int ITERATIONS = 100_000;
+	/**
+	 * Message logged on every path
+	 */
+	private static final String MESSAGE = "Allocation budget message";
+
+	/**
+	 * The {@code com.sun.management.ThreadMXBean} measuring the allocations
+	 */
+	private static com.sun.management.ThreadMXBean mxbean;
+
+	/**
+	 * Sink to prevent the JIT from removing the measured work
+	 */
+	private static int blackhole = 0;
+
+	/**
+	 * Enable the measurement of allocations, or skip all tests if the JVM can not
+	 * measure them.
+	 */
+	@BeforeAll
+	public static void enableMeasurement() {
+		java.lang.management.ThreadMXBean threadmxbean = ManagementFactory.getThreadMXBean();
+		assumeTrue(threadmxbean instanceof com.sun.management.ThreadMXBean,
+				"This JVM can not measure allocations per thread");
+		mxbean = (com.sun.management.ThreadMXBean) threadmxbean;
+		assumeTrue(mxbean.isThreadAllocatedMemorySupported(), "This JVM can not measure allocations per thread");
+		mxbean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * {@link Logger#log(Level, String)} using the {@link DefaultLogFormatter}
+	 */
+	@Test
+	public void defaultLogFormatter() {
+		final Logger logger = newLogger(new DefaultLogFormatter());
+		assertWithinBudget("Logger.log, DefaultLogFormatter", 1400, new Runnable() {
+			@Override
+			public void run() {
+				logger.log(Level.INFO, MESSAGE);
+			}
+		});
+	}
+
+	/**
+	 * {@link Logger#log(Level, String)} using a {@link StringLogFormatter}
+	 */
+	@Test
+	public void stringLogFormatter() {
+		final Logger logger = newLogger(new StringLogFormatter("[%date% %time%] %level%: %msg%"));
+		assertWithinBudget("Logger.log, StringLogFormatter", 1400, new Runnable() {
+			@Override
+			public void run() {
+				logger.log(Level.INFO, MESSAGE);
+			}
+		});
+	}
+
+	/**
+	 * {@link Logger#log(Level, String)} of a {@link Level} dropped by the
+	 * {@link DefaultLogFormatter} outside of debug mode
+	 */
+	@Test
+	public void disabledLevel() {
+		assumeTrue(!Log.isDebugmode(), "Debug messages are enabled");
+		final Logger logger = newLogger(new DefaultLogFormatter());
+		assertWithinBudget("Logger.log, disabled level", 16, new Runnable() {
+			@Override
+			public void run() {
+				logger.log(Level.DEBUG, MESSAGE);
+			}
+		});
+	}
+
+	/**
+	 * {@link Log#log(Level, String)} to three default {@link Logger Loggers}
+	 */
+	@Test
+	public void fanOut() {
+		ArrayList<Logger> previous = Log.getDefaultlogger();
+		ArrayList<Logger> fanout = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			fanout.add(newLogger(new DefaultLogFormatter()));
+		Log.setDefaultlogger(fanout);
+		try {
+			assertWithinBudget("Log.log, fan-out to 3 loggers", 4300, new Runnable() {
+				@Override
+				public void run() {
+					Log.log(Level.INFO, MESSAGE);
+				}
+			});
+		} finally {
+			Log.setDefaultlogger(previous);
+		}
+	}
+
+	/**
+	 * {@link SystemoutLogWriter#write(String)}, with {@link System#out} replaced by
+	 * a null sink
+	 */
+	@Test
+	public void systemoutLogWriter() {
+		final LogWriter writer = new SystemoutLogWriter();
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole += len;
+			}
+		}));
+		try {
+			assertWithinBudget("SystemoutLogWriter, null sink", 64, new Runnable() {
+				@Override
+				public void run() {
+					writer.write(MESSAGE);
+				}
+			});
+		} finally {
+			System.setOut(console);
+		}
+	}
+
+	/**
+	 * Measure a path and check it against its budget. The path is measured on a
+	 * thread of its own, so the depth of the stack captured for the call site does
+	 * not depend on the test runner.
+	 * 
+	 * @param name   the name of the path
+	 * @param budget the maximum bytes allowed to be allocated per call
+	 * @param path   the path, run once per call
+	 */
+	private static void assertWithinBudget(String name, long budget, final Runnable path) {
+		final double[] bytes = new double[1];
+		Thread measurement = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// Warmup, also fills the caches
+				for (int i = 0; i < ITERATIONS; i++)
+					path.run();
+
+				long thread = Thread.currentThread().getId();
+				long before = mxbean.getThreadAllocatedBytes(thread);
+				for (int i = 0; i < ITERATIONS; i++)
+					path.run();
+				bytes[0] = (double) (mxbean.getThreadAllocatedBytes(thread) - before) / ITERATIONS;
+			}
+		}, "AllocationBudgetTest " + name);
+		measurement.start();
+		try {
+			measurement.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AssertionError("Interrupted while measuring " + name, e);
+		}
+		assertTrue(bytes[0] <= budget, name + " allocated " + bytes[0] + " bytes/op, budget " + budget);
+	}
+
+	/**
+	 * Create a {@link Logger} for the measurement, writing to a null sink and
+	 * without initiation message.
+	 * 
+	 * @param formatter the {@link de.pentagonlp.simplelogging.LogFormatter
+	 *                  LogFormatter} of the {@link Logger}
+	 * @return the {@link Logger}
+	 */
+	private static Logger newLogger(de.pentagonlp.simplelogging.LogFormatter formatter) {
+		Logger logger = new Logger(formatter, new LogWriter() {
+			@Override
+			public void write(String logtext) {
+				blackhole += logtext.length();
+			}
+
+			@Override
+			public boolean isAnsi() {
+				return false;
+			}
+
+			@Override
+			public void printStackTrace(Throwable t) {
+			}
+		});
+		logger.setInitiationmessage(null);
+		return logger;
+	}
+
+}
@@ -0,0 +1,199 @@
+package de.pentagonlp.simplelogging.writer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Crash simulation for the {@link DurableFileLogWriter}: checks that no
+ * acknowledged message is ever lost. Every round
+ * <ol>
+ * <li>starts a child JVM, writing numbered messages from several threads to a
+ * {@link DurableFileLogWriter} waiting for every message to be forced to disk,
+ * and acknowledging every message on its standard output once
+ * {@link DurableFileLogWriter#write(String)} returned, together with
+ * {@link DurableFileLogWriter#getSyncedoffset()},</li>
+ * <li>kills the child JVM forcibly after a random time,</li>
+ * <li>truncates the file to the highest acknowledged synced offset and</li>
+ * <li>checks that every acknowledged message is in the file.</li>
+ * </ol>
+ * Killing the process does not lose the page cache of the operating system, so
+ * the truncation simulates the loss of everything that was not forced to disk.
+ * 
+ * @author PentagonLP
+ */
+public class DurabilityTest {
+
+	/**
+	 * Number of rounds
+	 */
+	private static final int ROUNDS = 3;
+	/**
+	 * Number of writing threads in the child JVM
+	 */
+	private static final int THREADS = 4;
+	/**
+	 * Minimum time the child JVM runs before it is killed, in milliseconds
+	 */
+	private static final int MINRUNTIME = 300;
+	/**
+	 * Maximum additional random time the child JVM runs before it is killed, in
+	 * milliseconds
+	 */
+	private static final int RANDOMRUNTIME = 500;
+	/**
+	 * Prefix of the acknowledgements printed by the child JVM
+	 */
+	private static final String ACK = "ACK ";
+
+	/**
+	 * Directory for the log files
+	 */
+	@TempDir
+	File directory;
+
+	/**
+	 * Run the rounds and check that no acknowledged message was lost.
+	 * 
+	 * @throws Exception if the child JVM can not be run
+	 */
+	@Test
+	public void acknowledgedMessagesSurviveKill() throws Exception {
+		Random random = new Random();
+		for (int round = 1; round <= ROUNDS; round++) {
+			File file = new File(directory, "durability-" + round + ".log");
+			List<String> acknowledged = new ArrayList<>();
+			long syncedoffset = runRound(file, MINRUNTIME + random.nextInt(RANDOMRUNTIME), acknowledged);
+			assertTrue(acknowledged.size() > 0, "Round " + round + ": no message was acknowledged");
+			assertTrue(syncedoffset <= file.length(), "Round " + round + ": synced offset beyond the end of the file");
+			// Lose everything that was not forced to disk
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(syncedoffset);
+			}
+			HashSet<String> written = readLines(file);
+			int lost = 0;
+			for (String message : acknowledged) {
+				if (!written.contains(message))
+					lost++;
+			}
+			assertEquals(0, lost, "Round " + round + ": " + lost + " of " + acknowledged.size()
+					+ " acknowledged messages lost");
+		}
+	}
+
+	/**
+	 * Run a child JVM, collect its acknowledgements and kill it.
+	 * 
+	 * @param file         the log file
+	 * @param runtime      the time to run the child JVM before killing it, in
+	 *                     milliseconds
+	 * @param acknowledged the list to add the acknowledged messages to
+	 * @return the highest synced offset reported by the child JVM
+	 * @throws Exception if the child JVM can not be run
+	 */
+	private static long runRound(File file, long runtime, final List<String> acknowledged) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				DurabilityTest.class.getName(), file.getPath(), String.valueOf(THREADS));
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		final Process child = builder.start();
+
+		final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		final long[] syncedoffset = new long[1];
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (BufferedReader in = new BufferedReader(
+						new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = in.readLine()) != null) {
+						// An acknowledgement cut off by the kill does not count
+						if (!line.startsWith(ACK) || !line.endsWith("."))
+							continue;
+						int space = line.indexOf(' ', ACK.length());
+						syncedoffset[0] = Math.max(syncedoffset[0],
+								Long.parseLong(line.substring(ACK.length(), space)));
+						messages.add(line.substring(space + 1));
+					}
+				} catch (IOException e) {
+					// Nevermind, the child was killed
+				}
+			}
+		}, "DurabilityTest reader");
+		reader.start();
+
+		Thread.sleep(runtime);
+		child.destroyForcibly();
+		child.waitFor();
+		reader.join();
+		acknowledged.addAll(messages);
+		return syncedoffset[0];
+	}
+
+	/**
+	 * Read all complete lines of a file.
+	 * 
+	 * @param file the file to read
+	 * @return the complete lines of the file
+	 * @throws IOException if the file can not be read
+	 */
+	private static HashSet<String> readLines(File file) throws IOException {
+		HashSet<String> lines = new HashSet<>();
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null)
+				lines.add(line);
+		}
+		return lines;
+	}
+
+	/**
+	 * Child mode: write numbered messages until killed, acknowledging every
+	 * message once it is forced to disk, together with the synced offset.
+	 * Messages end with a dot, so a message cut off by the kill can be told apart.
+	 * 
+	 * @param args the filepath of the log file and the number of writing threads
+	 * @throws IOException if the log file can not be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		final DurableFileLogWriter writer = new DurableFileLogWriter(args[0]);
+		writer.setWaitforsync(true);
+		int threads = Integer.parseInt(args[1]);
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (long i = 0;; i++) {
+						String message = "thread " + thread + " message " + i + ".";
+						writer.write(message);
+						if (writer.getLasterror() != null)
+							return;
+						long syncedoffset = writer.getSyncedoffset();
+						synchronized (System.out) {
+							System.out.println(ACK + syncedoffset + " " + message);
+							System.out.flush();
+						}
+					}
+				}
+			}, "DurabilityTest writer " + t).start();
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+package de.pentagonlp.simplelogging.writer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Check of {@link FileLogWriter} appends from several processes to the same
+ * file. Starts several child JVMs at once, each writing records of random size,
+ * some larger than {@link FileLogWriter#ATOMICLIMIT}, and {@code StackTraces}
+ * from several threads to a shared file. Afterwards every record is checked for
+ * being complete, not interleaved with another one and present exactly once.
+ * <p>
+ * Every record is a single line
+ * {@code REC <process> <thread> <sequence> <length> <payload> <crc32>}. A
+ * {@code StackTrace} has to be a header line directly followed by all its
+ * {@code at} lines.
+ * 
+ * @author PentagonLP
+ */
+public class SharedAppendTest {
+
+	/**
+	 * Number of child JVMs
+	 */
+	private static final int PROCESSES = 4;
+	/**
+	 * Number of records per thread
+	 */
+	private static final int RECORDS = 1000;
+	/**
+	 * Number of writing threads per child JVM
+	 */
+	private static final int THREADS = 2;
+	/**
+	 * Every this many records, a {@code StackTrace} is written as well
+	 */
+	private static final int STACKTRACEINTERVAL = 100;
+	/**
+	 * Prefix of every record
+	 */
+	private static final String RECORD = "REC ";
+	/**
+	 * Message of every {@link Throwable} written
+	 */
+	private static final String STACKTRACE = "SharedAppendTest trace";
+
+	/**
+	 * Directory for the shared file
+	 */
+	@TempDir
+	File directory;
+
+	/**
+	 * Run the child JVMs with locking enabled and check the shared file.
+	 * 
+	 * @throws Exception if the child JVMs can not be run
+	 */
+	@Test
+	public void appendsFromSeveralProcessesStayIntact() throws Exception {
+		File file = new File(directory, "sharedappend.log");
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ArrayList<Process> children = new ArrayList<>();
+		for (int p = 0; p < PROCESSES; p++) {
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					SharedAppendTest.class.getName(), file.getPath(), String.valueOf(p), String.valueOf(RECORDS),
+					String.valueOf(true));
+			builder.inheritIO();
+			children.add(builder.start());
+		}
+		for (Process child : children)
+			assertEquals(0, child.waitFor(), "A child JVM failed");
+
+		assertEquals(0, verify(file, PROCESSES, RECORDS), "Torn, interleaved, lost or duplicated records");
+	}
+
+	/**
+	 * Check the shared file.
+	 * 
+	 * @param file      the shared file
+	 * @param processes the number of child JVMs
+	 * @param records   the number of records per thread
+	 * @return the number of errors found
+	 * @throws IOException if the file can not be read
+	 */
+	private static int verify(File file, int processes, int records) throws IOException {
+		HashMap<String, boolean[]> seen = new HashMap<>();
+		int errors = 0;
+		int stacktraces = 0;
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			// Whether the previous line belongs to a StackTrace
+			boolean instacktrace = false;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("\tat ")) {
+					if (!instacktrace)
+						errors += report("'at' line outside of a StackTrace", line);
+					continue;
+				}
+				instacktrace = false;
+				if (line.contains(STACKTRACE)) {
+					if (!line.startsWith(Exception.class.getName()))
+						errors += report("torn StackTrace header", line);
+					instacktrace = true;
+					stacktraces++;
+					continue;
+				}
+				String error = checkRecord(line, seen, records);
+				if (error != null)
+					errors += report(error, line);
+			}
+		}
+
+		for (int p = 0; p < processes; p++) {
+			for (int t = 0; t < THREADS; t++) {
+				boolean[] sequences = seen.get(p + " " + t);
+				int missing = 0;
+				for (int i = 0; i < records; i++) {
+					if (sequences == null || !sequences[i])
+						missing++;
+				}
+				if (missing > 0) {
+					System.out.println("Process " + p + " thread " + t + ": " + missing + " records missing");
+					errors += missing;
+				}
+			}
+		}
+		int expectedstacktraces = processes * THREADS * ((records + STACKTRACEINTERVAL - 1) / STACKTRACEINTERVAL);
+		if (stacktraces != expectedstacktraces) {
+			System.out.println(stacktraces + " StackTraces found, " + expectedstacktraces + " expected");
+			errors++;
+		}
+		return errors;
+	}
+
+	/**
+	 * Check a record and mark it as seen.
+	 * 
+	 * @param line    the line of the record
+	 * @param seen    the sequences seen per process and thread
+	 * @param records the number of records per thread
+	 * @return the error found, {@code null} if the record is intact
+	 */
+	private static String checkRecord(String line, HashMap<String, boolean[]> seen, int records) {
+		String[] fields = line.split(" ");
+		if (fields.length != 7 || !line.startsWith(RECORD))
+			return "torn or interleaved record";
+		try {
+			int length = Integer.parseInt(fields[4]);
+			if (fields[5].length() != length)
+				return "record of wrong length";
+			if (!checksum(fields[5]).equals(fields[6]))
+				return "record with wrong checksum";
+			int sequence = Integer.parseInt(fields[3]);
+			String key = fields[1] + " " + fields[2];
+			boolean[] sequences = seen.get(key);
+			if (sequences == null) {
+				sequences = new boolean[records];
+				seen.put(key, sequences);
+			}
+			if (sequences[sequence])
+				return "duplicated record";
+			sequences[sequence] = true;
+			return null;
+		} catch (RuntimeException e) {
+			return "torn or interleaved record";
+		}
+	}
+
+	/**
+	 * Print an error, shortening the line.
+	 * 
+	 * @param error the error
+	 * @param line  the line the error was found in
+	 * @return {@code 1}
+	 */
+	private static int report(String error, String line) {
+		System.out.println(error + ": " + (line.length() > 100 ? line.substring(0, 100) + "..." : line));
+		return 1;
+	}
+
+	/**
+	 * Get the checksum of a payload
+	 * 
+	 * @param payload the payload
+	 * @return the CRC32 of the payload, in hex
+	 */
+	private static String checksum(String payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload.getBytes(StandardCharsets.UTF_8));
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Child mode: write the records of this process to the shared file.
+	 * 
+	 * @param args the filepath of the shared file, the number of this process, the
+	 *             number of records per thread and whether locking is enabled
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final int process = Integer.parseInt(args[1]);
+		final int records = Integer.parseInt(args[2]);
+		boolean locking = Boolean.parseBoolean(args[3]);
+		final FileLogWriter writer = new FileLogWriter(args[0], false);
+		writer.setLocking(locking);
+		writer.setExceptionOnlyInDebugMode(false);
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(process * 31 + thread);
+					StringBuilder payload = new StringBuilder();
+					for (int i = 0; i < records; i++) {
+						// Mostly small records, some far above the atomic limit
+						int length = random.nextInt(10) == 0 ? FileLogWriter.ATOMICLIMIT + random.nextInt(60_000)
+								: 10 + random.nextInt(200);
+						payload.setLength(0);
+						for (int c = 0; c < length; c++)
+							payload.append((char) ('a' + random.nextInt(26)));
+						String text = payload.toString();
+						writer.write(RECORD + process + " " + thread + " " + i + " " + length + " " + text + " "
+								+ checksum(text));
+						if (i % STACKTRACEINTERVAL == 0)
+							writer.printStackTrace(new Exception(STACKTRACE));
+					}
+				}
+			}, "SharedAppendTest writer " + t);
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		writer.close();
+	}
+
+}